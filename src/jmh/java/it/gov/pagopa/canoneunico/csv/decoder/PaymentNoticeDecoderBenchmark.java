@@ -0,0 +1,86 @@
+package it.gov.pagopa.canoneunico.csv.decoder;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.enums.CSVReaderNullFieldIndicator;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.model.OrganizationIndex;
+
+/**
+ * Compares the opencsv decoder with {@link PaymentNoticeCsvToBean} on a file of valid rows.
+ * Run with: mvn -Pbenchmark compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentNoticeDecoderBenchmark {
+
+    @Param({"10000", "100000"})
+    private int rows;
+
+    private String data;
+    private OrganizationIndex organizationIndex;
+
+    @Setup
+    public void setup() {
+        List<EcConfigEntity> organizations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            EcConfigEntity ec = new EcConfigEntity(String.format("%011d", i));
+            ec.setPaIdCatasto("C" + i);
+            organizations.add(ec);
+        }
+        organizationIndex = new OrganizationIndex(organizations);
+
+        StringBuilder csv = new StringBuilder("id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;pa_id_cbill;pa_pec_mail;pa_referent_email;pa_referent_name;amount;debtor_id_fiscal_code;debtor_name;debtor_email;payment_notice_number;note\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append(i).append(";;C").append(i % 100).append(";;;;;;").append(10_000 + i)
+                    .append(";12345678910;Debtor name ").append(i).append(";debtor@mail.it;;note\n");
+        }
+        data = csv.toString();
+    }
+
+    @Benchmark
+    public List<PaymentNotice> openCsv() {
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        return new CsvToBeanBuilder<PaymentNotice>(new StringReader(data))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withMappingStrategy(mappingStrategy)
+                .withVerifier(new PaymentNoticeVerifier(organizationIndex))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build()
+                .parse();
+    }
+
+    @Benchmark
+    public List<PaymentNotice> nativeDecoder() {
+        return new PaymentNoticeCsvToBean(new StringReader(data), new PaymentNoticeVerifier(organizationIndex)).parse();
+    }
+}
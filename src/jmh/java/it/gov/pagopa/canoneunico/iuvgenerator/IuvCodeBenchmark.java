@@ -0,0 +1,52 @@
+package it.gov.pagopa.canoneunico.iuvgenerator;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the IUV Code formatted with DecimalFormat, String.format and BigDecimal
+ * (as done before {@link IuvCodeFormatter}) with {@link IuvCodeFormatter}.
+ * Run with: mvn -Pbenchmark compile exec:exec -Djmh.includes=IuvCodeBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IuvCodeBenchmark {
+
+    private final IuvCodeFormatter formatter = new IuvCodeFormatter(3);
+    private final char[] buffer = new char[IuvCodeFormatter.IUV_LENGTH];
+    private long iuvBase = 1_634_567_890_123L;
+
+    @Benchmark
+    public String stringFormat() {
+        String segregationCodeString = new DecimalFormat("00").format(47);
+        String iuvBase13Digits = String.format("%013d", iuvBase++);
+        String checkDigit = String.format("%02d", new BigDecimal("3" + segregationCodeString + iuvBase13Digits).remainder(new BigDecimal(93)).intValue());
+        return segregationCodeString + iuvBase13Digits + checkDigit;
+    }
+
+    @Benchmark
+    public String formatter() {
+        return formatter.format(47, iuvBase++);
+    }
+
+    @Benchmark
+    public char[] formatterInBuffer() {
+        formatter.format(47, iuvBase++, buffer, 0);
+        return buffer;
+    }
+}
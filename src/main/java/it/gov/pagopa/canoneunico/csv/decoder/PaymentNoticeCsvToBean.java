@@ -0,0 +1,712 @@
+package it.gov.pagopa.canoneunico.csv.decoder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.opencsv.bean.BeanVerifier;
+import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.exceptionhandler.CsvExceptionHandler;
+import com.opencsv.bean.exceptionhandler.ExceptionHandlerQueue;
+import com.opencsv.bean.exceptionhandler.ExceptionHandlerThrow;
+import com.opencsv.exceptions.CsvConstraintViolationException;
+import com.opencsv.exceptions.CsvDataTypeMismatchException;
+import com.opencsv.exceptions.CsvException;
+import com.opencsv.exceptions.CsvMalformedLineException;
+import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
+import it.gov.pagopa.canoneunico.csv.validaton.ValidationEngine;
+
+/**
+ * Reflection-free {@link CsvToBean} specialised for the ';'-separated {@link PaymentNotice} layout.
+ * <p>
+ * The header is resolved to column indexes once; every line is tokenized into a reusable char buffer
+ * and the fields are assigned through the setters: only the String fields of the bean are allocated
+ * and the long fields are parsed in place.
+ * Quotes, escapes, empty fields as null, line numbers and error messages follow the opencsv configuration
+ * of {@link it.gov.pagopa.canoneunico.service.CuCsvService#parseCsvToBean(Reader)}, so the validation result is the same.
+ * Rows are validated sequentially, or in parallel chunks on a {@link ForkJoinPool}.
+ */
+public class PaymentNoticeCsvToBean extends CsvToBean<PaymentNotice> {
+
+	private static final char SEPARATOR = ';';
+	private static final char QUOTE = '"';
+	private static final char ESCAPE = '\\';
+
+	private static final int ID = 0;
+	private static final int PA_ID_ISTAT = 1;
+	private static final int PA_ID_CATASTO = 2;
+	private static final int PA_ID_FISCAL_CODE = 3;
+	private static final int PA_ID_CBILL = 4;
+	private static final int PA_PEC_EMAIL = 5;
+	private static final int PA_REFERENT_EMAIL = 6;
+	private static final int PA_REFERENT_NAME = 7;
+	private static final int AMOUNT = 8;
+	private static final int DEBTOR_FISCAL_CODE = 9;
+	private static final int DEBTOR_NAME = 10;
+	private static final int DEBTOR_EMAIL = 11;
+	private static final int PAYMENT_NOTICE_NUMBER = 12;
+	private static final int NOTE = 13;
+
+	// column name, bean field name and required flag of each field, as bound by the PaymentNotice annotations
+	private static final String[] COLUMNS = {"id", "pa_id_istat", "pa_id_catasto", "pa_id_fiscal_code", "pa_id_cbill", "pa_pec_mail",
+			"pa_referent_email", "pa_referent_name", "amount", "debtor_id_fiscal_code", "debtor_name", "debtor_email", "payment_notice_number", "note"};
+	private static final String[] FIELD_NAMES = {"id", "paIdIstat", "paIdCatasto", "paIdFiscalCode", "paIdCBill", "paPecEmail",
+			"paReferentEmail", "paReferentName", "amount", "debtorFiscalCode", "debtorName", "debtorEmail", "paymentNoticeNumber", "note"};
+	private static final boolean[] REQUIRED = {true, false, false, false, false, false, false, false, true, true, true, false, false, false};
+	private static final Map<String, Integer> FIELDS_BY_COLUMN = new HashMap<>();
+
+	static {
+		for (int i = 0; i < COLUMNS.length; i++) {
+			// header names are matched ignoring case, as by HeaderColumnNameMappingStrategy
+			FIELDS_BY_COLUMN.put(COLUMNS[i].toUpperCase(Locale.ROOT), i);
+		}
+	}
+
+	private final Reader reader;
+	private final BeanVerifier<PaymentNotice> verifier;
+	// parallel validation: the rules are applied by the pool threads to chunks of rows
+	private final ValidationEngine engine;
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private final Deque<PaymentNotice> ready = new ArrayDeque<>();
+	private RuntimeException stopped;
+	private final List<CsvException> capturedExceptions = new ArrayList<>();
+	// errors of the current row
+	private final List<CsvException> rowExceptions = new ArrayList<>();
+	private CsvExceptionHandler exceptionHandler = new ExceptionHandlerQueue();
+
+	// input buffer
+	private final char[] input = new char[64 * 1024];
+	private int inputPosition;
+	private int inputLength;
+	private boolean skipLineFeed;
+	private boolean endOfInput;
+
+	// current physical line
+	private char[] line = new char[1024];
+	private int lineLength;
+	private long linesRead;
+
+	// fields of the current record: field i is output[fieldStart[i], fieldStart[i] + fieldLength[i]), null if the length is -1
+	private char[] output = new char[1024];
+	private int outputLength;
+	private int[] fieldStart = new int[32];
+	private int[] fieldLength = new int[32];
+	private int fieldCount;
+	private int currentFieldStart;
+	private boolean inField;
+
+	// bean field of each column of the file, -1 if not mapped
+	private int[] columnFields;
+
+	public PaymentNoticeCsvToBean(Reader reader, BeanVerifier<PaymentNotice> verifier) {
+		this.reader = reader;
+		this.verifier = verifier;
+		this.engine = null;
+		this.pool = null;
+		this.chunkSize = 0;
+	}
+
+	/**
+	 * Parallel validation: the rows are read in chunks that are converted and checked with the row rules by the pool threads;
+	 * the ordered rules (e.g. the unique id) are then applied in line order, so the result is the same of a sequential read.
+	 *
+	 * @param engine    the validation rules
+	 * @param pool      the threads converting and checking the chunks
+	 * @param chunkSize the number of rows of a chunk
+	 */
+	public PaymentNoticeCsvToBean(Reader reader, ValidationEngine engine, ForkJoinPool pool, int chunkSize) {
+		this.reader = reader;
+		this.verifier = null;
+		this.engine = engine;
+		this.pool = pool;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	@Override
+	public List<PaymentNotice> parse() {
+		List<PaymentNotice> payments = new ArrayList<>();
+		this.iterator().forEachRemaining(payments::add);
+		return payments;
+	}
+
+	@Override
+	public Stream<PaymentNotice> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	@Override
+	public Iterator<PaymentNotice> iterator() {
+		return new Iterator<>() {
+			private PaymentNotice next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					next = readBean();
+				}
+				return next != null;
+			}
+
+			@Override
+			public PaymentNotice next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				PaymentNotice bean = next;
+				next = null;
+				return bean;
+			}
+		};
+	}
+
+	@Override
+	public List<CsvException> getCapturedExceptions() {
+		return capturedExceptions;
+	}
+
+	@Override
+	public void setThrowExceptions(boolean throwExceptions) {
+		this.exceptionHandler = throwExceptions ? new ExceptionHandlerThrow() : new ExceptionHandlerQueue();
+	}
+
+	@Override
+	public void setExceptionHandler(CsvExceptionHandler handler) {
+		if (handler != null) {
+			this.exceptionHandler = handler;
+		}
+	}
+
+	// next valid bean, null at the end of the file; the invalid rows are passed to the exception handler
+	private PaymentNotice readBean() {
+		try {
+			if (columnFields == null) {
+				this.readHeader();
+			}
+			if (pool != null) {
+				while (ready.isEmpty()) {
+					if (stopped != null) {
+						throw stopped;
+					}
+					if (!this.readBatch()) {
+						return null;
+					}
+				}
+				return ready.poll();
+			}
+			while (this.readRecord()) {
+				Fields fields = this.currentFields();
+				rowExceptions.clear();
+				PaymentNotice bean = toBean(columnFields, fields, rowExceptions);
+				if (rowExceptions.isEmpty()) {
+					try {
+						if (verifier == null || verifier.verifyBean(bean)) {
+							return bean;
+						}
+					} catch (CsvConstraintViolationException e) {
+						rowExceptions.add(e);
+					}
+				}
+				for (CsvException e : rowExceptions) {
+					e.setLineNumber(linesRead);
+					e.setLine(fields.toArray());
+					this.handleException(e);
+				}
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Reads up to one chunk per thread, converts the chunks and applies the row rules in parallel,
+	 * then applies the ordered rules in line order. False at the end of the file.
+	 */
+	private boolean readBatch() throws IOException {
+		List<Chunk> chunks = new ArrayList<>();
+		boolean endOfFile = false;
+		while (!endOfFile && chunks.size() < pool.getParallelism()) {
+			Chunk chunk = new Chunk();
+			while (chunk.size < chunkSize && !(endOfFile = !this.readRecord())) {
+				chunk.add(output, outputLength, fieldStart, fieldLength, fieldCount, linesRead);
+			}
+			if (chunk.size > 0) {
+				chunks.add(chunk);
+			}
+		}
+		if (chunks.isEmpty()) {
+			return false;
+		}
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+		for (Chunk chunk : chunks) {
+			tasks.add(pool.submit(() -> chunk.validate(columnFields, engine)));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.size; i++) {
+				List<CsvException> exceptions = chunk.exceptions.get(i);
+				if (exceptions == null) {
+					List<String> errors = engine.validateOrdered(chunk.beans[i]);
+					List<String> rowErrors = chunk.errors.get(i);
+					if (errors.isEmpty() && rowErrors == null) {
+						ready.add(chunk.beans[i]);
+						continue;
+					}
+					if (rowErrors != null) {
+						errors.addAll(rowErrors);
+					}
+					CsvException exception = new CsvConstraintViolationException(String.join(PaymentNoticeVerifier.ERRORS_SEPARATOR, errors));
+					exception.setLineNumber(chunk.lineNumbers[i]);
+					exception.setLine(chunk.fields(i).toArray());
+					exceptions = List.of(exception);
+				}
+				try {
+					for (CsvException exception : exceptions) {
+						this.handleException(exception);
+					}
+				} catch (RuntimeException e) {
+					// thrown after the valid rows preceding the exception
+					stopped = e;
+					return true;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void handleException(CsvException e) {
+		try {
+			CsvException queued = exceptionHandler.handleException(e);
+			if (queued != null) {
+				capturedExceptions.add(queued);
+			}
+		} catch (CsvException thrown) {
+			throw new RuntimeException(thrown);
+		}
+	}
+
+	private void readHeader() throws IOException {
+		String[] header = this.readRecord() ? this.currentFields().toArray() : new String[0];
+		columnFields = new int[header.length];
+		boolean[] mapped = new boolean[COLUMNS.length];
+		for (int i = 0; i < header.length; i++) {
+			Integer field = header[i] != null ? FIELDS_BY_COLUMN.get(header[i].toUpperCase(Locale.ROOT)) : null;
+			columnFields[i] = field != null ? field : -1;
+			if (field != null) {
+				mapped[field] = true;
+			}
+		}
+
+		List<String> missing = new ArrayList<>();
+		for (int i = 0; i < COLUMNS.length; i++) {
+			if (REQUIRED[i] && !mapped[i]) {
+				missing.add(COLUMNS[i].toUpperCase(Locale.ROOT));
+			}
+		}
+		if (!missing.isEmpty()) {
+			throw new RuntimeException("Error capturing CSV header!", new CsvRequiredFieldEmptyException(PaymentNotice.class,
+					String.format("Header is missing required fields [%s]. The list of headers encountered is [%s].",
+							String.join(", ", missing), String.join(",", Arrays.asList(header)))));
+		}
+	}
+
+	private Fields currentFields() {
+		return new Fields(output, fieldStart, fieldLength, 0, fieldCount);
+	}
+
+	/*
+	 * The bean of the fields; the errors of the row are added to the given list, in column order,
+	 * every failing column as reported by opencsv. The bean is not valid if an error is added.
+	 */
+	private static PaymentNotice toBean(int[] columnFields, Fields fields, List<CsvException> exceptions) {
+		PaymentNotice bean = new PaymentNotice();
+		if (fields.count != columnFields.length) {
+			exceptions.add(new CsvRequiredFieldEmptyException(PaymentNotice.class, "Number of data fields does not match number of headers."));
+			return bean;
+		}
+
+		for (int column = 0; column < fields.count; column++) {
+			int field = columnFields[column];
+			if (field < 0) {
+				continue;
+			}
+			if (REQUIRED[field] && fields.isBlank(column)) {
+				exceptions.add(new CsvRequiredFieldEmptyException(PaymentNotice.class,
+						String.format("Field '%s' is mandatory but no value was provided.", FIELD_NAMES[field])));
+				continue;
+			}
+			try {
+				setField(bean, field, fields, column);
+			} catch (CsvDataTypeMismatchException e) {
+				exceptions.add(e);
+			}
+		}
+		return bean;
+	}
+
+	private static void setField(PaymentNotice bean, int field, Fields fields, int column) throws CsvDataTypeMismatchException {
+		switch (field) {
+			case ID: bean.setId(fields.get(column)); break;
+			case PA_ID_ISTAT: bean.setPaIdIstat(fields.get(column)); break;
+			case PA_ID_CATASTO: bean.setPaIdCatasto(fields.get(column)); break;
+			case PA_ID_FISCAL_CODE: bean.setPaIdFiscalCode(fields.get(column)); break;
+			case PA_ID_CBILL: bean.setPaIdCBill(fields.get(column)); break;
+			case PA_PEC_EMAIL: bean.setPaPecEmail(fields.get(column)); break;
+			case PA_REFERENT_EMAIL: bean.setPaReferentEmail(fields.get(column)); break;
+			case PA_REFERENT_NAME: bean.setPaReferentName(fields.get(column)); break;
+			case AMOUNT: if (!fields.isBlank(column)) bean.setAmount(fields.getLong(column)); break;
+			case DEBTOR_FISCAL_CODE: bean.setDebtorFiscalCode(fields.get(column)); break;
+			case DEBTOR_NAME: bean.setDebtorName(fields.get(column)); break;
+			case DEBTOR_EMAIL: bean.setDebtorEmail(fields.get(column)); break;
+			case PAYMENT_NOTICE_NUMBER: if (!fields.isBlank(column)) bean.setPaymentNoticeNumber(fields.getLong(column)); break;
+			case NOTE: bean.setNote(fields.get(column)); break;
+			default: break;
+		}
+	}
+
+	/*
+	 * Reads the fields of the next record, false at the end of the file.
+	 * A quoted field may span more lines: the record ends with the line closing the quotes.
+	 */
+	private boolean readRecord() throws IOException {
+		outputLength = 0;
+		fieldCount = 0;
+		currentFieldStart = 0;
+		inField = false;
+		boolean pending = false;
+		do {
+			if (!this.readLine()) {
+				if (!pending) {
+					return false;
+				}
+				String lostText = new String(output, currentFieldStart, outputLength - currentFieldStart);
+				throw new RuntimeException(String.format("Error parsing CSV line: %s, values: %s", linesRead, lostText),
+						new CsvMalformedLineException(String.format("Unterminated quoted field at end of CSV line. Beginning of lost text: [%s]", lostText),
+								linesRead, lostText));
+			}
+			pending = this.parseLine(pending);
+		} while (pending);
+		return true;
+	}
+
+	/*
+	 * Tokenizes the current line as com.opencsv.CSVParser with ';' separator, '"' quote, '\' escape,
+	 * leading white space ignored before quotes and empty fields as null.
+	 * Returns true if the line ends inside quotes.
+	 */
+	private boolean parseLine(boolean pending) {
+		boolean inQuotes = pending;
+		int i = 0;
+		while (i < lineLength) {
+			char c = line[i++];
+			if (c == ESCAPE) {
+				inField = true;
+				if (i < lineLength && (line[i] == QUOTE || line[i] == ESCAPE || line[i] == SEPARATOR)) {
+					this.append(line[i++]);
+				}
+			} else if (c == QUOTE) {
+				if ((inQuotes || inField) && i < lineLength && line[i] == QUOTE) {
+					// doubled quote
+					this.append(line[i++]);
+				} else {
+					inQuotes = !inQuotes;
+					// a quote inside the field is kept, unless it follows only white spaces
+					if (i > 3 && line[i - 2] != SEPARATOR && lineLength > i && line[i] != SEPARATOR) {
+						if (outputLength > currentFieldStart && this.isWhitespace(currentFieldStart, outputLength)) {
+							outputLength = currentFieldStart;
+						} else {
+							this.append(c);
+						}
+					}
+				}
+				inField = !inField;
+			} else if (c == SEPARATOR && !inQuotes) {
+				this.endField();
+				inField = false;
+			} else {
+				this.append(c);
+				inField = true;
+			}
+		}
+
+		if (inQuotes) {
+			this.append('\n');
+			return true;
+		}
+		inField = false;
+		this.endField();
+		return false;
+	}
+
+	private boolean isWhitespace(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isWhitespace(output[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void append(char c) {
+		if (outputLength == output.length) {
+			output = Arrays.copyOf(output, output.length * 2);
+		}
+		output[outputLength++] = c;
+	}
+
+	private void endField() {
+		if (fieldCount == fieldStart.length) {
+			fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+			fieldLength = Arrays.copyOf(fieldLength, fieldCount * 2);
+		}
+		fieldStart[fieldCount] = currentFieldStart;
+		fieldLength[fieldCount] = outputLength > currentFieldStart ? outputLength - currentFieldStart : -1;
+		fieldCount++;
+		currentFieldStart = outputLength;
+	}
+
+	/*
+	 * Reads the next physical line, terminated by '\n', '\r' or "\r\n" as by BufferedReader.readLine; false at the end of the file.
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		boolean read = false;
+		while (true) {
+			if (inputPosition == inputLength) {
+				if (endOfInput || !this.fill()) {
+					if (read) {
+						linesRead++;
+					}
+					return read;
+				}
+			}
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (input[inputPosition] == '\n') {
+					inputPosition++;
+					continue;
+				}
+			}
+			read = true;
+			int start = inputPosition;
+			while (inputPosition < inputLength && input[inputPosition] != '\n' && input[inputPosition] != '\r') {
+				inputPosition++;
+			}
+			this.appendToLine(start, inputPosition);
+			if (inputPosition < inputLength) {
+				skipLineFeed = input[inputPosition++] == '\r';
+				linesRead++;
+				return true;
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+		int n = reader.read(input, 0, input.length);
+		if (n <= 0) {
+			endOfInput = true;
+			return false;
+		}
+		inputPosition = 0;
+		inputLength = n;
+		return true;
+	}
+
+	private void appendToLine(int start, int end) {
+		int length = end - start;
+		if (lineLength + length > line.length) {
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+		}
+		System.arraycopy(input, start, line, lineLength, length);
+		lineLength += length;
+	}
+
+	/**
+	 * The fields of a record: field i is data[start[first + i], start[first + i] + length[first + i]), null if the length is -1.
+	 */
+	private static final class Fields {
+		private final char[] data;
+		private final int[] start;
+		private final int[] length;
+		private final int first;
+		private final int count;
+
+		Fields(char[] data, int[] start, int[] length, int first, int count) {
+			this.data = data;
+			this.start = start;
+			this.length = length;
+			this.first = first;
+			this.count = count;
+		}
+
+		String get(int i) {
+			return length[first + i] < 0 ? null : new String(data, start[first + i], length[first + i]);
+		}
+
+		String[] toArray() {
+			String[] fields = new String[count];
+			for (int i = 0; i < count; i++) {
+				fields[i] = this.get(i);
+			}
+			return fields;
+		}
+
+		boolean isBlank(int i) {
+			for (int j = start[first + i], end = j + length[first + i]; j < end; j++) {
+				if (!Character.isWhitespace(data[j])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// same result of Long.parseLong(value.trim()), without creating the value
+		long getLong(int i) throws CsvDataTypeMismatchException {
+			int begin = start[first + i];
+			int end = begin + length[first + i];
+			while (begin < end && data[begin] <= ' ') {
+				begin++;
+			}
+			while (end > begin && data[end - 1] <= ' ') {
+				end--;
+			}
+			if (begin == end) {
+				throw this.conversionFailed(i);
+			}
+
+			boolean negative = false;
+			long limit = -Long.MAX_VALUE;
+			int j = begin;
+			char sign = data[j];
+			if (sign < '0') {
+				if (sign == '-') {
+					negative = true;
+					limit = Long.MIN_VALUE;
+				} else if (sign != '+') {
+					throw this.conversionFailed(i);
+				}
+				if (end - begin == 1) {
+					throw this.conversionFailed(i);
+				}
+				j++;
+			}
+			long multiplyMin = limit / 10;
+			long result = 0;
+			while (j < end) {
+				int digit = Character.digit(data[j++], 10);
+				if (digit < 0 || result < multiplyMin) {
+					throw this.conversionFailed(i);
+				}
+				result *= 10;
+				if (result < limit + digit) {
+					throw this.conversionFailed(i);
+				}
+				result -= digit;
+			}
+			return negative ? result : -result;
+		}
+
+		private CsvDataTypeMismatchException conversionFailed(int i) {
+			String value = this.get(i);
+			return new CsvDataTypeMismatchException(value, long.class, String.format("Conversion of %s to long failed.", value));
+		}
+	}
+
+	/**
+	 * A copy of consecutive records, converted and checked by a worker thread.
+	 */
+	private static final class Chunk {
+		private char[] data = new char[16 * 1024];
+		private int dataLength;
+		private int[] start = new int[1024];
+		private int[] length = new int[1024];
+		private int fieldsLength;
+		private int[] firstField = new int[64];
+		private int[] fieldCount = new int[64];
+		private long[] lineNumbers = new long[64];
+		private int size;
+
+		// results: the bean with the errors of the row rules, or the conversion error
+		private PaymentNotice[] beans;
+		private List<List<String>> errors;
+		// conversion errors of each row, null if the row is converted
+		private List<List<CsvException>> exceptions;
+
+		void add(char[] recordData, int recordLength, int[] recordStart, int[] recordFieldLength, int recordFields, long lineNumber) {
+			if (dataLength + recordLength > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + recordLength));
+			}
+			if (fieldsLength + recordFields > start.length) {
+				start = Arrays.copyOf(start, Math.max(start.length * 2, fieldsLength + recordFields));
+				length = Arrays.copyOf(length, start.length);
+			}
+			if (size == lineNumbers.length) {
+				firstField = Arrays.copyOf(firstField, size * 2);
+				fieldCount = Arrays.copyOf(fieldCount, size * 2);
+				lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+			}
+			System.arraycopy(recordData, 0, data, dataLength, recordLength);
+			for (int i = 0; i < recordFields; i++) {
+				start[fieldsLength + i] = dataLength + recordStart[i];
+				length[fieldsLength + i] = recordFieldLength[i];
+			}
+			firstField[size] = fieldsLength;
+			fieldCount[size] = recordFields;
+			lineNumbers[size] = lineNumber;
+			dataLength += recordLength;
+			fieldsLength += recordFields;
+			size++;
+		}
+
+		Fields fields(int i) {
+			return new Fields(data, start, length, firstField[i], fieldCount[i]);
+		}
+
+		void validate(int[] columnFields, ValidationEngine engine) {
+			beans = new PaymentNotice[size];
+			errors = new ArrayList<>(size);
+			exceptions = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				Fields fields = this.fields(i);
+				List<CsvException> rowExceptions = new ArrayList<>(0);
+				beans[i] = toBean(columnFields, fields, rowExceptions);
+				if (rowExceptions.isEmpty()) {
+					List<String> rowErrors = engine.validateRow(beans[i]);
+					errors.add(rowErrors.isEmpty() ? null : rowErrors);
+					exceptions.add(null);
+					continue;
+				}
+				errors.add(null);
+				for (CsvException e : rowExceptions) {
+					e.setLineNumber(lineNumbers[i]);
+					e.setLine(fields.toArray());
+				}
+				exceptions.add(rowExceptions);
+			}
+		}
+	}
+}
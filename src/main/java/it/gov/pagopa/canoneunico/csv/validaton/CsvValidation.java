@@ -1,11 +1,23 @@
 package it.gov.pagopa.canoneunico.csv.validaton;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.opencsv.CSVParserBuilder;
 import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.exceptionhandler.CsvExceptionHandler;
 import com.opencsv.exceptions.CsvException;
 
 import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
@@ -17,18 +29,45 @@ import lombok.experimental.UtilityClass;
 @UtilityClass
 public class CsvValidation {
 
+	private static final int MAX_HEADER_LENGTH = 64 * 1024;
+	private static final String[] REQUIRED_COLUMNS = {"id", "amount", "debtor_id_fiscal_code", "debtor_name"};
+	private static final String[] ORGANIZATION_COLUMNS = {"pa_id_istat", "pa_id_catasto", "pa_id_fiscal_code"};
+
     public static DebtPositionValidationCsv checkCsvIsValid(Logger logger, String fileName, CsvToBean<PaymentNotice> csvToBean){
+		return checkCsvIsValid(logger, fileName, csvToBean, 0);
+    }
+
+    /**
+     * @param maxInvalidRows if greater than zero, the validation stops at the given number of invalid rows
+     *                       and the following rows are not read: 1 rejects the file at its first invalid row
+     */
+    public static DebtPositionValidationCsv checkCsvIsValid(Logger logger, String fileName, CsvToBean<PaymentNotice> csvToBean, int maxInvalidRows){
 		DebtPositionValidationCsv debtPosValidation = new DebtPositionValidationCsv();
 		debtPosValidation.setCsvFilename(fileName);
 		List<PaymentNotice> payments = new ArrayList<>();
 
 		if(csvToBean != null) {
 			try {
-				payments = csvToBean.parse();
+				if (maxInvalidRows > 0) {
+					// sequential read: nothing is parsed after the last allowed invalid row
+					csvToBean.setExceptionHandler(new InvalidRowsLimitHandler(maxInvalidRows));
+					csvToBean.iterator().forEachRemaining(payments::add);
+				} else {
+					payments = csvToBean.parse();
+				}
 			} catch (Exception e) {
 				logger.log(Level.INFO, () -> e.getCause() + " " + e.getMessage());
+				if (e.getCause() instanceof IOException) {
+					// the content was not read to its end, e.g. a decompressed file over its limit: the rows read are not the file
+					throw new UncheckedIOException((IOException) e.getCause());
+				}
+				if (e.getCause() instanceof InvalidRowsLimitException) {
+					csvToBean.getCapturedExceptions().add(((InvalidRowsLimitException) e.getCause()).getLastException());
+					debtPosValidation.setInterrupted(true);
+					logger.log(Level.INFO, () -> String.format("[CsvValidation] [%s] validation stopped at %s invalid rows", fileName, maxInvalidRows));
+				}
 				// to work around the error "the exception is never thrown in the corresponding try block", actually the exception is thrown in specific cases
-				if(String.valueOf(e.getCause()).contains("CsvRequiredFieldEmptyException"))
+				else if(String.valueOf(e.getCause()).contains("CsvRequiredFieldEmptyException"))
 					csvToBean.getCapturedExceptions().add(
 							new CsvRequiredFieldEmptyException(
 									String.format("%s %s", e.getMessage(), e.getCause())
@@ -40,30 +79,134 @@ public class CsvValidation {
 		List<CsvException> parsingExceptions = csvToBean!=null ? csvToBean.getCapturedExceptions(): new ArrayList<>();
 		debtPosValidation.setPayments(payments);
 		debtPosValidation.setParsingExceptions(parsingExceptions);
-		debtPosValidation.setTotalNumberRows(payments.size()+parsingExceptions.size());
-		debtPosValidation.setNumberInvalidRows(parsingExceptions.size());
     	CsvValidation.checkConstraintErrors(debtPosValidation);
+		// a row with more errors is counted once
+		int invalidRows = debtPosValidation.getErrorRows().size();
+		debtPosValidation.setTotalNumberRows(payments.size()+invalidRows);
+		debtPosValidation.setNumberInvalidRows(invalidRows);
         return debtPosValidation;
     }
-    
+
+    /**
+     * Checks the columns of the file before reading any row.
+     *
+     * @param header the column names of the file, null if the file is empty
+     * @return the validation result of a file rejected because of its header, empty if the header is valid
+     */
+    public static Optional<DebtPositionValidationCsv> checkHeader(String fileName, String[] header) {
+		List<String> errors = new ArrayList<>();
+		Set<String> columns = new HashSet<>();
+		if (header == null) {
+			errors.add("The header line is missing.");
+		} else {
+			for (String column : header) {
+				// column names are matched ignoring case and not trimmed, as by the mapping strategy
+				String name = column != null ? column.toUpperCase(Locale.ROOT) : "";
+				if (!name.isEmpty() && !columns.add(name)) {
+					errors.add("Duplicated column '" + column + "' in header.");
+				}
+			}
+			for (String required : REQUIRED_COLUMNS) {
+				if (!columns.contains(required.toUpperCase(Locale.ROOT))) {
+					errors.add("Missing required column '" + required + "' in header.");
+				}
+			}
+			if (Arrays.stream(ORGANIZATION_COLUMNS).noneMatch(c -> columns.contains(c.toUpperCase(Locale.ROOT)))) {
+				errors.add("One of the columns " + String.join(", ", ORGANIZATION_COLUMNS) + " is required in header.");
+			}
+		}
+		if (errors.isEmpty()) {
+			return Optional.empty();
+		}
+
+		DebtPositionErrorRow errorRow = new DebtPositionErrorRow();
+		errorRow.setRowNumber(1);
+		errorRow.setRawLine(header);
+		errorRow.getErrorsDetail().addAll(errors);
+		DebtPositionValidationCsv debtPosValidation = new DebtPositionValidationCsv();
+		debtPosValidation.setCsvFilename(fileName);
+		debtPosValidation.setPayments(new ArrayList<>());
+		debtPosValidation.setParsingExceptions(new ArrayList<>());
+		debtPosValidation.setTotalNumberRows(0);
+		debtPosValidation.setNumberInvalidRows(0);
+		debtPosValidation.setHeader(header);
+		debtPosValidation.getErrorRows().add(errorRow);
+		return Optional.of(debtPosValidation);
+    }
+
     private static void checkConstraintErrors (DebtPositionValidationCsv debtPosValidationErr) {
-    	if (!debtPosValidationErr.getParsingExceptions().isEmpty()) {
-    		for (CsvException ex: debtPosValidationErr.getParsingExceptions()) {
-
-    			DebtPositionErrorRow errorRow = debtPosValidationErr.getErrorRows().stream().filter(e -> e.getRowNumber() == ex.getLineNumber()).findFirst().orElse(null);
-    			if(null != errorRow) {
-    				// already exist an error for the row number, add the new one
-    				errorRow.getErrorsDetail().add(ex.getMessage());
-    			}
-    			else {
-    				errorRow = new DebtPositionErrorRow();
-    				errorRow.setRowNumber(ex.getLineNumber());
-    				errorRow.getErrorsDetail().add(ex.getMessage());
-    				debtPosValidationErr.getErrorRows().add(errorRow);
-    			}	
+    	// errors grouped by line number in file order
+    	Map<Long, DebtPositionErrorRow> errorRows = new LinkedHashMap<>();
+    	for (CsvException ex: debtPosValidationErr.getParsingExceptions()) {
+    		DebtPositionErrorRow errorRow = errorRows.computeIfAbsent(ex.getLineNumber(), lineNumber -> {
+    			DebtPositionErrorRow row = new DebtPositionErrorRow();
+    			row.setRowNumber(lineNumber);
+    			row.setRawLine(ex.getLine());
+    			return row;
+    		});
+    		errorRow.getErrorsDetail().add(ex.getMessage());
+    	}
+    	debtPosValidationErr.getErrorRows().addAll(errorRows.values());
+    }
+
+    /**
+     * @param reader the CSV content, left positioned at its beginning
+     * @return the column names of the header line, null if the content is empty
+     */
+    public static String[] readHeader(BufferedReader reader) throws IOException {
+    	reader.mark(MAX_HEADER_LENGTH);
+    	String line = reader.readLine();
+    	reader.reset();
+    	return parseHeader(line);
+    }
+
+    /**
+     * @param line the header line of the CSV
+     * @return the column names of the header line, null if the line is null
+     */
+    public static String[] parseHeader(String line) throws IOException {
+    	return line != null ? new CSVParserBuilder().withSeparator(';').build().parseLine(line) : null;
+    }
+
+    /**
+     * Queues the row errors as {@link com.opencsv.bean.exceptionhandler.ExceptionHandlerQueue}
+     * and interrupts the parsing at the given number of invalid rows.
+     * A row may have more errors, handled one after the other: only its first one is counted.
+     */
+    static class InvalidRowsLimitHandler implements CsvExceptionHandler {
+    	private final int maxInvalidRows;
+    	private int invalidRows;
+    	private long lastLineNumber = -1;
+
+    	InvalidRowsLimitHandler(int maxInvalidRows) {
+    		this.maxInvalidRows = maxInvalidRows;
+    	}
+
+    	@Override
+    	public CsvException handleException(CsvException e) throws CsvException {
+    		if (e.getLineNumber() == lastLineNumber) {
+    			return e;
     		}
+    		lastLineNumber = e.getLineNumber();
+    		if (++invalidRows >= maxInvalidRows) {
+    			throw new InvalidRowsLimitException(e);
+    		}
+    		return e;
+    	}
+    }
+
+    static class InvalidRowsLimitException extends CsvException {
+    	private static final long serialVersionUID = 1L;
+    	private final transient CsvException lastException;
+
+    	InvalidRowsLimitException(CsvException lastException) {
+    		super("max number of invalid rows reached");
+    		this.lastException = lastException;
+    	}
+
+    	CsvException getLastException() {
+    		return lastException;
     	}
+    }
 
-    } 
-    
 }
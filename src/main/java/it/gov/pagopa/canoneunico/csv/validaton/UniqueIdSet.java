@@ -0,0 +1,117 @@
+package it.gov.pagopa.canoneunico.csv.validaton;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The ids already found in a file, to detect the duplicated ones.
+ * <p>
+ * Numeric ids are stored as primitive longs in an open addressing table (8 bytes per slot),
+ * the other ids as Strings. An id is numeric only in its canonical form (digits, no leading zeros,
+ * at most 18 digits), so that e.g. "01" and "1" stay different ids. Thread-safe.
+ */
+public class UniqueIdSet {
+
+	private static final int MAX_NUMERIC_DIGITS = 18;
+	private static final int INITIAL_CAPACITY = 1024;
+	// estimated size of a String in a HashSet: node, String object, byte array header
+	private static final int STRING_ENTRY_BYTES = 32 + 24 + 16;
+
+	// numeric id + 1, 0 is a free slot
+	private long[] table = new long[INITIAL_CAPACITY];
+	private int numericCount;
+	private final Set<String> others = new HashSet<>();
+	private long othersBytes;
+
+	/**
+	 * @param id the id of a row
+	 * @return true if the id was not found before
+	 */
+	public synchronized boolean add(String id) {
+		long numeric = toNumeric(id);
+		if (numeric < 0) {
+			boolean added = others.add(id);
+			if (added) {
+				othersBytes += STRING_ENTRY_BYTES + align(id.length());
+			}
+			return added;
+		}
+		if (2 * (numericCount + 1) > table.length) {
+			this.rehash(table.length * 2);
+		}
+		if (insert(table, numeric + 1)) {
+			numericCount++;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized int size() {
+		return numericCount + others.size();
+	}
+
+	/**
+	 * @return the estimated heap used by the ids, in bytes
+	 */
+	public synchronized long memoryUsageBytes() {
+		// table of the HashSet: a reference per bucket, 0.75 load factor
+		long othersTable = others.isEmpty() ? 0 : 16 + 4L * Integer.highestOneBit(others.size() * 4 / 3 + 1) * 2;
+		return 16 + 8L * table.length + othersBytes + othersTable;
+	}
+
+	private static boolean insert(long[] slots, long value) {
+		int mask = slots.length - 1;
+		for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+			if (slots[i] == value) {
+				return false;
+			}
+			if (slots[i] == 0) {
+				slots[i] = value;
+				return true;
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] old = table;
+		long[] slots = new long[capacity];
+		for (long value : old) {
+			if (value != 0) {
+				insert(slots, value);
+			}
+		}
+		table = slots;
+	}
+
+	private static int hash(long value) {
+		// murmur3 finalizer: consecutive ids are spread over the table
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	// the canonical numeric value of the id, -1 if it is not numeric
+	private static long toNumeric(String id) {
+		int length = id.length();
+		if (length == 0 || length > MAX_NUMERIC_DIGITS || (length > 1 && id.charAt(0) == '0')) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static long align(int bytes) {
+		return (bytes + 7) & ~7L;
+	}
+}
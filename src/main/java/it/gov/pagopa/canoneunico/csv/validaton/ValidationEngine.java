@@ -0,0 +1,148 @@
+package it.gov.pagopa.canoneunico.csv.validaton;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.model.OrganizationIndex;
+
+/**
+ * Runs an ordered list of {@link ValidationRule} on every row and collects all the errors of the row.
+ * <p>
+ * The row rules depend only on the row and may run concurrently on different rows.
+ * The ordered rules keep state across the rows (e.g. the unique id check): they are thread-safe,
+ * but give the same result of a sequential read only if applied in line order. Use a new engine for every file.
+ */
+public class ValidationEngine {
+
+	private static final String EC_CONFIG_TABLE = "in ec config table.";
+	private static final int DEBTOR_FISCAL_CODE_LENGTH = 11;
+
+	private final List<ValidationRule> orderedRules;
+	private final List<ValidationRule> rowRules;
+
+	public ValidationEngine(List<ValidationRule> rowRules) {
+		this(Collections.emptyList(), rowRules);
+	}
+
+	/**
+	 * @param orderedRules the rules depending on the previous rows, their errors come first
+	 * @param rowRules     the rules depending only on the row
+	 */
+	public ValidationEngine(List<ValidationRule> orderedRules, List<ValidationRule> rowRules) {
+		this.orderedRules = Collections.unmodifiableList(new ArrayList<>(orderedRules));
+		this.rowRules = Collections.unmodifiableList(new ArrayList<>(rowRules));
+	}
+
+	/**
+	 * @param organizationIndex the EC config organizations the rows refer to
+	 * @return the engine with the rules of the Canone Unico template, in the order the errors are reported
+	 */
+	public static ValidationEngine defaultEngine(OrganizationIndex organizationIndex) {
+		List<ValidationRule> rules = new ArrayList<>();
+		rules.add(ValidationEngine::checkOrganizationExclusion);
+		rules.add(ValidationEngine::checkAmount);
+		rules.add(ValidationEngine::checkDebtorFiscalCode);
+		rules.add(bean -> isValued(bean.getPaIdFiscalCode()) && organizationIndex.findByFiscalCode(bean.getPaIdFiscalCode()) == null
+				? "Not found the pa_id_fiscal_code [" + bean.getPaIdFiscalCode() + "] " + EC_CONFIG_TABLE : null);
+		rules.add(bean -> isValued(bean.getPaIdIstat()) && organizationIndex.findByIdIstat(bean.getPaIdIstat()) == null
+				? "Not found the pa_id_istat [" + bean.getPaIdIstat() + "] " + EC_CONFIG_TABLE : null);
+		rules.add(bean -> isValued(bean.getPaIdCatasto()) && organizationIndex.findByIdCatasto(bean.getPaIdCatasto()) == null
+				? "Not found the pa_id_catasto [" + bean.getPaIdCatasto() + "] " + EC_CONFIG_TABLE : null);
+		rules.add(bean -> isValued(bean.getPaIdIstat()) && organizationIndex.countIdIstat(bean.getPaIdIstat()) >= 2
+				? "Found duplicate pa_id_istat [" + bean.getPaIdIstat() + "] " + EC_CONFIG_TABLE : null);
+		rules.add(bean -> isValued(bean.getPaIdCatasto()) && organizationIndex.countIdCatasto(bean.getPaIdCatasto()) >= 2
+				? "Found duplicate pa_id_catasto [" + bean.getPaIdCatasto() + "] " + EC_CONFIG_TABLE : null);
+		return new ValidationEngine(List.of(uniqueId()), rules);
+	}
+
+	/**
+	 * @param bean the row to check
+	 * @return the errors of the row in rule order, empty if the row is valid
+	 */
+	public List<String> validate(PaymentNotice bean) {
+		List<String> errors = this.validateOrdered(bean);
+		errors.addAll(this.validateRow(bean));
+		return errors;
+	}
+
+	/**
+	 * @param bean the row to check, in line order
+	 * @return the errors of the ordered rules, empty if none
+	 */
+	public List<String> validateOrdered(PaymentNotice bean) {
+		return check(orderedRules, bean);
+	}
+
+	/**
+	 * @param bean the row to check, in any order and from any thread
+	 * @return the errors of the row rules, empty if none
+	 */
+	public List<String> validateRow(PaymentNotice bean) {
+		return check(rowRules, bean);
+	}
+
+	private static List<String> check(List<ValidationRule> rules, PaymentNotice bean) {
+		List<String> errors = new ArrayList<>(0);
+		for (ValidationRule rule : rules) {
+			String error = rule.check(bean);
+			if (error != null) {
+				errors.add(error);
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * @return the estimated heap used by the state of the rules (e.g. the ids already found), in bytes
+	 */
+	public long memoryUsageBytes() {
+		long bytes = 0;
+		for (ValidationRule rule : orderedRules) {
+			bytes += rule.memoryUsageBytes();
+		}
+		for (ValidationRule rule : rowRules) {
+			bytes += rule.memoryUsageBytes();
+		}
+		return bytes;
+	}
+
+	private static ValidationRule uniqueId() {
+		// verifyBean is called concurrently by the opencsv parsing
+		UniqueIdSet unique = new UniqueIdSet();
+		return new ValidationRule() {
+			@Override
+			public String check(PaymentNotice bean) {
+				return bean.getId() == null || unique.add(bean.getId()) ? null : "Duplicated ID '" + bean.getId() + "' found.";
+			}
+
+			@Override
+			public long memoryUsageBytes() {
+				return unique.memoryUsageBytes();
+			}
+		};
+	}
+
+	// only one of pa_id_istat | pa_id_catasto | pa_id_fiscal_code
+	private static String checkOrganizationExclusion(PaymentNotice bean) {
+		boolean catasto = null != bean.getPaIdCatasto();
+		boolean istat = null != bean.getPaIdIstat();
+		boolean fiscalCode = null != bean.getPaIdFiscalCode();
+		return (catasto ^ istat ^ fiscalCode) ^ (catasto && istat && fiscalCode)
+				? null : "Only one of pa_id_istat, pa_id_catasto and pa_id_fiscal_code can be valued.";
+	}
+
+	private static String checkAmount(PaymentNotice bean) {
+		return bean.getAmount() <= 0 ? "The amount must be greater than zero." : null;
+	}
+
+	private static String checkDebtorFiscalCode(PaymentNotice bean) {
+		return bean.getDebtorFiscalCode().length() != DEBTOR_FISCAL_CODE_LENGTH
+				? String.format("The debtor fiscal code length must be equal to %s.", DEBTOR_FISCAL_CODE_LENGTH) : null;
+	}
+
+	private static boolean isValued(String value) {
+		return null != value && !value.isBlank();
+	}
+}
@@ -0,0 +1,23 @@
+package it.gov.pagopa.canoneunico.csv.validaton;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+
+/**
+ * A check applied to every row of the CSV file by the {@link ValidationEngine}.
+ */
+@FunctionalInterface
+public interface ValidationRule {
+
+	/**
+	 * @param bean the row to check
+	 * @return the error message, null if the row satisfies the rule
+	 */
+	String check(PaymentNotice bean);
+
+	/**
+	 * @return the estimated heap used by the state of the rule, in bytes
+	 */
+	default long memoryUsageBytes() {
+		return 0;
+	}
+}
@@ -37,6 +37,10 @@ public class DebtPositionEntity extends TableServiceEntity {
     private String companyName;
     private String iban;
 
+    // delta processing: hash of the CSV row and upload that wrote the entity
+    private String contentHash;
+    private String uploadId;
+
 
     public DebtPositionEntity(String filename, String id) {
         this.partitionKey = filename;
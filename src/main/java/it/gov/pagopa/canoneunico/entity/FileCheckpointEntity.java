@@ -0,0 +1,25 @@
+package it.gov.pagopa.canoneunico.entity;
+
+import com.microsoft.azure.storage.table.TableServiceEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@EqualsAndHashCode(callSuper = true)
+@Data
+@NoArgsConstructor
+public class FileCheckpointEntity extends TableServiceEntity {
+
+    private Integer batchSize;      // rows of a table batch when the checkpoint was created
+    private Integer savedBatches;   // table batches committed, from the first one
+    private Integer pushedBatches;  // table batches pushed in the queue, from the first one
+    private Boolean completed;      // every batch saved and pushed
+
+    public FileCheckpointEntity(String fileKey, String checkpointId) {
+        this.partitionKey = fileKey;
+        this.rowKey = checkpointId;
+        // https://docs.microsoft.com/en-us/dotnet/api/microsoft.azure.cosmos.table.tableentity.etag?view=azure-dotnet#microsoft-azure-cosmos-table-tableentity-etag
+        this.etag = "*";
+    }
+
+}
@@ -0,0 +1,31 @@
+package it.gov.pagopa.canoneunico.entity;
+
+import com.microsoft.azure.storage.table.TableServiceEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@EqualsAndHashCode(callSuper = true)
+@Data
+@NoArgsConstructor
+public class FileSegmentEntity extends TableServiceEntity {
+
+    // {@link SegmentStatus}
+    private String status;  // Status: VALID | INVALID | PERSISTED | ERROR | FINALIZED
+    // {@link it.gov.pagopa.canoneunico.model.SegmentPhase}
+    private String phase;   // Phase: VALIDATE | PERSIST
+    private Integer segmentIndex;
+    private Long offset;
+    private Long length;
+    private Integer totalNumberRows;
+    private Integer numberInvalidRows;
+
+    public FileSegmentEntity(String fileKey, String phase, String id) {
+        this.partitionKey = fileKey;
+        this.rowKey = phase + "_" + id;
+        this.phase = phase;
+        // https://docs.microsoft.com/en-us/dotnet/api/microsoft.azure.cosmos.table.tableentity.etag?view=azure-dotnet#microsoft-azure-cosmos-table-tableentity-etag
+        this.etag = "*";
+    }
+
+}
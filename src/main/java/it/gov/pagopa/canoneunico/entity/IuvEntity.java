@@ -3,7 +3,12 @@ package it.gov.pagopa.canoneunico.entity;
 import com.microsoft.azure.storage.table.TableServiceEntity;
 
 public class IuvEntity extends TableServiceEntity {
-    
+
+    private Long pooledAt;      // epoch millis of the reservation by a pool, cleared when the IUV is taken from the pool
+
+    public IuvEntity() {
+    }
+
     public IuvEntity(String paIdFiscalCode, String iuv) {
         this.partitionKey = paIdFiscalCode;
         this.rowKey = iuv;
@@ -11,4 +16,12 @@ public class IuvEntity extends TableServiceEntity {
         this.etag = "*";
     }
 
+    public Long getPooledAt() {
+        return pooledAt;
+    }
+
+    public void setPooledAt(Long pooledAt) {
+        this.pooledAt = pooledAt;
+    }
+
 }
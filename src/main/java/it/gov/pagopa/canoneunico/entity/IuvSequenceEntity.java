@@ -0,0 +1,22 @@
+package it.gov.pagopa.canoneunico.entity;
+
+import com.microsoft.azure.storage.table.TableServiceEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@EqualsAndHashCode(callSuper = true)
+@Data
+@NoArgsConstructor
+public class IuvSequenceEntity extends TableServiceEntity {
+
+    private Long nextValue;     // first value not leased yet
+
+    public IuvSequenceEntity(String partitionKey, String segregationCode) {
+        this.partitionKey = partitionKey;
+        this.rowKey = segregationCode;
+        // https://docs.microsoft.com/en-us/dotnet/api/microsoft.azure.cosmos.table.tableentity.etag?view=azure-dotnet#microsoft-azure-cosmos-table-tableentity-etag
+        this.etag = "*";
+    }
+
+}
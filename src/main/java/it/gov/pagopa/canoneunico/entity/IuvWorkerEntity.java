@@ -0,0 +1,23 @@
+package it.gov.pagopa.canoneunico.entity;
+
+import com.microsoft.azure.storage.table.TableServiceEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@EqualsAndHashCode(callSuper = true)
+@Data
+@NoArgsConstructor
+public class IuvWorkerEntity extends TableServiceEntity {
+
+    private Long reservedUntil;     // first time slot not reserved yet by the holders of the worker id
+    private Long leaseExpiresAt;    // epoch millis
+
+    public IuvWorkerEntity(String partitionKey, String workerId) {
+        this.partitionKey = partitionKey;
+        this.rowKey = workerId;
+        // https://docs.microsoft.com/en-us/dotnet/api/microsoft.azure.cosmos.table.tableentity.etag?view=azure-dotnet#microsoft-azure-cosmos-table-tableentity-etag
+        this.etag = "*";
+    }
+
+}
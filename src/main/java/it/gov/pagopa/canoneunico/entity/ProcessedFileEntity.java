@@ -0,0 +1,23 @@
+package it.gov.pagopa.canoneunico.entity;
+
+import com.microsoft.azure.storage.table.TableServiceEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+@EqualsAndHashCode(callSuper = true)
+@Data
+@NoArgsConstructor
+public class ProcessedFileEntity extends TableServiceEntity {
+
+    // {@link ProcessedFileStatus}
+    private String status;  // Status: VALID | PARTIALLY_VALID | INVALID | SEGMENTED | ERROR
+
+    public ProcessedFileEntity(String container, String fileId) {
+        this.partitionKey = container;
+        this.rowKey = fileId;
+        // https://docs.microsoft.com/en-us/dotnet/api/microsoft.azure.cosmos.table.tableentity.etag?view=azure-dotnet#microsoft-azure-cosmos-table-tableentity-etag
+        this.etag = "*";
+    }
+
+}
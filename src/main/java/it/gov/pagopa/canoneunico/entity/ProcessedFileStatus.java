@@ -0,0 +1,5 @@
+package it.gov.pagopa.canoneunico.entity;
+
+public enum ProcessedFileStatus {
+    VALID, PARTIALLY_VALID, INVALID, SEGMENTED, ERROR
+}
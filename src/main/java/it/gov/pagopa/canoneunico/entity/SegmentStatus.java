@@ -0,0 +1,5 @@
+package it.gov.pagopa.canoneunico.entity;
+
+public enum SegmentStatus {
+    VALID, INVALID, PERSISTED, ERROR, FINALIZED
+}
@@ -129,16 +129,21 @@ public class CuCreateDebtPosition {
     private RetryStep createAndPublishDebtPosition(String filekey, Logger logger, DebtPositionRowMessage row, String invocationId) {
         String requestId = invocationId + ":" + row.getId();
         logger.log(Level.FINE, () -> "[CuCreateDebtPositionFunction][requestId=" + requestId + "][" + filekey + "] row id:" + row.getId());
-        switch (RetryStep.valueOf(row.getRetryAction())) {
+        RetryStep retryStep = RetryStep.valueOf(row.getRetryAction());
+        switch (retryStep) {
             case NONE:
             case CREATE:
-                var statusCreate = this.createDebtPosition(logger, row, requestId);
+            case UPDATE:
+                // a row changed by a re-upload updates its debt position, back to draft until published again
+                boolean update = RetryStep.UPDATE.equals(retryStep);
+                var statusCreate = update ? this.updateDebtPosition(logger, row, requestId) : this.createDebtPosition(logger, row, requestId);
                 if (statusCreate >= 400 && statusCreate < 500) {
                     return RetryStep.ERROR;
                 }
-                if (statusCreate != 201) {
-                    row.setRetryAction(RetryStep.CREATE.name());
-                    return RetryStep.CREATE;
+                if (statusCreate != (update ? 200 : 201)) {
+                    RetryStep retry = update ? RetryStep.UPDATE : RetryStep.CREATE;
+                    row.setRetryAction(retry.name());
+                    return retry;
                 }
             case PUBLISH:
                 var statusPublish = this.publishDebtPosition(logger, row, requestId);
@@ -168,7 +173,16 @@ public class CuCreateDebtPosition {
     private int createDebtPosition(Logger logger, DebtPositionRowMessage row, String requestId) {
         // get status from GPD
         GpdClient gpdClient = this.getGpdClientInstance();
-        PaymentPositionModel body = PaymentPositionModel.builder()
+        return gpdClient.createDebtPosition(logger, row.getPaIdFiscalCode(), this.getPaymentPosition(row), requestId);
+    }
+
+    private int updateDebtPosition(Logger logger, DebtPositionRowMessage row, String requestId) {
+        GpdClient gpdClient = this.getGpdClientInstance();
+        return gpdClient.updateDebtPosition(logger, row.getPaIdFiscalCode(), this.getPaymentPosition(row), requestId);
+    }
+
+    private PaymentPositionModel getPaymentPosition(DebtPositionRowMessage row) {
+        return PaymentPositionModel.builder()
                 .iupd(row.getIupd())
                 .type("G")
                 .fiscalCode(row.getDebtorIdFiscalCode())
@@ -191,8 +205,6 @@ public class CuCreateDebtPosition {
                                 .build()))
                         .build()))
                 .build();
-
-        return gpdClient.createDebtPosition(logger, row.getPaIdFiscalCode(), body, requestId);
     }
 
     private int publishDebtPosition(Logger logger, DebtPositionRowMessage row, String requestId) {
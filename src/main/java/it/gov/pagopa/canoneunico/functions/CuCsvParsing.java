@@ -1,26 +1,47 @@
 package it.gov.pagopa.canoneunico.functions;
 
 import com.azure.core.implementation.serializer.DefaultJsonSerializer;
-import com.azure.core.util.BinaryData;
 import com.azure.messaging.eventgrid.EventGridEvent;
 import com.azure.messaging.eventgrid.systemevents.StorageBlobCreatedEventData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.annotation.FunctionName;
 import com.microsoft.azure.functions.annotation.QueueTrigger;
+import com.microsoft.azure.storage.StorageException;
 import com.opencsv.bean.CsvToBean;
 import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
 import it.gov.pagopa.canoneunico.csv.validaton.CsvValidation;
-import it.gov.pagopa.canoneunico.entity.DebtPositionEntity;
+import it.gov.pagopa.canoneunico.entity.ProcessedFileStatus;
 import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
 import it.gov.pagopa.canoneunico.model.BlobInfo;
 import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.FileSegmentMessage;
 import it.gov.pagopa.canoneunico.service.CuCsvService;
+import it.gov.pagopa.canoneunico.service.FileCheckpointService;
+import it.gov.pagopa.canoneunico.service.FileSegmentService;
+import it.gov.pagopa.canoneunico.service.MemoryGovernor;
+import it.gov.pagopa.canoneunico.service.ProcessedFileService;
 import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+import it.gov.pagopa.canoneunico.util.CsvCompression;
+import org.apache.commons.lang3.math.NumberUtils;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -36,6 +57,22 @@ public class CuCsvParsing {
     private static final String LOG_VALIDATION_ERROR_DETAIL = "{line = %s } - {errors = %s}";
     private static final String INPUT_DIRECTORY_NAME = "input";
     private static final String ERROR_DIRECTORY_NAME = "error";
+    // files greater than 100 MB are split in segments processed in parallel by CuCsvSegmentParsingFunction
+    private static final long SEGMENTED_FILE_THRESHOLD = 100_000_000L;
+
+    // files of the same message processed at the same time
+    private int eventsParallelism = System.getenv("EVENTS_PARALLELISM") != null ? NumberUtils.toInt(System.getenv("EVENTS_PARALLELISM")) : 4;
+    // a file of at least DOWNLOAD_SPOOL_THRESHOLD bytes is downloaded with parallel ranged reads in a local file (0 to always stream)
+    private long downloadSpoolThreshold = System.getenv("DOWNLOAD_SPOOL_THRESHOLD") != null ? NumberUtils.toLong(System.getenv("DOWNLOAD_SPOOL_THRESHOLD")) : 16_777_216L;
+    private long downloadBlockSize = System.getenv("DOWNLOAD_BLOCK_SIZE") != null ? NumberUtils.toLong(System.getenv("DOWNLOAD_BLOCK_SIZE")) : 8_388_608L;
+    private int downloadConcurrency = System.getenv("DOWNLOAD_CONCURRENCY") != null ? NumberUtils.toInt(System.getenv("DOWNLOAD_CONCURRENCY")) : 4;
+    // memory of a file being processed: the rows are held in memory while they are validated and persisted
+    private long memoryPerCsvByte = System.getenv("MEMORY_PER_CSV_BYTE") != null ? NumberUtils.toLong(System.getenv("MEMORY_PER_CSV_BYTE")) : 10;
+    private long memoryCompressionRatio = System.getenv("MEMORY_COMPRESSION_RATIO") != null ? NumberUtils.toLong(System.getenv("MEMORY_COMPRESSION_RATIO")) : 5;
+    // a compressed file is not segmented: its CSV content is rejected past DECOMPRESSED_MAX_BYTES
+    private long decompressedMaxBytes = System.getenv("DECOMPRESSED_MAX_BYTES") != null ? NumberUtils.toLong(System.getenv("DECOMPRESSED_MAX_BYTES")) : 1_000_000_000L;
+    // a file not admitted by the memory budget is processed again after MEMORY_DEFER_SECONDS
+    private int memoryDeferSeconds = System.getenv("MEMORY_DEFER_SECONDS") != null ? NumberUtils.toInt(System.getenv("MEMORY_DEFER_SECONDS")) : 60;
 
     /**
      * This function will be invoked when a new or updated blob is detected at the
@@ -46,69 +83,260 @@ public class CuCsvParsing {
             @QueueTrigger(name = "BlobCreatedEventTrigger", queueName = "%CU_BLOB_EVENTS_QUEUE%", connection = "CU_SA_CONNECTION_STRING") String events,
             final ExecutionContext context) {
         Logger logger = context.getLogger();
-        LocalDateTime start = LocalDateTime.now();
-
-        CuCsvService csvService = this.getCuCsvServiceInstance(logger);
-        BlobInfo blobInfo = null;
 
+        List<BlobInfo> blobInfos;
         try {
-            blobInfo = getDataFromEvent(context, events);
+            blobInfos = getDataFromEvents(context, events);
         } catch (CanoneUnicoException e) {
             logger.log(Level.SEVERE, () -> String.format(
                     LOG_VALIDATION_PREFIX + "[CuCsvParsingFunction Error] [%s] Exception while parsing Event: error msg = %s - cause = %s", context.getInvocationId(), e.getMessage(), e.getCause()));
+            return;
+        }
+
+        // a file whose processed record or lease is not available fails the invocation: the message is retried by the queue,
+        // the files already processed end with a lookup
+        List<String> notProcessed = new ArrayList<>();
+        if (blobInfos.size() == 1 || eventsParallelism <= 1) {
+            for (BlobInfo blobInfo : blobInfos) {
+                try {
+                    processFile(context, logger, blobInfo);
+                } catch (CanoneUnicoException e) {
+                    logNotProcessed(context, logger, blobInfo, e);
+                    notProcessed.add(blobInfo.getName());
+                }
+            }
+        } else {
+            this.processFiles(context, logger, blobInfos, notProcessed);
+        }
+        if (!notProcessed.isEmpty()) {
+            throw new IllegalStateException("[CuCsvParsingFunction] files not processed: " + notProcessed);
         }
+    }
+
+    // every file of the message in its own task: the failure of a file does not affect the others
+    private void processFiles(ExecutionContext context, Logger logger, List<BlobInfo> blobInfos, List<String> notProcessed) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(eventsParallelism, blobInfos.size()));
+        try {
+            List<Future<?>> files = new ArrayList<>(blobInfos.size());
+            for (BlobInfo blobInfo : blobInfos) {
+                files.add(executor.submit(() -> {
+                    processFile(context, logger, blobInfo);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                BlobInfo blobInfo = blobInfos.get(i);
+                try {
+                    files.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CanoneUnicoException) {
+                        logNotProcessed(context, logger, blobInfo, e.getCause());
+                        notProcessed.add(blobInfo.getName());
+                    } else {
+                        logger.log(Level.SEVERE, () -> String.format("[CuCsvParsingFunction Error] [%s] Unexpected Error: error msg = %s - fileName [%s] - container [%s]",
+                                context.getInvocationId(), e.getCause(), blobInfo.getName(), blobInfo.getContainer()));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.SEVERE, () -> String.format("[CuCsvParsingFunction Error] [%s] Interrupted while processing %s files", context.getInvocationId(), blobInfos.size()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void logNotProcessed(ExecutionContext context, Logger logger, BlobInfo blobInfo, Throwable e) {
+        logger.log(Level.SEVERE, () -> String.format("[CuCsvParsingFunction Error] [%s] file not processed, retried: error msg = %s - cause = %s - fileName [%s] - container [%s]",
+                context.getInvocationId(), e.getMessage(), e.getCause(), blobInfo.getName(), blobInfo.getContainer()));
+    }
+
+    private void processFile(ExecutionContext context, Logger logger, BlobInfo event) throws CanoneUnicoException {
+        ProcessedFileService processedFileService = this.getProcessedFileServiceInstance(logger);
+        // EventGrid delivers an event at least once: a duplicated delivery ends with a lookup
+        if (processedFileService.isProcessed(event)) {
+            logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] already processed - container [%s]", event.getName(), event.getContainer()));
+            return;
+        }
+        // the file is admitted only if its memory fits in the budget of the instance, otherwise its event is re-queued
+        MemoryGovernor memoryGovernor = this.getMemoryGovernorInstance();
+        MemoryGovernor.Reservation memory = memoryGovernor.tryReserve(event.getName(), getMemoryEstimate(event));
+        if (memory == null && deferFile(logger, event, memoryGovernor)) {
+            return;
+        }
+        if (memory != null) {
+            logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] admitted with %s bytes: %s/%s bytes reserved by %s",
+                    event.getName(), memory.getBytes(), memoryGovernor.getReservedBytes(), memoryGovernor.getBudgetBytes(), memoryGovernor.getReservations()));
+        }
+        // the lease excludes the concurrent deliveries while the file is processed
+        try (memory; ProcessedFileService.FileLease lease = processedFileService.acquireLease(event)) {
+            // checked again: a previous delivery may have completed the file before the lease was acquired
+            if (lease == null || processedFileService.isProcessed(event)) {
+                return;
+            }
+            BlobInfo blobInfo = event.toBuilder().leaseId(lease.getLeaseId()).build();
+            ProcessedFileStatus status = handleFile(context, logger, blobInfo);
+            processedFileService.markProcessed(blobInfo, status);
+        }
+    }
+
+    private ProcessedFileStatus handleFile(ExecutionContext context, Logger logger, BlobInfo blobInfo) {
+        LocalDateTime start = LocalDateTime.now();
+        // a service for each file: its validation state is not shared with the other files of the message
+        CuCsvService csvService = this.getCuCsvServiceInstance(logger);
 
         try {
-            BlobInfo finalBlobInfo = blobInfo;
             logger.log(Level.INFO, () ->
                     String.format("[CuCsvParsingFunction START] execution started at [%s] - fileName [%s] - container [%s]",
-                            start, finalBlobInfo.getName(), finalBlobInfo.getContainer()));
+                            start, blobInfo.getName(), blobInfo.getContainer()));
 
-            // get byte content and convert to String type
-            BinaryData content = getContent(context, blobInfo);
-            String converted = new String(content.toBytes(), StandardCharsets.UTF_8);
+            if (blobInfo.getContentLength() > SEGMENTED_FILE_THRESHOLD && !CsvCompression.of(blobInfo.getName()).isCompressed()) {
+                // to prevent OutOfMemoryException the file is split in segments, each one handled by a different invocation
+                // (a compressed file cannot be read from an offset: it is streamed as a whole)
+                return handleSegmentedFile(blobInfo, logger, start, csvService);
+            }
 
             // initialize csvService and info from ecConfig
             csvService.initEcConfigList();
-            DebtPositionValidationCsv csvValidation = validateCsv(blobInfo.getName(), logger, csvService, converted);
+
+            // stream the blob content: rows are decoded and parsed as the bytes arrive
+            // (a partially accepted file is validated completely, to report every rejected row)
+            boolean partialAccept = csvService.isPartialAccept(blobInfo.getContainer());
+            DebtPositionValidationCsv csvValidation;
+            try (BufferedReader content = getContentReader(context, blobInfo)) {
+                csvValidation = validateCsv(blobInfo.getName(), logger, csvService, content, partialAccept ? 0 : csvService.getValidationMaxInvalidRows());
+            }
 
             String fileName = blobInfo.getName();
             String fileKey = AzuriteStorageUtil.getBlobKey(blobInfo.getContainer(), fileName);
+            ProcessedFileStatus status;
             if (csvValidation.getErrorRows().isEmpty()) {
                 // If valid file -> save on table and write on queue
-                handleValidFile(fileKey, logger, start, csvService, csvValidation);
+                handleValidFile(blobInfo, fileKey, logger, start, csvService, csvValidation);
+                status = ProcessedFileStatus.VALID;
+            } else if (partialAccept && !csvValidation.getPayments().isEmpty()) {
+                // If partially valid file of a partial-accept container -> save the valid rows and report the rejected ones
+                handlePartiallyValidFile(blobInfo, fileKey, logger, start, csvService, csvValidation);
+                status = ProcessedFileStatus.PARTIALLY_VALID;
             } else {
                 // If not valid file -> write log error, save on 'error' blob space and delete from 'input' blob space
-                handleInvalidFile(blobInfo, logger, start, csvService, converted, csvValidation);
+                handleInvalidFile(blobInfo, logger, start, csvService, csvValidation);
+                status = ProcessedFileStatus.INVALID;
             }
 
-            Runtime.getRuntime().gc();
+            return status;
         } catch (Exception e) {
             logger.log(Level.SEVERE, String.format(
                     LOG_VALIDATION_PREFIX + "[CuCsvParsingFunction Error] [%s] Generic Error: error msg = %s - cause = %s - fileName [%s] - container [%s]",
                     context.getInvocationId(), e.getMessage(), e.getCause(), blobInfo.getName(), blobInfo.getContainer()));
-            csvService.uploadErrorCsv(blobInfo.getContainer(), ERROR_DIRECTORY_NAME + '/' + blobInfo.getName(), "Generic Error");
-            csvService.deleteCsv(blobInfo.getContainer(), blobInfo.getDirectory() + '/' + blobInfo.getName());
+            csvService.uploadErrorCsv(blobInfo.getContainer(), ERROR_DIRECTORY_NAME + '/' + CsvCompression.getCsvName(blobInfo.getName()), "Generic Error");
+            csvService.deleteCsv(blobInfo.getContainer(), blobInfo.getDirectory() + '/' + blobInfo.getName(), blobInfo.getLeaseId());
+            return ProcessedFileStatus.ERROR;
+        }
+    }
+
+    // the memory needed by the rows of the file: a segmented file is only split by this invocation
+    long getMemoryEstimate(BlobInfo blobInfo) {
+        CsvCompression compression = CsvCompression.of(blobInfo.getName());
+        if (!compression.isCompressed() && blobInfo.getContentLength() > SEGMENTED_FILE_THRESHOLD) {
+            return 0;
         }
+        long csvBytes = compression.isCompressed() ? blobInfo.getContentLength() * memoryCompressionRatio : blobInfo.getContentLength();
+        return csvBytes * memoryPerCsvByte;
     }
 
-    // return downloaded blob
-    public BinaryData getContent(ExecutionContext context, BlobInfo blobInfo) throws CanoneUnicoException {
-        BinaryData content = new AzuriteStorageUtil().downloadBlob(context, blobInfo.getContainer(), blobInfo.getDirectory() + '/' + blobInfo.getName());
+    // re-queues the event of the file with a delay: false if not possible, the file is then processed anyway
+    private boolean deferFile(Logger logger, BlobInfo event, MemoryGovernor memoryGovernor) {
+        if (event.getEvent() == null) {
+            return false;
+        }
+        try {
+            this.getCuCsvServiceInstance(logger).deferBlobEvent(event.getEvent(), memoryDeferSeconds);
+            logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] deferred by %s s: %s/%s bytes reserved by %s",
+                    event.getName(), memoryDeferSeconds, memoryGovernor.getReservedBytes(), memoryGovernor.getBudgetBytes(), memoryGovernor.getReservations()));
+            return true;
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            logger.log(Level.WARNING, () -> String.format("[CuCsvParsingFunction] [%s] not deferred, processed over the memory budget: %s",
+                    event.getName(), e.getMessage()));
+            return false;
+        }
+    }
+
+    // return a stream over the blob content: a large blob is spooled in a local file, a small one is streamed
+    public InputStream getContentStream(ExecutionContext context, BlobInfo blobInfo) throws CanoneUnicoException {
+        String blob = blobInfo.getDirectory() + '/' + blobInfo.getName();
+        if (downloadSpoolThreshold > 0 && blobInfo.getContentLength() >= downloadSpoolThreshold) {
+            return new AzuriteStorageUtil().openSpooledBlobInputStream(context, blobInfo.getContainer(), blob, blobInfo.getEtag(),
+                    downloadBlockSize, downloadConcurrency);
+        }
+        InputStream content = new AzuriteStorageUtil().openBlobInputStream(context, blobInfo.getContainer(), blob);
         if(content == null)
             throw new CanoneUnicoException(String.format("[CuCsvParsing] Blob not found, corporate: %s, file: %s", blobInfo.getContainer(), blobInfo.getName()));
         return content;
     }
 
-    // return data: [container-name, filename]
-    public BlobInfo getDataFromEvent(ExecutionContext context, String events) throws CanoneUnicoException {
+    // return a UTF-8 reader over the blob content, decompressed while it is read if the file is .csv.gz or .zip
+    private BufferedReader getContentReader(ExecutionContext context, BlobInfo blobInfo) throws CanoneUnicoException, IOException {
+        InputStream content = CsvCompression.of(blobInfo.getName()).decompress(getContentStream(context, blobInfo), getDecompressedMaxBytes());
+        return new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    // the CSV content of a compressed file, held in memory, never exceeds the memory budget of the host
+    long getDecompressedMaxBytes() {
+        return Math.min(decompressedMaxBytes, this.getMemoryGovernorInstance().getBudgetBytes() / Math.max(1, memoryPerCsvByte));
+    }
+
+    /**
+     * @return the blob of every BlobCreated event of the message; a not valid event is logged and skipped
+     * @throws CanoneUnicoException if the message has no valid event
+     */
+    public List<BlobInfo> getDataFromEvents(ExecutionContext context, String events) throws CanoneUnicoException {
         Logger logger = context.getLogger();
-        List<EventGridEvent> eventGridEvents = EventGridEvent.fromString(events);
+        List<String> rawEvents = splitEvents(events);
+        List<EventGridEvent> eventGridEvents = new ArrayList<>(rawEvents.size());
+        for (String rawEvent : rawEvents) {
+            eventGridEvents.addAll(EventGridEvent.fromString(rawEvent));
+        }
 
         if (eventGridEvents.isEmpty()) {
             throw new CanoneUnicoException("[CuCsvParsing] Empty event list.");
         }
-        EventGridEvent event = eventGridEvents.get(0);
+        List<BlobInfo> blobInfos = new ArrayList<>(eventGridEvents.size());
+        for (int i = 0; i < eventGridEvents.size(); i++) {
+            EventGridEvent event = eventGridEvents.get(i);
+            try {
+                // the event is kept as JSON: a deferred file is re-queued alone
+                blobInfos.add(getDataFromEvent(context, event).toBuilder().event(rawEvents.get(i)).build());
+            } catch (CanoneUnicoException e) {
+                logger.log(Level.SEVERE, () -> String.format("[id=%s][CuCsvParsing] Event %s skipped: %s", context.getInvocationId(), event.getSubject(), e.getMessage()));
+            }
+        }
+        if (blobInfos.isEmpty()) {
+            throw new CanoneUnicoException("[CuCsvParsing] No valid event in " + eventGridEvents.size() + " events.");
+        }
+        logger.log(Level.INFO, () -> String.format("[id=%s][CuCsvParsing] %s files of %s events to process.", context.getInvocationId(), blobInfos.size(), eventGridEvents.size()));
+        return blobInfos;
+    }
+
+    // the message is an event or an array of events: one JSON for each event
+    private static List<String> splitEvents(String events) throws CanoneUnicoException {
+        try {
+            JsonNode root = new ObjectMapper().readTree(events);
+            List<String> rawEvents = new ArrayList<>();
+            if (root.isArray()) {
+                root.forEach(event -> rawEvents.add(event.toString()));
+            } else {
+                rawEvents.add(root.toString());
+            }
+            return rawEvents;
+        } catch (JsonProcessingException e) {
+            throw new CanoneUnicoException("[CuCsvParsing] Not valid event list: " + e.getMessage());
+        }
+    }
+
+    // return data: [container-name, filename]
+    public BlobInfo getDataFromEvent(ExecutionContext context, EventGridEvent event) throws CanoneUnicoException {
+        Logger logger = context.getLogger();
         if (!event.getEventType().equals("Microsoft.Storage.BlobCreated")) {
             throw new CanoneUnicoException("[CuCsvParsing] Event not equals to Microsoft.Storage.BlobCreated.");
         }
@@ -116,13 +344,12 @@ public class CuCsvParsing {
         logger.log(Level.INFO, () -> String.format("[id=%s][CuCsvParsing] Call event type %s handler.", context.getInvocationId(), event.getEventType()));
         StorageBlobCreatedEventData blobData = event.getData().toObject(StorageBlobCreatedEventData.class, new DefaultJsonSerializer());
 
-        // to prevent OutOfMemoryException test this corner case is required: if file greater than 100 MB
-        if (blobData.getContentLength() > 1e+8 || blobData.getContentLength() == 0) {
+        if (blobData.getContentLength() == 0) {
             throw new CanoneUnicoException("[CuCsvParsing] File length not allowed: " + blobData.getContentLength() + " MB");
         }
 
         logger.log(Level.INFO, () -> String.format("[id=%s][CuCsvParsing] Blob event subject: %s", context.getInvocationId(), event.getSubject()));
-        Pattern pattern = Pattern.compile("containers/(\\w+)/blobs/"+INPUT_DIRECTORY_NAME+"/([\\w\\h-]+.[Cc][Ss][Vv])");
+        Pattern pattern = Pattern.compile("containers/(\\w+)/blobs/"+INPUT_DIRECTORY_NAME+"/([\\w\\h-]+\\.(?:[Cc][Ss][Vv](?:\\.[Gg][Zz])?|[Zz][Ii][Pp]))");
         Matcher matcher = pattern.matcher(event.getSubject());
 
         // Check if the pattern is found
@@ -130,26 +357,38 @@ public class CuCsvParsing {
             return BlobInfo.builder()
                            .container(matcher.group(1))
                            .directory(INPUT_DIRECTORY_NAME)
-                           .name(matcher.group(2)).build();
+                           .name(matcher.group(2))
+                           .etag(blobData.getETag())
+                           .contentLength(blobData.getContentLength()).build();
         } else {
             throw new CanoneUnicoException("[CuCsvParsing] Wrong match in subject: " + event.getSubject());
         }
     }
 
-    private DebtPositionValidationCsv validateCsv(String fileName, Logger logger, CuCsvService csvService, String converted) {
+    private DebtPositionValidationCsv validateCsv(String fileName, Logger logger, CuCsvService csvService, BufferedReader content, int maxInvalidRows) throws IOException {
         // parse CSV file to create an object based on 'PaymentNotice' bean
         long startTime = System.currentTimeMillis();
-        CsvToBean<PaymentNotice> csvToBean = csvService.parseCsvToBean(converted);
+        String[] header = CsvValidation.readHeader(content);
+        // a file with wrong columns is rejected without reading its rows
+        Optional<DebtPositionValidationCsv> headerValidation = CsvValidation.checkHeader(fileName, header);
+        if (headerValidation.isPresent()) {
+            logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] header not valid", fileName));
+            return headerValidation.get();
+        }
+        CsvToBean<PaymentNotice> csvToBean = csvService.parseCsvToBean(content);
         logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] time: parseCsv executed", fileName));
 
         // Check if CSV is valid
-        DebtPositionValidationCsv csvValidation = CsvValidation.checkCsvIsValid(logger, fileName, csvToBean);
+        DebtPositionValidationCsv csvValidation = CsvValidation.checkCsvIsValid(logger, fileName, csvToBean, maxInvalidRows);
+        csvValidation.setHeader(header);
         long endTime = System.currentTimeMillis();
         logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] time: parseCsv and checkCsvIsValid executed in [%s] ms", fileName, (endTime - startTime)));
+        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] validation memory: [%s] bytes for [%s] rows", fileName,
+                csvService.getValidationMemoryUsage(), csvValidation.getTotalNumberRows()));
         return csvValidation;
     }
 
-    private void handleInvalidFile(BlobInfo blobInfo, Logger logger, LocalDateTime start, CuCsvService csvService, String converted, DebtPositionValidationCsv csvValidation) {
+    private void handleInvalidFile(BlobInfo blobInfo, Logger logger, LocalDateTime start, CuCsvService csvService, DebtPositionValidationCsv csvValidation) throws CanoneUnicoException {
         String filename = blobInfo.getName();
         // log
         String header = LOG_VALIDATION_PREFIX + String.format(LOG_VALIDATION_ERROR_HEADER,
@@ -161,21 +400,15 @@ public class CuCsvParsing {
         );
         logger.log(Level.SEVERE, () -> header + System.lineSeparator() + details);
 
-        // Create error file
-        long startTime1 = System.currentTimeMillis();
-        String errorCSV = csvService.generateRowsErrorCsv(converted, csvValidation);
-        long endTime1 = System.currentTimeMillis();
-        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] generateErrorCsv executed in [%s] ms", filename, (endTime1 - startTime1)));
-
-        // Upload file in error blob storage
+        // Create error file streaming it in error blob storage
         long startTime2 = System.currentTimeMillis();
-        csvService.uploadErrorCsv(blobInfo.getContainer(), ERROR_DIRECTORY_NAME + '/' + filename, errorCSV);
+        csvService.uploadRowsErrorCsv(blobInfo.getContainer(), ERROR_DIRECTORY_NAME + '/' + CsvCompression.getCsvName(filename), csvValidation);
         long endTime2 = System.currentTimeMillis();
-        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] uploadCsv executed in [%s] ms", filename, (endTime2 - startTime2)));
+        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] uploadErrorCsv executed in [%s] ms", filename, (endTime2 - startTime2)));
 
         // Delete the original file from input blob storage
         long startTime3 = System.currentTimeMillis();
-        csvService.deleteCsv(blobInfo.getContainer(), blobInfo.getDirectory() + '/' + filename);
+        csvService.deleteCsv(blobInfo.getContainer(), blobInfo.getDirectory() + '/' + filename, blobInfo.getLeaseId());
         long endTime3 = System.currentTimeMillis();
         logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] deleteCsv executed in [%s] ms", filename, (endTime3 - startTime3)));
 
@@ -185,27 +418,71 @@ public class CuCsvParsing {
                 filename, start, LocalDateTime.now()));
     }
 
-    private void handleValidFile(String fileKey, Logger logger, LocalDateTime start, CuCsvService csvService, DebtPositionValidationCsv csvValidation) throws CanoneUnicoException {
+    private void handlePartiallyValidFile(BlobInfo blobInfo, String fileKey, Logger logger, LocalDateTime start, CuCsvService csvService, DebtPositionValidationCsv csvValidation) throws CanoneUnicoException {
+        String filename = blobInfo.getName();
+        logger.log(Level.WARNING, () -> String.format("[CuCsvParsingFunction] [%s] file accepted partially: nLinesError/nTotLines = %s/%s",
+                filename, csvValidation.getNumberInvalidRows(), csvValidation.getTotalNumberRows()));
+
+        // only the rejected rows are reported: once corrected they can be uploaded again as a new file
+        long startTime = System.currentTimeMillis();
+        csvService.uploadRejectedRowsCsv(blobInfo.getContainer(), ERROR_DIRECTORY_NAME + '/' + CsvCompression.getCsvName(filename), csvValidation);
+        long endTime = System.currentTimeMillis();
+        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] uploadRejectedRowsCsv executed in [%s] ms", filename, (endTime - startTime)));
+
+        // the input file is kept: it is deleted by CuGenerateOutputCsv with the report of the valid rows
+        handleValidFile(blobInfo, fileKey, logger, start, csvService, csvValidation);
+    }
+
+    private void handleValidFile(BlobInfo blobInfo, String fileKey, Logger logger, LocalDateTime start, CuCsvService csvService, DebtPositionValidationCsv csvValidation) throws CanoneUnicoException {
         // convert `CsvToBean` object to list of payments
         final List<PaymentNotice> payments = csvValidation.getPayments();
-        // save in Table
+        // save in Table and push in queue: every table batch is pushed as soon as it is saved
+        // (a retry of the same upload resumes from its checkpoint)
         long startTime1 = System.currentTimeMillis();
-        List<DebtPositionEntity> savedEntities = csvService.saveDebtPosition(fileKey, payments);
+        csvService.persistDebtPosition(fileKey, FileCheckpointService.getCheckpointId(blobInfo.getEtag(), null), payments);
         long endTime1 = System.currentTimeMillis();
-        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] time: saveDebtPositionTable executed in [%s] ms", fileKey, (endTime1 - startTime1)));
-
-        // push in queue
-        long startTime2 = System.currentTimeMillis();
-        csvService.pushDebtPosition(fileKey, savedEntities);
-        long endTime2 = System.currentTimeMillis();
-        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] time: saveDebtPositionQueue executed in [%s] ms", fileKey, (endTime2 - startTime2)));
+        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] time: persistDebtPosition executed in [%s] ms", fileKey, (endTime1 - startTime1)));
 
         logger.log(Level.INFO, () -> String.format(
                 "[CuCsvParsingFunction END] [%s] execution started at [%s] and ended at [%s]",
                 fileKey, start, LocalDateTime.now()));
     }
 
+    private ProcessedFileStatus handleSegmentedFile(BlobInfo blobInfo, Logger logger, LocalDateTime start, CuCsvService csvService) throws CanoneUnicoException, IOException, URISyntaxException, InvalidKeyException, StorageException {
+        FileSegmentService segmentService = this.getFileSegmentServiceInstance(logger);
+
+        long startTime = System.currentTimeMillis();
+        List<FileSegmentMessage> segments = segmentService.split(blobInfo);
+        // a file with wrong columns is rejected before processing its segments
+        Optional<DebtPositionValidationCsv> headerValidation = CsvValidation.checkHeader(blobInfo.getName(),
+                segments.isEmpty() ? null : CsvValidation.parseHeader(segments.get(0).getHeader()));
+        if (headerValidation.isPresent()) {
+            handleInvalidFile(blobInfo, logger, start, csvService, headerValidation.get());
+            return ProcessedFileStatus.INVALID;
+        }
+        segmentService.enqueueSegments(segments);
+        long endTime = System.currentTimeMillis();
+        logger.log(Level.INFO, () -> String.format("[CuCsvParsingFunction] [%s] time: %s segments enqueued in [%s] ms", blobInfo.getName(), segments.size(), (endTime - startTime)));
+
+        logger.log(Level.INFO, () -> String.format(
+                "[CuCsvParsingFunction END] [%s] execution started at [%s] and ended at [%s]",
+                blobInfo.getName(), start, LocalDateTime.now()));
+        return ProcessedFileStatus.SEGMENTED;
+    }
+
     public CuCsvService getCuCsvServiceInstance(Logger logger) {
         return new CuCsvService(logger);
     }
+
+    public FileSegmentService getFileSegmentServiceInstance(Logger logger) {
+        return new FileSegmentService(logger);
+    }
+
+    public ProcessedFileService getProcessedFileServiceInstance(Logger logger) {
+        return new ProcessedFileService(logger);
+    }
+
+    public MemoryGovernor getMemoryGovernorInstance() {
+        return MemoryGovernor.getInstance();
+    }
 }
@@ -0,0 +1,216 @@
+package it.gov.pagopa.canoneunico.functions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.QueueTrigger;
+import it.gov.pagopa.canoneunico.csv.validaton.CsvValidation;
+import it.gov.pagopa.canoneunico.entity.FileSegmentEntity;
+import it.gov.pagopa.canoneunico.entity.SegmentStatus;
+import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.FileSegmentMessage;
+import it.gov.pagopa.canoneunico.model.SegmentPhase;
+import it.gov.pagopa.canoneunico.model.error.DebtPositionErrorRow;
+import it.gov.pagopa.canoneunico.service.CuCsvService;
+import it.gov.pagopa.canoneunico.service.FileCheckpointService;
+import it.gov.pagopa.canoneunico.service.FileSegmentService;
+
+import java.io.Reader;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Azure Functions with Azure Queue trigger.
+ * Processes a segment of a large CSV file split by {@link CuCsvParsing}:
+ * every segment is validated first and, only if all the segments of the file are valid, persisted.
+ */
+public class CuCsvSegmentParsing {
+
+    private static final String ERROR_DIRECTORY_NAME = "error";
+
+    /**
+     * This function will be invoked when a new message is detected in the queue
+     */
+    @FunctionName("CuCsvSegmentParsingFunction")
+    public void run(
+            @QueueTrigger(name = "FileSegmentTrigger", queueName = "%FILE_SEGMENTS_QUEUE%", connection = "CU_SA_CONNECTION_STRING") String message,
+            final ExecutionContext context) {
+
+        Logger logger = context.getLogger();
+        logger.log(Level.CONFIG, () -> "[CuCsvSegmentParsingFunction][id=" + context.getInvocationId() + "] new message " + message);
+
+        try {
+            FileSegmentMessage segment = new ObjectMapper().readValue(message, FileSegmentMessage.class);
+            logger.log(Level.INFO, () -> String.format("[CuCsvSegmentParsingFunction START][id=%s][%s] %s segment %s/%s",
+                    context.getInvocationId(), segment.getName(), segment.getPhase(), segment.getSegmentIndex() + 1, segment.getSegmentCount()));
+
+            FileSegmentService segmentService = this.getFileSegmentServiceInstance(logger);
+            CuCsvService csvService = this.getCuCsvServiceInstance(logger);
+
+            if (SegmentPhase.VALIDATE.name().equals(segment.getPhase())) {
+                try {
+                    validateSegment(segment, logger, segmentService, csvService);
+                } catch (Exception e) {
+                    // the segment is in error until a retry of the message validates it
+                    segmentService.saveResult(segment, SegmentStatus.ERROR, null);
+                    throw e;
+                }
+            } else {
+                persistSegment(segment, logger, segmentService, csvService);
+            }
+
+            // the last segment of the phase completes the file: a segment in error is still to be retried
+            List<FileSegmentEntity> results = segmentService.getResults(segment);
+            long completed = results.stream().filter(r -> isCompleted(segment, r)).count();
+            if (completed >= segment.getSegmentCount() && segmentService.tryFinalize(segment)) {
+                finalizePhase(segment, results, logger, segmentService, csvService);
+            }
+            logger.log(Level.INFO, () -> "[CuCsvSegmentParsingFunction END][id=" + context.getInvocationId() + "][" + segment.getName() + "] processed a message");
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, () -> "[CuCsvSegmentParsingFunction ERROR][id=" + context.getInvocationId() + "] Generic Error " + e.getMessage() + " "
+                    + e.getCause() + " - message: " + message);
+            // the message is retried by the queue, and moved to the poison queue after the last attempt
+            throw new IllegalStateException("[CuCsvSegmentParsingFunction] segment not processed", e);
+        }
+    }
+
+    private void validateSegment(FileSegmentMessage segment, Logger logger, FileSegmentService segmentService, CuCsvService csvService) throws Exception {
+        csvService.initEcConfigList();
+
+        // a partially accepted file is validated completely, to report every rejected row
+        boolean partialAccept = csvService.isPartialAccept(segment.getContainer());
+        DebtPositionValidationCsv csvValidation;
+        try (Reader content = segmentService.openSegmentReader(segment)) {
+            csvValidation = CsvValidation.checkCsvIsValid(logger, segment.getName(), csvService.parseCsvToBean(content),
+                    partialAccept ? 0 : csvService.getValidationMaxInvalidRows());
+        }
+        csvValidation.setHeader(CsvValidation.parseHeader(segment.getHeader()));
+
+        if (csvValidation.getErrorRows().isEmpty()) {
+            segmentService.saveResult(segment, SegmentStatus.VALID, csvValidation);
+        } else {
+            // line numbers of the error file are relative to the segment
+            String errorFileName = ERROR_DIRECTORY_NAME + '/' + getSegmentFileName(segment);
+            if (partialAccept) {
+                csvService.uploadRejectedRowsCsv(segment.getContainer(), errorFileName, csvValidation);
+            } else {
+                csvService.uploadRowsErrorCsv(segment.getContainer(), errorFileName, csvValidation);
+            }
+            segmentService.saveResult(segment, SegmentStatus.INVALID, csvValidation);
+            logger.log(Level.SEVERE, () -> String.format("[CuCsvSegmentParsingFunction] [%s] segment %s not valid: nLinesError/nTotLines = %s/%s",
+                    segment.getName(), segment.getSegmentIndex(), csvValidation.getNumberInvalidRows(), csvValidation.getTotalNumberRows()));
+        }
+    }
+
+    private void persistSegment(FileSegmentMessage segment, Logger logger, FileSegmentService segmentService, CuCsvService csvService) throws Exception {
+        String fileKey = FileSegmentService.getFileKey(segment);
+        csvService.initEcConfigList();
+
+        DebtPositionValidationCsv csvValidation;
+        try (Reader content = segmentService.openSegmentReader(segment)) {
+            csvValidation = CsvValidation.checkCsvIsValid(logger, segment.getName(), csvService.parseCsvToBean(content));
+        }
+
+        try {
+            // a retry of the segment resumes from its checkpoint
+            csvService.persistDebtPosition(fileKey, FileCheckpointService.getCheckpointId(segment.getEtag(), segment.getSegmentIndex()), csvValidation.getPayments());
+            segmentService.saveResult(segment, SegmentStatus.PERSISTED, csvValidation);
+        } catch (Exception e) {
+            segmentService.saveResult(segment, SegmentStatus.ERROR, csvValidation);
+            throw e;
+        }
+    }
+
+    private void finalizePhase(FileSegmentMessage segment, List<FileSegmentEntity> results, Logger logger, FileSegmentService segmentService, CuCsvService csvService) throws Exception {
+        List<FileSegmentEntity> failed = results.stream()
+                .filter(r -> !SegmentStatus.VALID.name().equals(r.getStatus()) && !SegmentStatus.PERSISTED.name().equals(r.getStatus()))
+                .collect(Collectors.toList());
+
+        if (SegmentPhase.PERSIST.name().equals(segment.getPhase())) {
+            logger.log(failed.isEmpty() ? Level.INFO : Level.SEVERE, () -> String.format("[CuCsvSegmentParsingFunction] [%s] file persisted: %s/%s segments in error",
+                    segment.getName(), failed.size(), results.size()));
+        } else if ((failed.isEmpty() || isPartiallyAccepted(segment, failed, results, csvService))
+                && !hasDuplicatedIds(segment, results, logger, segmentService, csvService)) {
+            // all segments are valid (or the valid rows are accepted anyway) -> persist them, only the valid rows are saved
+            List<FileSegmentMessage> persistSegments = results.stream()
+                    .map(r -> toSegment(segment, r, SegmentPhase.PERSIST))
+                    .collect(Collectors.toList());
+            segmentService.enqueueSegments(persistSegments);
+            logger.log(Level.INFO, () -> String.format("[CuCsvSegmentParsingFunction] [%s] file valid: %s segments enqueued to be persisted",
+                    segment.getName(), persistSegments.size()));
+        } else {
+            // not valid file -> the error files are already in the 'error' blob space, delete from 'input' blob space
+            csvService.deleteCsv(segment.getContainer(), segment.getDirectory() + '/' + segment.getName());
+            logger.log(Level.SEVERE, () -> String.format("[CuCsvSegmentParsingFunction] [%s] file not valid: %s/%s segments with errors",
+                    segment.getName(), failed.size(), results.size()));
+        }
+    }
+
+    // an id found in more segments would fail the persistence of a whole batch: the file is rejected with the report of the duplicated rows
+    private static boolean hasDuplicatedIds(FileSegmentMessage segment, List<FileSegmentEntity> results, Logger logger, FileSegmentService segmentService, CuCsvService csvService) throws Exception {
+        List<FileSegmentMessage> segments = results.stream()
+                .sorted(Comparator.comparingInt(FileSegmentEntity::getSegmentIndex))
+                .map(r -> toSegment(segment, r, SegmentPhase.VALIDATE))
+                .collect(Collectors.toList());
+        List<DebtPositionErrorRow> duplicated = segmentService.findDuplicatedIds(segments);
+        if (duplicated.isEmpty()) {
+            return false;
+        }
+
+        DebtPositionValidationCsv csvValidation = DebtPositionValidationCsv.builder()
+                .csvFilename(segment.getName())
+                .header(CsvValidation.parseHeader(segment.getHeader()))
+                .totalNumberRows(results.stream().mapToInt(r -> r.getTotalNumberRows() != null ? r.getTotalNumberRows() : 0).sum())
+                .numberInvalidRows(duplicated.size())
+                .errorRows(duplicated)
+                .build();
+        csvService.uploadRejectedRowsCsv(segment.getContainer(), ERROR_DIRECTORY_NAME + '/' + segment.getName(), csvValidation);
+        logger.log(Level.SEVERE, () -> String.format("[CuCsvSegmentParsingFunction] [%s] file not valid: %s ids duplicated across the segments",
+                segment.getName(), duplicated.size()));
+        return true;
+    }
+
+    private static FileSegmentMessage toSegment(FileSegmentMessage segment, FileSegmentEntity result, SegmentPhase phase) {
+        return segment.toBuilder()
+                .segmentIndex(result.getSegmentIndex())
+                .offset(result.getOffset())
+                .length(result.getLength())
+                .phase(phase.name())
+                .build();
+    }
+
+    // VALID or INVALID when validated, PERSISTED when persisted: ERROR is not an outcome, the message of the segment is retried
+    private static boolean isCompleted(FileSegmentMessage segment, FileSegmentEntity result) {
+        if (SegmentPhase.VALIDATE.name().equals(segment.getPhase())) {
+            return SegmentStatus.VALID.name().equals(result.getStatus()) || SegmentStatus.INVALID.name().equals(result.getStatus());
+        }
+        return SegmentStatus.PERSISTED.name().equals(result.getStatus());
+    }
+
+    // partial accept: the segments are only invalid (not in error) and have at least a valid row
+    private static boolean isPartiallyAccepted(FileSegmentMessage segment, List<FileSegmentEntity> failed, List<FileSegmentEntity> results, CuCsvService csvService) {
+        boolean onlyInvalid = failed.stream().allMatch(r -> SegmentStatus.INVALID.name().equals(r.getStatus()));
+        int validRows = results.stream()
+                .mapToInt(r -> (r.getTotalNumberRows() != null ? r.getTotalNumberRows() : 0) - (r.getNumberInvalidRows() != null ? r.getNumberInvalidRows() : 0))
+                .sum();
+        return onlyInvalid && validRows > 0 && csvService.isPartialAccept(segment.getContainer());
+    }
+
+    // e.g. file.csv -> file_part00003.csv
+    private static String getSegmentFileName(FileSegmentMessage segment) {
+        String name = segment.getName();
+        int extension = name.lastIndexOf('.');
+        return String.format("%s_part%05d%s", name.substring(0, extension), segment.getSegmentIndex(), name.substring(extension));
+    }
+
+    public CuCsvService getCuCsvServiceInstance(Logger logger) {
+        return new CuCsvService(logger);
+    }
+
+    public FileSegmentService getFileSegmentServiceInstance(Logger logger) {
+        return new FileSegmentService(logger);
+    }
+}
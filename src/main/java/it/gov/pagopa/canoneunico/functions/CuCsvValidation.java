@@ -0,0 +1,144 @@
+package it.gov.pagopa.canoneunico.functions;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+import it.gov.pagopa.canoneunico.csv.validaton.CsvValidation;
+import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.service.CuCsvService;
+import it.gov.pagopa.canoneunico.service.MemoryGovernor;
+import it.gov.pagopa.canoneunico.util.CsvCompression;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Azure Functions with Azure Http trigger.
+ * Dry run of the validation of {@link CuCsvParsing}: the CSV file in the request body is validated
+ * against the EC config and the error report is returned in the response, nothing is written to the storage.
+ */
+public class CuCsvValidation {
+
+    private static final String DEFAULT_FILE_NAME = "file.csv";
+
+    // same limits of CuCsvParsing: the file and its CSV content are held in memory while validated
+    private long memoryPerCsvByte = System.getenv("MEMORY_PER_CSV_BYTE") != null ? NumberUtils.toLong(System.getenv("MEMORY_PER_CSV_BYTE")) : 10;
+    private long decompressedMaxBytes = System.getenv("DECOMPRESSED_MAX_BYTES") != null ? NumberUtils.toLong(System.getenv("DECOMPRESSED_MAX_BYTES")) : 1_000_000_000L;
+
+    /**
+     * This function will be invoked when a Http Trigger occurs
+     *
+     * @return the error report of the file: 200 if the file is valid, 400 otherwise, 413 if the file exceeds the max size
+     */
+    @FunctionName("CuCsvValidationFunction")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "CuCsvValidationTrigger",
+                    methods = {HttpMethod.POST},
+                    route = "validate",
+                    dataType = "binary",
+                    authLevel = AuthorizationLevel.FUNCTION) HttpRequestMessage<Optional<byte[]>> request,
+            final ExecutionContext context) {
+
+        Logger logger = context.getLogger();
+        // the name selects the compression of the content, as for the uploaded files
+        String fileName = request.getQueryParameters().getOrDefault("name", DEFAULT_FILE_NAME);
+        byte[] body = request.getBody().orElse(new byte[0]);
+        logger.log(Level.INFO, () -> String.format("[CuCsvValidationFunction START] [id=%s] [%s] validation of %s bytes",
+                context.getInvocationId(), fileName, body.length));
+
+        if (body.length == 0) {
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .header("Content-Type", "text/plain")
+                    .body("Empty file")
+                    .build();
+        }
+        long maxBytes = this.getDecompressedMaxBytes();
+        if (body.length > maxBytes) {
+            return request.createResponseBuilder(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .header("Content-Type", "text/plain")
+                    .body("The file exceeds " + maxBytes + " bytes")
+                    .build();
+        }
+
+        try {
+            long startTime = System.currentTimeMillis();
+            CuCsvService csvService = this.getCuCsvServiceInstance(logger);
+            // read only: the snapshot blob of the EC config is not updated by a dry run
+            csvService.initEcConfigList(true);
+
+            DebtPositionValidationCsv csvValidation;
+            try (BufferedReader content = new BufferedReader(new InputStreamReader(
+                    CsvCompression.of(fileName).decompress(new ByteArrayInputStream(body), maxBytes), StandardCharsets.UTF_8))) {
+                csvValidation = validateCsv(fileName, logger, csvService, content);
+            }
+
+            // the same report of the 'error' blob space
+            StringWriter report = new StringWriter();
+            csvService.writeRowsErrorCsv(report, csvValidation);
+
+            boolean valid = csvValidation.getErrorRows().isEmpty();
+            long endTime = System.currentTimeMillis();
+            logger.log(Level.INFO, () -> String.format("[CuCsvValidationFunction END] [id=%s] [%s] valid=%s nLinesError/nTotLines = %s/%s in [%s] ms",
+                    context.getInvocationId(), fileName, valid, csvValidation.getNumberInvalidRows(), csvValidation.getTotalNumberRows(), (endTime - startTime)));
+            return request.createResponseBuilder(valid ? HttpStatus.OK : HttpStatus.BAD_REQUEST)
+                    .header("Content-Type", "text/csv")
+                    .body(report.toString())
+                    .build();
+        } catch (IOException | UncheckedIOException e) {
+            // a content not readable, e.g. a malformed archive or a CSV content over the max size
+            logger.log(Level.WARNING, () -> String.format("[CuCsvValidationFunction ERROR] [id=%s] [%s] file not readable: %s",
+                    context.getInvocationId(), fileName, e.getMessage()));
+            return request.createResponseBuilder(HttpStatus.BAD_REQUEST)
+                    .header("Content-Type", "text/plain")
+                    .body("File not readable: " + e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, () -> String.format("[CuCsvValidationFunction ERROR] [id=%s] [%s] Generic Error: error msg = %s - cause = %s",
+                    context.getInvocationId(), fileName, e.getMessage(), e.getCause()));
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .header("Content-Type", "text/plain")
+                    .body("Generic Error")
+                    .build();
+        }
+    }
+
+    private DebtPositionValidationCsv validateCsv(String fileName, Logger logger, CuCsvService csvService, BufferedReader content) throws IOException {
+        String[] header = CsvValidation.readHeader(content);
+        // a file with wrong columns is rejected without reading its rows
+        Optional<DebtPositionValidationCsv> headerValidation = CsvValidation.checkHeader(fileName, header);
+        if (headerValidation.isPresent()) {
+            return headerValidation.get();
+        }
+        DebtPositionValidationCsv csvValidation = CsvValidation.checkCsvIsValid(logger, fileName, csvService.parseCsvToBean(content),
+                csvService.getValidationMaxInvalidRows());
+        csvValidation.setHeader(header);
+        return csvValidation;
+    }
+
+    // the CSV content, held in memory, never exceeds the memory budget of the host
+    long getDecompressedMaxBytes() {
+        return Math.min(decompressedMaxBytes, this.getMemoryGovernorInstance().getBudgetBytes() / Math.max(1, memoryPerCsvByte));
+    }
+
+    public CuCsvService getCuCsvServiceInstance(Logger logger) {
+        return new CuCsvService(logger);
+    }
+
+    public MemoryGovernor getMemoryGovernorInstance() {
+        return MemoryGovernor.getInstance();
+    }
+}
@@ -1,9 +1,7 @@
 package it.gov.pagopa.canoneunico.iuvgenerator;
 
-import java.math.BigDecimal;
 import java.security.SecureRandom;
 import java.time.Instant;
-import java.util.regex.Pattern;
 
 import it.gov.pagopa.canoneunico.iuvgenerator.exception.UnexpectedValueException;
 
@@ -14,36 +12,35 @@ public abstract class IuvAlghoritm implements IuvAlghoritmGenerator {
 	
 	public static final String UNEXPECTED_GENERATED_VALUE_ERROR = "Unexpected generated value: ";
 
-    private static final String DIGIT_OF_2 = "%02d";
-    private static final String DIGIT_OF_13 = "\\d{13}";
+    // 10^12: a timestamp in millis has 13 digits
+    private static final long MIN_TIMESTAMP_IUV_BASE = 1_000_000_000_000L;
 
-    private static Pattern pattern = Pattern.compile(DIGIT_OF_13);
-
-    /**
-     * Calculates the check digit of IUV code
-     * 
-     * @param checkDigitComponent
-     *            check digit component
-     * @return the generated check digit
-     */
-    protected String generateCheckDigit(String checkDigitComponent) {
-        return String.format(DIGIT_OF_2,
-                (new BigDecimal(checkDigitComponent).remainder(new BigDecimal(93))).intValue());
-    }
+    private static final SecureRandom RANDOM = new SecureRandom();
 
     /**
      * Generates sequential 13 digits IUV
      * 
      * @return the IUV base
      */
-    protected String generateSeqIuv13Digits(int nextValSequence) {
+    protected long generateSeqIuv13Digits(int nextValSequence) {
 
-    	long timeStampMillis = Instant.now().toEpochMilli() + nextValSequence;	
+    	long sequence = Instant.now().toEpochMilli() + nextValSequence;
 
-    	String sequence=Long.toString(timeStampMillis);
+    	if (sequence < MIN_TIMESTAMP_IUV_BASE || !IuvCodeFormatter.isValidIuvBase(sequence)) {
+    		throw new UnexpectedValueException(UNEXPECTED_GENERATED_VALUE_ERROR + sequence);
+    	}
 
+    	return sequence;
+    }
+    
+    /**
+     * Checks a value of a sequence as 13 digits IUV
+     * 
+     * @return the IUV base
+     */
+    protected long checkSeqIuv13Digits(long sequence) {
 
-    	if (!pattern.matcher(sequence).matches()) {
+    	if (!IuvCodeFormatter.isValidIuvBase(sequence)) {
     		throw new UnexpectedValueException(UNEXPECTED_GENERATED_VALUE_ERROR + sequence);
     	}
 
@@ -53,22 +50,13 @@ public abstract class IuvAlghoritm implements IuvAlghoritmGenerator {
     /**
      * Generates random 13 digits IUV
      * 
-     * @return the IUV base
+     * @return the IUV base: 9 digits of the timestamp followed by 4 random digits
      */
-    protected String generateRandomIuv13Digits() {
+    protected long generateRandomIuv13Digits() {
 
     	long timeStampMillis = Instant.now().toEpochMilli();	
     	long moduleDigitis = timeStampMillis % 999999999;
 
-    	SecureRandom sr = new SecureRandom();
-    	Integer randomInt = sr.nextInt(10000);
-
-    	String sequence = String.format("%09d", moduleDigitis) + String.format("%04d", randomInt);
-
-    	if (!pattern.matcher(sequence).matches()) {
-    		throw new UnexpectedValueException(UNEXPECTED_GENERATED_VALUE_ERROR + sequence);
-    	}
-
-    	return sequence;
+    	return moduleDigitis * 10000 + RANDOM.nextInt(10000);
     }
 }
\ No newline at end of file
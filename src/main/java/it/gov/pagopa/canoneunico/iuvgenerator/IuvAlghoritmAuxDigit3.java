@@ -1,13 +1,11 @@
 package it.gov.pagopa.canoneunico.iuvgenerator;
 
-import java.text.DecimalFormat;
-
 /**
- * IUV code generation algorithm based on <code>auxDigit</code> = 3
+ * IUV code generation algorithm based on <code>auxDigit</code> = 3, thread-safe
  */
 public class IuvAlghoritmAuxDigit3 extends IuvAlghoritm {
 
-    private int auxDigit = 3;
+    private final IuvCodeFormatter formatter = new IuvCodeFormatter(3);
 
     /**
      * Protected constructor
@@ -23,17 +21,16 @@ public class IuvAlghoritmAuxDigit3 extends IuvAlghoritm {
      */
     @Override
     public String generate(Integer segregationCode, Integer nextValSequence) {
-        String segregationCodeString = new DecimalFormat("00").format(segregationCode);
-        String iuvBase13Digits = generateSeqIuv13Digits(nextValSequence);
-        String checkDigit = generateCheckDigit(String.valueOf(auxDigit) + segregationCodeString + iuvBase13Digits);
-        return segregationCodeString + iuvBase13Digits + checkDigit;
+        return formatter.format(segregationCode, generateSeqIuv13Digits(nextValSequence));
     }
     
+    @Override
+    public String generateFromSequence(Integer segregationCode, long sequence) {
+        return formatter.format(segregationCode, checkSeqIuv13Digits(sequence));
+    }
+
     @Override
     public String generate(Integer segregationCode) {
-        String segregationCodeString = new DecimalFormat("00").format(segregationCode);
-        String iuvBase13Digits = generateRandomIuv13Digits();
-        String checkDigit = generateCheckDigit(String.valueOf(auxDigit) + segregationCodeString + iuvBase13Digits);
-        return segregationCodeString + iuvBase13Digits + checkDigit;
+        return formatter.format(segregationCode, generateRandomIuv13Digits());
     }
 }
\ No newline at end of file
@@ -28,6 +28,17 @@ public interface IuvAlghoritmGenerator {
      * @return the IUV Code
      */
     String generate(Integer segregationCode, Integer nextValSequence);
+
+    /**
+     * Generates the IUV Code of a value of a stored sequence
+     * 
+     * @param segregationCode
+     *            the segregation code
+     * @param sequence
+     *            the value of the sequence, at most 13 digits
+     * @return the IUV Code
+     */
+    String generateFromSequence(Integer segregationCode, long sequence);
     
     /**
      * Generates the IUV Code
@@ -8,6 +8,9 @@ import lombok.experimental.UtilityClass;
 @UtilityClass
 public class IuvCodeBusiness {
 
+    // stateless: shared by every generation
+    private static final IuvAlghoritmGenerator IUV_GENERATOR = new IuvAlghoritmGenerator.Builder().build();
+
     /**
      * Generates a sequential <code>iuv</code>
      * 
@@ -18,8 +21,19 @@ public class IuvCodeBusiness {
      * 
      */
     public static String generateIUV(Integer segregationCode, Integer nextValSequence) {
-        IuvAlghoritmGenerator iuvGenerator = new IuvAlghoritmGenerator.Builder().build();
-        return iuvGenerator.generate(segregationCode, nextValSequence);
+        return IUV_GENERATOR.generate(segregationCode, nextValSequence);
+    }
+    
+    /**
+     * Generates the <code>iuv</code> of a value of a stored sequence
+     * 
+     * @param segregationCode
+     * @param sequence
+     * @return the <code>iuv</code>
+     * 
+     */
+    public static String generateIUVFromSequence(Integer segregationCode, long sequence) {
+        return IUV_GENERATOR.generateFromSequence(segregationCode, sequence);
     }
     
     /**
@@ -31,7 +45,6 @@ public class IuvCodeBusiness {
      * 
      */
     public static String generateIUV(Integer segregationCode) {
-        IuvAlghoritmGenerator iuvGenerator = new IuvAlghoritmGenerator.Builder().build();
-        return iuvGenerator.generate(segregationCode);
+        return IUV_GENERATOR.generate(segregationCode);
     }
 }
@@ -0,0 +1,98 @@
+package it.gov.pagopa.canoneunico.iuvgenerator;
+
+import it.gov.pagopa.canoneunico.iuvgenerator.exception.UnexpectedValueException;
+
+/**
+ * Formats the IUV Code of a segregation code and an IUV base.<br/>
+ * IUV (17 digits) = &lt;codice segregazione (2n)&gt;&lt;IUV base (13n)&gt;&lt;IUV check digit (2n)&gt;<br/>
+ * The check digit is the remainder by 93 of &lt;auxDigit&gt;&lt;codice segregazione&gt;&lt;IUV base&gt;:
+ * 16 digits, computed on a long. The digits are written in a buffer of the calling thread,
+ * the only object allocated is the returned String. Thread-safe.
+ */
+public final class IuvCodeFormatter {
+
+    public static final int IUV_LENGTH = 17;
+
+    private static final long IUV_BASE_LIMIT = 10_000_000_000_000L;
+    private static final int SEGREGATION_CODE_LIMIT = 100;
+    private static final int CHECK_DIGIT_MODULUS = 93;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[IUV_LENGTH]);
+
+    // <auxDigit> as the first of the 16 digits of the check digit component
+    private final long auxDigitValue;
+
+    /**
+     * @param auxDigit
+     *            the aux digit, 0-9
+     */
+    public IuvCodeFormatter(int auxDigit) {
+        if (auxDigit < 0 || auxDigit > 9) {
+            throw new IllegalArgumentException("Invalid aux digit: " + auxDigit);
+        }
+        this.auxDigitValue = auxDigit * IUV_BASE_LIMIT * SEGREGATION_CODE_LIMIT;
+    }
+
+    /**
+     * @return true if the value fits the 13 digits of the IUV base
+     */
+    public static boolean isValidIuvBase(long iuvBase) {
+        return iuvBase >= 0 && iuvBase < IUV_BASE_LIMIT;
+    }
+
+    /**
+     * Calculates the check digit of IUV code
+     *
+     * @return the check digit, 0-92
+     */
+    public int checkDigit(int segregationCode, long iuvBase) {
+        return (int) ((auxDigitValue + segregationCode * IUV_BASE_LIMIT + iuvBase) % CHECK_DIGIT_MODULUS);
+    }
+
+    /**
+     * Formats the IUV Code
+     *
+     * @param segregationCode
+     *            the segregation code, 2 digits
+     * @param iuvBase
+     *            the IUV base, 13 digits
+     * @return the IUV Code
+     */
+    public String format(int segregationCode, long iuvBase) {
+        char[] buffer = BUFFER.get();
+        this.format(segregationCode, iuvBase, buffer, 0);
+        return new String(buffer);
+    }
+
+    /**
+     * Writes the 17 digits of the IUV Code in the destination
+     *
+     * @param segregationCode
+     *            the segregation code, 2 digits
+     * @param iuvBase
+     *            the IUV base, 13 digits
+     * @param destination
+     *            the destination of the digits
+     * @param offset
+     *            the position of the first digit in the destination
+     */
+    public void format(int segregationCode, long iuvBase, char[] destination, int offset) {
+        if (segregationCode < 0 || segregationCode >= SEGREGATION_CODE_LIMIT) {
+            throw new UnexpectedValueException(IuvAlghoritm.UNEXPECTED_GENERATED_VALUE_ERROR + segregationCode);
+        }
+        if (!isValidIuvBase(iuvBase)) {
+            throw new UnexpectedValueException(IuvAlghoritm.UNEXPECTED_GENERATED_VALUE_ERROR + iuvBase);
+        }
+        writeDigits(segregationCode, destination, offset, 2);
+        writeDigits(iuvBase, destination, offset + 2, 13);
+        writeDigits(this.checkDigit(segregationCode, iuvBase), destination, offset + 15, 2);
+    }
+
+    // the value zero-padded to the given number of digits, from the last one
+    private static void writeDigits(long value, char[] destination, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            destination[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
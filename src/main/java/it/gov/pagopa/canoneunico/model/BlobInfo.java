@@ -14,4 +14,8 @@ public class BlobInfo {
     private String directory;   // one of {input, output, error} directory
     private String name;        // blob file name
     private String url;         // blob url: container/directory/blob-name
+    private String etag;        // blob ETag at event time
+    private long contentLength; // blob size in bytes
+    private String leaseId;     // lease held on the blob while it is processed, null if not leased
+    private String event;       // EventGrid event of the blob, to re-queue it
 }
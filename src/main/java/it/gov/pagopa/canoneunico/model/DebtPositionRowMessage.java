@@ -28,5 +28,5 @@ public class DebtPositionRowMessage {
     private String iban;
 
     // retry
-    private String retryAction; // CREATE | PUBLISH
+    private String retryAction; // CREATE | UPDATE | PUBLISH
 }
@@ -25,6 +25,10 @@ public class DebtPositionValidationCsv {
     private Integer numberInvalidRows;
     private List<PaymentNotice> payments;
 	private List<CsvException> parsingExceptions;
+    // column names of the file in their order, null if the file follows the template order
+    private String[] header;
+    // true if the validation stopped at the max number of invalid rows: the following rows are not validated
+    private boolean interrupted;
     @Builder.Default
     private List<DebtPositionErrorRow> errorRows = new ArrayList<>();
 
@@ -0,0 +1,29 @@
+package it.gov.pagopa.canoneunico.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileSegmentMessage {
+
+    // blob
+    private String container;
+    private String directory;
+    private String name;
+    private String etag;
+
+    // segment: row-aligned byte range [offset, offset + length)
+    private Integer segmentIndex;
+    private Integer segmentCount;
+    private Long offset;
+    private Long length;
+    private String header;       // CSV header, prepended to every segment but the first one
+
+    // {@link SegmentPhase}
+    private String phase;        // VALIDATE | PERSIST
+}
@@ -0,0 +1,84 @@
+package it.gov.pagopa.canoneunico.model;
+
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable lookup of the EC config organizations by fiscal code, ISTAT code and cadastral code.
+ * Built once from the organizations list, so that every CSV row is verified and enriched in constant time.
+ */
+public class OrganizationIndex {
+
+    private final Map<String, EcConfigEntity> byFiscalCode;
+    private final Map<String, EcConfigEntity> byIdIstat;
+    private final Map<String, EcConfigEntity> byIdCatasto;
+    private final Map<String, Integer> idIstatOccurrences;
+    private final Map<String, Integer> idCatastoOccurrences;
+
+    public OrganizationIndex(List<EcConfigEntity> organizationsList) {
+        Map<String, EcConfigEntity> fiscalCodes = new HashMap<>();
+        Map<String, EcConfigEntity> idIstats = new HashMap<>();
+        Map<String, EcConfigEntity> idCatastos = new HashMap<>();
+        Map<String, Integer> idIstatCount = new HashMap<>();
+        Map<String, Integer> idCatastoCount = new HashMap<>();
+
+        // the first organization in list order wins, as with the previous linear search
+        for (EcConfigEntity o : organizationsList) {
+            if (o.getRowKey() != null) {
+                fiscalCodes.putIfAbsent(o.getRowKey(), o);
+            }
+            if (o.getPaIdIstat() != null) {
+                idIstats.putIfAbsent(o.getPaIdIstat(), o);
+                idIstatCount.merge(o.getPaIdIstat(), 1, Integer::sum);
+            }
+            if (o.getPaIdCatasto() != null) {
+                idCatastos.putIfAbsent(o.getPaIdCatasto(), o);
+                idCatastoCount.merge(o.getPaIdCatasto(), 1, Integer::sum);
+            }
+        }
+
+        this.byFiscalCode = Collections.unmodifiableMap(fiscalCodes);
+        this.byIdIstat = Collections.unmodifiableMap(idIstats);
+        this.byIdCatasto = Collections.unmodifiableMap(idCatastos);
+        this.idIstatOccurrences = Collections.unmodifiableMap(idIstatCount);
+        this.idCatastoOccurrences = Collections.unmodifiableMap(idCatastoCount);
+    }
+
+    public EcConfigEntity findByFiscalCode(String paIdFiscalCode) {
+        return paIdFiscalCode == null ? null : byFiscalCode.get(paIdFiscalCode);
+    }
+
+    public EcConfigEntity findByIdIstat(String idIstat) {
+        return idIstat == null ? null : byIdIstat.get(idIstat);
+    }
+
+    public EcConfigEntity findByIdCatasto(String idCatasto) {
+        return idCatasto == null ? null : byIdCatasto.get(idCatasto);
+    }
+
+    public int countIdIstat(String idIstat) {
+        return idIstat == null ? 0 : idIstatOccurrences.getOrDefault(idIstat, 0);
+    }
+
+    public int countIdCatasto(String idCatasto) {
+        return idCatasto == null ? 0 : idCatastoOccurrences.getOrDefault(idCatasto, 0);
+    }
+
+    /**
+     * @return the organization matching the cadastral code, the ISTAT code or the fiscal code, in this order; null if none matches
+     */
+    public EcConfigEntity find(String idCatasto, String idIstat, String paIdFiscalCode) {
+        EcConfigEntity ecConfig = this.findByIdCatasto(idCatasto);
+        if (ecConfig == null) {
+            ecConfig = this.findByIdIstat(idIstat);
+        }
+        if (ecConfig == null) {
+            ecConfig = this.findByFiscalCode(paIdFiscalCode);
+        }
+        return ecConfig;
+    }
+}
@@ -4,5 +4,5 @@ package it.gov.pagopa.canoneunico.model;
  * The step to retry
  */
 public enum RetryStep {
-    NONE, CREATE, PUBLISH, DONE, ERROR
+    NONE, CREATE, UPDATE, PUBLISH, DONE, ERROR
 }
@@ -0,0 +1,8 @@
+package it.gov.pagopa.canoneunico.model;
+
+/**
+ * The step of a segmented file processing
+ */
+public enum SegmentPhase {
+    VALIDATE, PERSIST
+}
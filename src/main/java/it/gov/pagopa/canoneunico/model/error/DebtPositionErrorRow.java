@@ -8,4 +8,6 @@ import lombok.Data;
 public class DebtPositionErrorRow {
 	private long rowNumber;
     private List<String> errorsDetail = new ArrayList<>();
+    // the fields of the row as read from the file, null if not available
+    private String[] rawLine;
 }
@@ -1,8 +1,10 @@
 package it.gov.pagopa.canoneunico.service;
 
+import com.azure.core.util.Context;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.BlobRequestConditions;
 import com.azure.storage.blob.specialized.BlockBlobClient;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.collect.Lists;
@@ -12,21 +14,21 @@ import com.microsoft.azure.storage.queue.CloudQueue;
 import com.microsoft.azure.storage.queue.CloudQueueMessage;
 import com.microsoft.azure.storage.table.CloudTable;
 import com.microsoft.azure.storage.table.TableBatchOperation;
+import com.microsoft.azure.storage.table.TableOperation;
 import com.microsoft.azure.storage.table.TableQuery;
-import com.opencsv.bean.ColumnPositionMappingStrategy;
+import com.opencsv.CSVWriter;
+import com.opencsv.ICSVWriter;
 import com.opencsv.bean.CsvToBean;
 import com.opencsv.bean.CsvToBeanBuilder;
 import com.opencsv.bean.HeaderColumnNameMappingStrategy;
-import com.opencsv.bean.StatefulBeanToCsv;
-import com.opencsv.bean.StatefulBeanToCsvBuilder;
 import com.opencsv.enums.CSVReaderNullFieldIndicator;
-import com.opencsv.exceptions.CsvDataTypeMismatchException;
-import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
+import it.gov.pagopa.canoneunico.csv.decoder.PaymentNoticeCsvToBean;
 import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
-import it.gov.pagopa.canoneunico.csv.model.PaymentNoticeError;
 import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
+import it.gov.pagopa.canoneunico.csv.validaton.ValidationEngine;
 import it.gov.pagopa.canoneunico.entity.DebtPositionEntity;
 import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.entity.FileCheckpointEntity;
 import it.gov.pagopa.canoneunico.entity.IuvEntity;
 import it.gov.pagopa.canoneunico.entity.Status;
 import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
@@ -34,6 +36,7 @@ import it.gov.pagopa.canoneunico.iuvgenerator.IuvCodeBusiness;
 import it.gov.pagopa.canoneunico.model.DebtPositionMessage;
 import it.gov.pagopa.canoneunico.model.DebtPositionRowMessage;
 import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.OrganizationIndex;
 import it.gov.pagopa.canoneunico.model.RetryStep;
 import it.gov.pagopa.canoneunico.model.error.DebtPositionErrorRow;
 import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
@@ -41,36 +44,117 @@ import it.gov.pagopa.canoneunico.util.ObjectMapperUtils;
 import lombok.NoArgsConstructor;
 import org.apache.commons.lang3.math.NumberUtils;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 
 @NoArgsConstructor
 public class CuCsvService {
+    private static final String EC_CONFIG_TABLE_PARTITION_KEY = "org";
+    private static final String CSV_DECODER_NATIVE = "native";
+    private static final String CONTENT_HASH = "ContentHash";
+    // max operations of a table batch
+    private static final int IUV_BATCH_SIZE = 100;
+    private static final String UPLOAD_ID = "UploadId";
+    private static final String STATUS = "Status";
+    private static final String PA_ID_FISCAL_CODE = "PaIdFiscalCode";
+    private static final String PAYMENT_NOTICE_NUMBER = "PaymentNoticeNumber";
+    private static final String IUPD = "Iupd";
+    // validation threads, shared by the invocations of the instance
+    private static final Map<Integer, ForkJoinPool> VALIDATION_POOLS = new ConcurrentHashMap<>();
+    // marks the end of the batches passed between the persist stages
+    private static final DebtPositionBatch END_OF_BATCHES = new DebtPositionBatch(-1, List.of(), true);
+    // columns of the CSV template, in order
+    private static final String[] TEMPLATE_COLUMNS = {"id", "pa_id_istat", "pa_id_catasto", "pa_id_fiscal_code", "pa_id_cbill", "pa_pec_mail",
+            "pa_referent_email", "pa_referent_name", "amount", "debtor_id_fiscal_code", "debtor_name", "debtor_email", "payment_notice_number", "note"};
+    private static final String ERROR_CSV_HEADER = String.join(";", TEMPLATE_COLUMNS) + ";errors_note";
     private final String CUP_YEAR = System.getenv("CUP_YEAR");
     private final String iuvGenerationType = System.getenv("IUV_GENERATION_TYPE");
     private final List<EcConfigEntity> organizationsList = new ArrayList<>();
+    private OrganizationIndex organizationIndex;
+    // last sequence of the seq IUVs generated in blocks
+    private long lastIuvSequence;
+    // rules of the last parsed file
+    private ValidationEngine validationEngine;
     private String storageConnectionString = System.getenv("CU_SA_CONNECTION_STRING");
     private String debtPositionTable = System.getenv("DEBT_POSITIONS_TABLE");
     private String iuvsTable = System.getenv("IUVS_TABLE");
     private String ecConfigTable = System.getenv("ORGANIZATIONS_CONFIG_TABLE");
     private String debtPositionQueue = System.getenv("DEBT_POSITIONS_QUEUE");
+    private String blobEventsQueue = System.getenv("CU_BLOB_EVENTS_QUEUE");
     private Integer segregationCode = NumberUtils.toInt(System.getenv("CU_SEGREGATION_CODE"));
     private Integer batchSizeDebtPosQueue = System.getenv("BATCH_SIZE_DEBT_POS_QUEUE") != null ? NumberUtils.toInt(System.getenv("BATCH_SIZE_DEBT_POS_QUEUE")) : 25;
     private Integer batchSizeDebtPosTable = System.getenv("BATCH_SIZE_DEBT_POS_TABLE") != null ? NumberUtils.toInt(System.getenv("BATCH_SIZE_DEBT_POS_TABLE")) : 25;
+    private long ecConfigCacheTtlSeconds = NumberUtils.toLong(System.getenv("EC_CONFIG_CACHE_TTL_SECONDS"));
+    private long ecConfigCacheFullReloadSeconds = System.getenv("EC_CONFIG_CACHE_FULL_RELOAD_SECONDS") != null ? NumberUtils.toLong(System.getenv("EC_CONFIG_CACHE_FULL_RELOAD_SECONDS")) : 3600;
+    private String ecConfigSnapshotContainer = System.getenv("EC_CONFIG_SNAPSHOT_CONTAINER");
+    private String ecConfigSnapshotBlob = System.getenv("EC_CONFIG_SNAPSHOT_BLOB") != null ? System.getenv("EC_CONFIG_SNAPSHOT_BLOB") : "ecconfig.snapshot";
+    // opencsv (default) or native, see PaymentNoticeCsvToBean
+    private String csvDecoder = System.getenv("CSV_DECODER") != null ? System.getenv("CSV_DECODER") : "opencsv";
+    // 0: every row is validated
+    private int validationMaxInvalidRows = NumberUtils.toInt(System.getenv("VALIDATION_MAX_INVALID_ROWS"));
+    // > 1: the native decoder validates chunks of rows in parallel
+    private int validationParallelism = System.getenv("VALIDATION_PARALLELISM") != null ? NumberUtils.toInt(System.getenv("VALIDATION_PARALLELISM")) : 1;
+    private int validationChunkSize = System.getenv("VALIDATION_CHUNK_SIZE") != null ? NumberUtils.toInt(System.getenv("VALIDATION_CHUNK_SIZE")) : 5000;
+    // comma separated containers whose files are accepted partially: the valid rows are persisted, the invalid ones reported
+    private String partialAcceptContainers = System.getenv("PARTIAL_ACCEPT_CONTAINERS");
+    // batches waiting between two persist stages: at least one, the default if not a number
+    private int pipelineQueueCapacity = Math.max(1, NumberUtils.toInt(System.getenv("PIPELINE_QUEUE_CAPACITY"), 4));
+    // progress of the persisted files, to resume them after a crash
+    private String checkpointsTable = System.getenv("CHECKPOINTS_TABLE");
+    // seq IUVs: values of a sequence stored in the table, leased in blocks by each instance
+    private String iuvSequencesTable = System.getenv("IUV_SEQUENCES_TABLE");
+    private int iuvSequenceBlockSize = System.getenv("IUV_SEQUENCE_BLOCK_SIZE") != null ? NumberUtils.toInt(System.getenv("IUV_SEQUENCE_BLOCK_SIZE")) : 1000;
+    // snowflake IUVs: worker ids leased in the table; the IUVs are reserved in IUVS_TABLE only if IUV_SNOWFLAKE_RESERVE is true
+    private String iuvWorkersTable = System.getenv("IUV_WORKERS_TABLE");
+    private int iuvWorkerLeaseSeconds = System.getenv("IUV_WORKER_LEASE_SECONDS") != null ? NumberUtils.toInt(System.getenv("IUV_WORKER_LEASE_SECONDS")) : 300;
+    private boolean iuvSnowflakeReserve = System.getenv("IUV_SNOWFLAKE_RESERVE") == null || Boolean.parseBoolean(System.getenv("IUV_SNOWFLAKE_RESERVE"));
+    // pools of IUVs reserved in advance, disabled if the low watermark is 0
+    private int iuvPoolLowWatermark = NumberUtils.toInt(System.getenv("IUV_POOL_LOW_WATERMARK"));
+    private int iuvPoolRefillSize = System.getenv("IUV_POOL_REFILL_SIZE") != null ? NumberUtils.toInt(System.getenv("IUV_POOL_REFILL_SIZE")) : 1000;
+    private int iuvPoolReservationSeconds = System.getenv("IUV_POOL_RESERVATION_SECONDS") != null ? NumberUtils.toInt(System.getenv("IUV_POOL_RESERVATION_SECONDS")) : 86400;
     private Logger logger;
 
 
@@ -102,9 +186,45 @@ public class CuCsvService {
     }
 
     public void initEcConfigList() throws URISyntaxException, InvalidKeyException, StorageException, CanoneUnicoException {
+        this.initEcConfigList(false);
+    }
 
-        final String ecConfigTablePartitionKey = "org";
+    /**
+     * @param readOnly if true, the EC config snapshot blob is never read nor written: only the ecConfig table is queried
+     */
+    public void initEcConfigList(boolean readOnly) throws URISyntaxException, InvalidKeyException, StorageException, CanoneUnicoException {
+
+        organizationsList.clear();
+        if (ecConfigCacheTtlSeconds > 0) {
+            // organizations shared with the other invocations of the host, refreshed after the TTL
+            EcConfigCache.Snapshot snapshot = EcConfigCache.getInstance(storageConnectionString, ecConfigTable)
+                    .get(ecConfigCacheTtlSeconds * 1000L, ecConfigCacheFullReloadSeconds * 1000L, this::loadEcConfig, readOnly ? null : this.getEcConfigSnapshotStore());
+            organizationsList.addAll(snapshot.getOrganizations());
+            organizationIndex = snapshot.getOrganizationIndex();
+        } else {
+            organizationsList.addAll(this.loadEcConfig(null));
+            organizationIndex = new OrganizationIndex(organizationsList);
+        }
 
+        if (organizationsList.isEmpty()) {
+            throw new CanoneUnicoException(
+                    "[CuCsvService] Init Ec Config Error: unable to retrieve the ecConfig entities for the PartitionKey: " + EC_CONFIG_TABLE_PARTITION_KEY);
+        }
+
+    }
+
+    // the snapshot is enabled by configuring its container
+    private EcConfigSnapshotStore getEcConfigSnapshotStore() {
+        return ecConfigSnapshotContainer != null
+                ? new EcConfigSnapshotStore(storageConnectionString, ecConfigSnapshotContainer, ecConfigSnapshotBlob, logger)
+                : null;
+    }
+
+    /**
+     * @param modifiedSince if not null, only the organizations with a greater or equal Timestamp are loaded
+     * @return the organizations of the ecConfig table
+     */
+    private List<EcConfigEntity> loadEcConfig(Date modifiedSince) throws URISyntaxException, InvalidKeyException, StorageException {
         AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
         azuriteStorageUtil.createTable(ecConfigTable);
 
@@ -112,21 +232,65 @@ public class CuCsvService {
                 .createCloudTableClient()
                 .getTableReference(ecConfigTable);
 
-        // Iterate through the results and add to list
-        for (EcConfigEntity entity : table.execute(TableQuery.from(EcConfigEntity.class).where((TableQuery.generateFilterCondition("PartitionKey", TableQuery.QueryComparisons.EQUAL, ecConfigTablePartitionKey))))) {
-            organizationsList.add(entity);
+        String filter = TableQuery.generateFilterCondition("PartitionKey", TableQuery.QueryComparisons.EQUAL, EC_CONFIG_TABLE_PARTITION_KEY);
+        if (modifiedSince != null) {
+            filter = TableQuery.combineFilters(filter, TableQuery.Operators.AND,
+                    TableQuery.generateFilterCondition("Timestamp", TableQuery.QueryComparisons.GREATER_THAN_OR_EQUAL, modifiedSince));
         }
 
-        if (organizationsList.isEmpty()) {
-            throw new CanoneUnicoException(
-                    "[CuCsvService] Init Ec Config Error: unable to retrieve the ecConfig entities for the PartitionKey: " + ecConfigTablePartitionKey);
+        // Iterate through the results and add to list
+        List<EcConfigEntity> organizations = new ArrayList<>();
+        for (EcConfigEntity entity : table.execute(TableQuery.from(EcConfigEntity.class).where(filter))) {
+            organizations.add(entity);
         }
+        return organizations;
+    }
+
+    /**
+     * @return the number of invalid rows that stops the validation of a file, 0 to validate every row
+     */
+    public int getValidationMaxInvalidRows() {
+        return validationMaxInvalidRows;
+    }
 
+    /**
+     * @param containerName the corporate container
+     * @return true if the valid rows of a file with invalid rows are persisted anyway, see PARTIAL_ACCEPT_CONTAINERS
+     */
+    public boolean isPartialAccept(String containerName) {
+        return partialAcceptContainers != null && Arrays.stream(partialAcceptContainers.split(","))
+                .map(String::trim)
+                .anyMatch(c -> c.equals(containerName));
+    }
+
+    /**
+     * @return the estimated heap used by the validation of the last parsed file (e.g. the ids already found), in bytes
+     */
+    public long getValidationMemoryUsage() {
+        return validationEngine != null ? validationEngine.memoryUsageBytes() : 0;
     }
 
     public CsvToBean<PaymentNotice> parseCsvToBean(String content) {
+        return this.parseCsvToBean(new StringReader(content));
+    }
+
+    /**
+     * @param reader the CSV content: rows are read and mapped to {@link PaymentNotice} as the reader is consumed,
+     *               so the whole file is never held in memory
+     * @return the CsvToBean to parse, the reflection-free decoder if CSV_DECODER is native
+     * (validating in parallel if VALIDATION_PARALLELISM is greater than 1)
+     */
+    public CsvToBean<PaymentNotice> parseCsvToBean(Reader reader) {
+
+        validationEngine = ValidationEngine.defaultEngine(this.getOrganizationIndex());
+        if (CSV_DECODER_NATIVE.equalsIgnoreCase(csvDecoder) && validationParallelism > 1) {
+            ForkJoinPool pool = VALIDATION_POOLS.computeIfAbsent(validationParallelism, ForkJoinPool::new);
+            return new PaymentNoticeCsvToBean(reader, validationEngine, pool, validationChunkSize);
+        }
+        if (CSV_DECODER_NATIVE.equalsIgnoreCase(csvDecoder)) {
+            return new PaymentNoticeCsvToBean(reader, new PaymentNoticeVerifier(validationEngine));
+        }
 
-        Reader reader = new StringReader(content);
         // Create Mapping Strategy to arrange the column name
         HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy =
                 new HeaderColumnNameMappingStrategy<>();
@@ -137,7 +301,7 @@ public class CuCsvService {
                 .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
                 .withOrderedResults(true)
                 .withMappingStrategy(mappingStrategy)
-                .withVerifier(new PaymentNoticeVerifier(organizationsList))
+                .withVerifier(new PaymentNoticeVerifier(validationEngine))
                 .withType(PaymentNotice.class)
                 .withIgnoreLeadingWhiteSpace(true)
                 .withThrowExceptions(false)
@@ -145,23 +309,66 @@ public class CuCsvService {
     }
 
     public void uploadErrorCsv(String containerName, String filePath, String content) {
+        BlockBlobClient blockBlobClient = this.getErrorBlobClient(containerName, filePath);
+        byte[] bytes = content.getBytes();
+        blockBlobClient.upload(new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    /**
+     * Writes the error report of an invalid file streaming it to the blob, without keeping it in memory.
+     *
+     * @param containerName       the container of the report
+     * @param filePath            the path of the report
+     * @param csvValidationErrors the result of the validation of the file
+     */
+    public void uploadRowsErrorCsv(String containerName, String filePath, DebtPositionValidationCsv csvValidationErrors) throws CanoneUnicoException {
+        BlockBlobClient blockBlobClient = this.getErrorBlobClient(containerName, filePath);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(blockBlobClient.getBlobOutputStream(true), StandardCharsets.UTF_8))) {
+            this.writeRowsErrorCsv(writer, csvValidationErrors);
+        } catch (IOException | UncheckedIOException e) {
+            throw new CanoneUnicoException("[CuCsvService] Unable to write the error file " + filePath, e);
+        }
+    }
+
+    /**
+     * Writes the report of the rows rejected from a file accepted partially, streaming it to the blob.
+     *
+     * @param containerName       the container of the report
+     * @param filePath            the path of the report
+     * @param csvValidationErrors the result of the validation of the file
+     */
+    public void uploadRejectedRowsCsv(String containerName, String filePath, DebtPositionValidationCsv csvValidationErrors) throws CanoneUnicoException {
+        BlockBlobClient blockBlobClient = this.getErrorBlobClient(containerName, filePath);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(blockBlobClient.getBlobOutputStream(true), StandardCharsets.UTF_8))) {
+            this.writeRejectedRowsCsv(writer, csvValidationErrors);
+        } catch (IOException | UncheckedIOException e) {
+            throw new CanoneUnicoException("[CuCsvService] Unable to write the rejected rows file " + filePath, e);
+        }
+    }
+
+    private BlockBlobClient getErrorBlobClient(String containerName, String filePath) {
         AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
         azuriteStorageUtil.createBlob(containerName);
         BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
                 .connectionString(this.storageConnectionString).buildClient();
         BlobContainerClient cont = blobServiceClient.getBlobContainerClient(containerName);
-        BlockBlobClient blockBlobClient = cont.getBlobClient(filePath.replace(".", String.format("%s%s%s", "_", UUID.randomUUID(), "."))).getBlockBlobClient();
-        InputStream stream = new ByteArrayInputStream(content.getBytes());
-        blockBlobClient.upload(stream, content.getBytes().length);
+        return cont.getBlobClient(filePath.replace(".", String.format("%s%s%s", "_", UUID.randomUUID(), "."))).getBlockBlobClient();
     }
 
     public void deleteCsv(String containerName, String filePath) {
+        this.deleteCsv(containerName, filePath, null);
+    }
+
+    /**
+     * @param leaseId the lease held on the blob, null if not leased
+     */
+    public void deleteCsv(String containerName, String filePath, String leaseId) {
         AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
         azuriteStorageUtil.createBlob(containerName);
         BlobServiceClient blobServiceClient = new BlobServiceClientBuilder()
                 .connectionString(this.storageConnectionString).buildClient();
         BlobContainerClient cont = blobServiceClient.getBlobContainerClient(containerName);
-        cont.getBlobClient(filePath).delete();
+        cont.getBlobClient(filePath).deleteWithResponse(null, new BlobRequestConditions().setLeaseId(leaseId), null, Context.NONE);
     }
 
     public List<DebtPositionEntity> saveDebtPosition(String fileKey, List<PaymentNotice> payments) throws CanoneUnicoException {
@@ -185,7 +392,337 @@ public class CuCsvService {
         return savedDebtPositionEntities;
     }
 
+    /**
+     * Saves the debt positions of a valid file in the table and pushes them in the queue as a pipeline:
+     * the calling thread enriches the rows and generates the IUVs, one thread writes the table batches
+     * and one thread pushes every committed batch in the queue, so the GPD work starts with the first batch.
+     * The stages are connected by bounded queues: at most PIPELINE_QUEUE_CAPACITY batches wait between two stages.
+     *
+     * @param fileKey  the key of the file
+     * @param payments the rows of the file
+     * @return true if every batch is saved and pushed
+     */
+    public boolean persistDebtPosition(String fileKey, List<PaymentNotice> payments) throws CanoneUnicoException {
+        return this.persistDebtPosition(fileKey, null, payments);
+    }
+
+    /**
+     * As {@link #persistDebtPosition(String, List)}, recording the batches saved and pushed in a checkpoint:
+     * a retry of the same upload resumes after the pushed batches, the batches only saved are pushed
+     * with the IUVs read from the table and the others are generated and saved again.
+     * <p>
+     * A re-upload of the file persists only its new rows and the rows changed since the previous uploads:
+     * the unchanged rows keep their IUV and status, a changed row keeps the IUV and IUPD of its debt position,
+     * updated in GPD if already created.
+     *
+     * @param fileKey      the key of the file
+     * @param checkpointId the id of the upload (see {@link FileCheckpointService#getCheckpointId}), null to disable the checkpoint
+     * @param payments     the rows of the file
+     * @return true if every batch is saved and pushed
+     */
+    public boolean persistDebtPosition(String fileKey, String checkpointId, List<PaymentNotice> payments) throws CanoneUnicoException {
+        this.logger.log(Level.INFO, () -> "[CuCsvService] save and push debt position for file " + fileKey);
+
+        FileCheckpointService checkpoints = checkpointId != null ? this.getFileCheckpointService() : null;
+        FileCheckpointEntity checkpoint = this.readCheckpoint(checkpoints, fileKey, checkpointId);
+        if (checkpoint != null && Boolean.TRUE.equals(checkpoint.getCompleted())) {
+            logger.log(Level.INFO, () -> String.format("[CuCsvService] [%s] debt positions already persisted", fileKey));
+            return true;
+        }
+        // the rows of the previous uploads: the delta is the same on every attempt of this upload
+        String uploadId = FileCheckpointService.getUploadId(checkpointId);
+        Map<String, DebtPositionEntity> previous = this.getPreviousDebtPositions(fileKey, uploadId);
+        List<PaymentNotice> delta = previous.isEmpty() ? payments : payments.stream()
+                .filter(p -> isChanged(p, previous.get(p.getId())))
+                .collect(Collectors.toList());
+        if (delta.size() < payments.size()) {
+            logger.log(Level.INFO, () -> String.format("[CuCsvService] [%s] re-upload: %s/%s rows new or changed",
+                    fileKey, delta.size(), payments.size()));
+        }
+
+        int pushedBatches = checkpoint != null ? checkpoint.getPushedBatches() : 0;
+        int savedBatches = checkpoint != null ? Math.max(pushedBatches, checkpoint.getSavedBatches()) : 0;
+        if (pushedBatches > 0 || savedBatches > 0) {
+            logger.log(Level.INFO, () -> String.format("[CuCsvService] [%s] resumed: %s batches saved, %s pushed", fileKey, savedBatches, pushedBatches));
+        }
+
+        BlockingQueue<DebtPositionBatch> toSave = new ArrayBlockingQueue<>(pipelineQueueCapacity);
+        BlockingQueue<DebtPositionBatch> toPush = new ArrayBlockingQueue<>(pipelineQueueCapacity);
+        AtomicBoolean isAllPersisted = new AtomicBoolean(true);
+        AtomicInteger pushed = new AtomicInteger();
+        // the checkpoint counts the batches done without gaps from the first one
+        AtomicInteger nextSaved = new AtomicInteger(savedBatches);
+        AtomicInteger nextPushed = new AtomicInteger(pushedBatches);
+        ExecutorService stages = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> saving = stages.submit(() -> this.runStage(toSave, toPush, batch -> {
+                DebtPositionBatch saved = this.saveDebtPositionBatch(fileKey, batch, checkpoint != null);
+                if (saved != null && checkpoint != null && nextSaved.compareAndSet(batch.index, batch.index + 1)) {
+                    this.updateCheckpoint(fileKey, () -> checkpoints.saved(checkpoint, batch.index + 1));
+                }
+                return saved;
+            }, isAllPersisted));
+            Future<?> pushing = stages.submit(() -> this.runStage(toPush, null, batch -> {
+                boolean batchPushed = this.pushDebtPosition(fileKey, batch.entities, previous);
+                pushed.addAndGet(batch.entities.size());
+                if (batchPushed && checkpoint != null && nextPushed.compareAndSet(batch.index, batch.index + 1)) {
+                    this.updateCheckpoint(fileKey, () -> checkpoints.pushed(checkpoint, batch.index + 1));
+                }
+                return batchPushed ? batch : null;
+            }, isAllPersisted));
+
+            try {
+                this.produceDebtPositionBatches(fileKey, uploadId, delta, previous, pushedBatches, savedBatches, toSave);
+            } catch (CanoneUnicoException | RuntimeException e) {
+                // the batches queued are dropped, not saved nor pushed: the checkpoint counts only the batches done
+                // before the failure, so a retry of the upload resumes from there
+                saving.cancel(true);
+                pushing.cancel(true);
+                logger.log(Level.SEVERE, () -> String.format("[CuCsvService] [%s] batches not produced, persisting cancelled: %s", fileKey, e.getMessage()));
+                throw e;
+            }
+            toSave.put(END_OF_BATCHES);
+            saving.get();
+            pushing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CanoneUnicoException("[CuCsvService] Interrupted while persisting the debt positions of the file " + fileKey, e);
+        } catch (ExecutionException e) {
+            throw new CanoneUnicoException("[CuCsvService] Error while persisting the debt positions of the file " + fileKey, e.getCause());
+        } finally {
+            stages.shutdownNow();
+        }
+
+        if (checkpoint != null && isAllPersisted.get()) {
+            this.updateCheckpoint(fileKey, () -> checkpoints.completed(checkpoint));
+        }
+        logger.log(Level.INFO, () -> String.format("[CuCsvService] [%s] %s/%s debt positions pushed, all persisted: %s",
+                fileKey, pushed.get(), delta.size(), isAllPersisted.get()));
+        return isAllPersisted.get();
+    }
+
+    // the checkpoint of the upload, null if disabled or not available
+    private FileCheckpointEntity readCheckpoint(FileCheckpointService checkpoints, String fileKey, String checkpointId) {
+        if (checkpoints == null) {
+            return null;
+        }
+        try {
+            return checkpoints.read(fileKey, checkpointId, batchSizeDebtPosTable);
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            logger.log(Level.WARNING, () -> "[CuCsvService] Checkpoint not available for file " + fileKey + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // a checkpoint not updated only costs the repetition of some batches on a retry
+    private void updateCheckpoint(String fileKey, CheckpointUpdate update) {
+        try {
+            update.run();
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            logger.log(Level.WARNING, () -> "[CuCsvService] Checkpoint not updated for file " + fileKey + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param fileKey  the key of the file
+     * @param uploadId the upload being persisted, its rows are excluded; null to read every row
+     * @return the debt positions of the previous uploads of the file, with their content hash, status, IUV and ETag only, by row id
+     */
+    public Map<String, DebtPositionEntity> getPreviousDebtPositions(String fileKey, String uploadId) throws CanoneUnicoException {
+        try {
+            AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+            azuriteStorageUtil.createTable(debtPositionTable);
+
+            CloudTable table = CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(debtPositionTable);
+
+            // the projection reads only the hash, the upload and the debt position of each row (the ETag is always returned)
+            TableQuery<DebtPositionEntity> query = TableQuery.from(DebtPositionEntity.class)
+                    .where(TableQuery.generateFilterCondition("PartitionKey", TableQuery.QueryComparisons.EQUAL, fileKey))
+                    .select(new String[]{CONTENT_HASH, UPLOAD_ID, STATUS, PA_ID_FISCAL_CODE, PAYMENT_NOTICE_NUMBER, IUPD});
+            Map<String, DebtPositionEntity> previous = new HashMap<>();
+            for (DebtPositionEntity entity : table.execute(query)) {
+                // a row without upload (saved before the delta processing) is compared by its hash only
+                if (uploadId == null || !uploadId.equals(entity.getUploadId())) {
+                    previous.put(entity.getRowKey(), entity);
+                }
+            }
+            return previous;
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            throw new CanoneUnicoException("[CuCsvService] Unable to read the previous debt positions of the file " + fileKey, e);
+        }
+    }
+
+    // a row without a previous debt position is new, a previous debt position without hash is replaced
+    private static boolean isChanged(PaymentNotice p, DebtPositionEntity previous) {
+        return previous == null || !getContentHash(p).equals(previous.getContentHash());
+    }
+
+    // SHA-256 of the fields of the CSV row, e.g. to compare a row with the same row of a previous upload
+    static String getContentHash(PaymentNotice p) {
+        String content = String.join("\u001f", Arrays.asList(p.getId(), p.getPaIdIstat(), p.getPaIdCatasto(), p.getPaIdFiscalCode(),
+                p.getPaIdCBill(), p.getPaPecEmail(), p.getPaReferentEmail(), p.getPaReferentName(), String.valueOf(p.getAmount()),
+                p.getDebtorFiscalCode(), p.getDebtorName(), p.getDebtorEmail(), String.valueOf(p.getPaymentNoticeNumber()), p.getNote())
+                .stream().map(f -> f != null ? f : "").collect(Collectors.toList()));
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required in every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // enrich + IUV stage: the table batches are built as the rows are read, the batches already pushed are skipped
+    private void produceDebtPositionBatches(String fileKey, String uploadId, List<PaymentNotice> payments, Map<String, DebtPositionEntity> previous,
+                                           int pushedBatches, int savedBatches,
+                                           BlockingQueue<DebtPositionBatch> toSave) throws CanoneUnicoException, InterruptedException {
+        int batchCount = (payments.size() + batchSizeDebtPosTable - 1) / batchSizeDebtPosTable;
+        for (int index = pushedBatches; index < batchCount; index++) {
+            List<PaymentNotice> rows = payments.subList(index * batchSizeDebtPosTable, Math.min((index + 1) * batchSizeDebtPosTable, payments.size()));
+            if (index < savedBatches) {
+                // committed by a previous attempt: the entities are read back with their IUVs
+                List<String> ids = rows.stream().map(PaymentNotice::getId).collect(Collectors.toList());
+                toSave.put(new DebtPositionBatch(index, this.getDebtPositionEntityList(fileKey, ids), true));
+            } else {
+                List<DebtPositionEntity> batch = new ArrayList<>(rows.size());
+                for (PaymentNotice p : rows) {
+                    DebtPositionEntity e = this.getDebtPositionEntity(fileKey, p);
+                    e.setUploadId(uploadId);
+                    // a changed row replaces its previous debt position, if not modified in the meantime
+                    Optional.ofNullable(previous.get(p.getId())).ifPresent(old -> this.replaceDebtPosition(fileKey, e, old));
+                    batch.add(e);
+                }
+                // the IUVs of the batch are reserved together, a row keeping its previous IUV excluded
+                this.setIUVs(batch);
+                toSave.put(new DebtPositionBatch(index, batch, false));
+            }
+        }
+    }
+
+    // a changed row keeps the IUV and IUPD of the debt position of the same organization, so that a single notice stays payable
+    private void replaceDebtPosition(String fileKey, DebtPositionEntity e, DebtPositionEntity old) {
+        e.setEtag(old.getEtag());
+        if (old.getPaymentNoticeNumber() == null || Status.SKIPPED.name().equals(e.getStatus())) {
+            return;
+        }
+        if (!Objects.equals(old.getPaIdFiscalCode(), e.getPaIdFiscalCode())) {
+            logger.log(Level.WARNING, () -> String.format("[CuCsvService] [%s] row %s moved to another organization: the debt position %s is not replaced",
+                    fileKey, e.getRowKey(), old.getIupd()));
+            return;
+        }
+        e.setPaymentNoticeNumber(old.getPaymentNoticeNumber());
+        e.setIupd(old.getIupd());
+    }
+
+    // the debt position of a changed row already created in GPD is updated, not created
+    private static boolean isUpdate(DebtPositionEntity e, Map<String, DebtPositionEntity> previous) {
+        DebtPositionEntity old = previous.get(e.getRowKey());
+        return old != null && Status.CREATED.name().equals(old.getStatus()) && old.getIupd() != null && old.getIupd().equals(e.getIupd());
+    }
+
+    // saving stage: returns the batch to push, null if not saved
+    private DebtPositionBatch saveDebtPositionBatch(String fileKey, DebtPositionBatch batch, boolean resumable) throws CanoneUnicoException {
+        if (batch.saved) {
+            return batch;
+        }
+        try {
+            this.addDebtPositionEntityList(batch.entities);
+            return batch;
+        } catch (StorageException e) {
+            if (resumable && (e.getHttpStatusCode() == HttpURLConnection.HTTP_CONFLICT || e.getHttpStatusCode() == HttpURLConnection.HTTP_PRECON_FAILED)) {
+                // committed by a previous attempt after its last checkpoint: the table batch is atomic, every row is there
+                // (a new row is already inserted, a changed row is already replaced), if the rows read back are of this upload
+                List<String> ids = batch.entities.stream().map(DebtPositionEntity::getRowKey).collect(Collectors.toList());
+                List<DebtPositionEntity> stored = this.getDebtPositionEntityList(fileKey, ids);
+                if (!isSameUpload(batch.entities, stored)) {
+                    // e.g. a row of another upload updated in the meantime, or a duplicated id
+                    logger.log(Level.SEVERE, () -> String.format("[CuCsvService] [%s] batch %s not saved: rows of another upload in the table (HTTP %s)",
+                            fileKey, batch.index, e.getHttpStatusCode()));
+                    return null;
+                }
+                logger.log(Level.INFO, () -> String.format("[CuCsvService] [%s] batch %s already saved", fileKey, batch.index));
+                return new DebtPositionBatch(batch.index, stored, true);
+            }
+            logger.log(Level.SEVERE, () -> "[CuCsvService] Exception in add Azure Table Storage batch debt position entities: " + e.getMessage() + " " + e.getCause());
+            return null;
+        } catch (InvalidKeyException | URISyntaxException e) {
+            logger.log(Level.SEVERE, () -> "[CuCsvService] Exception in add Azure Table Storage batch debt position entities: " + e.getMessage() + " " + e.getCause());
+            return null;
+        }
+    }
+
+    // true if every stored row has the upload and the content of the row to save
+    private static boolean isSameUpload(List<DebtPositionEntity> entities, List<DebtPositionEntity> stored) {
+        for (int i = 0; i < entities.size(); i++) {
+            if (!Objects.equals(entities.get(i).getUploadId(), stored.get(i).getUploadId())
+                    || !Objects.equals(entities.get(i).getContentHash(), stored.get(i).getContentHash())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // takes the batches until END_OF_BATCHES, the batches processed successfully are passed to the next stage
+    private Void runStage(BlockingQueue<DebtPositionBatch> input, BlockingQueue<DebtPositionBatch> output,
+                          DebtPositionStage stage, AtomicBoolean isAllPersisted) throws InterruptedException {
+        for (DebtPositionBatch batch = input.take(); batch != END_OF_BATCHES; batch = input.take()) {
+            DebtPositionBatch done;
+            try {
+                done = stage.apply(batch);
+            } catch (CanoneUnicoException | RuntimeException e) {
+                logger.log(Level.SEVERE, () -> "[CuCsvService] Exception in persisting batch debt position entities: " + e.getMessage());
+                done = null;
+            }
+            if (done == null) {
+                isAllPersisted.set(false);
+            } else if (output != null) {
+                output.put(done);
+            }
+        }
+        if (output != null) {
+            output.put(END_OF_BATCHES);
+        }
+        return null;
+    }
+
+    /**
+     * @param fileKey the key of the file
+     * @param ids     the ids of the rows
+     * @return the debt positions saved in the table, in the order of the ids
+     */
+    public List<DebtPositionEntity> getDebtPositionEntityList(String fileKey, List<String> ids) throws CanoneUnicoException {
+        try {
+            CloudTable table = CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(debtPositionTable);
+            List<DebtPositionEntity> entities = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                DebtPositionEntity entity = table.execute(TableOperation.retrieve(fileKey, id, DebtPositionEntity.class)).getResultAsType();
+                if (entity == null) {
+                    throw new CanoneUnicoException("[CuCsvService] Debt position " + id + " of the file " + fileKey + " not found");
+                }
+                entities.add(entity);
+            }
+            return entities;
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            throw new CanoneUnicoException("[CuCsvService] Unable to read the debt positions of the file " + fileKey, e);
+        }
+    }
+
+    // the checkpoint is enabled by configuring its table
+    public FileCheckpointService getFileCheckpointService() {
+        return checkpointsTable != null ? new FileCheckpointService(storageConnectionString, checkpointsTable, logger) : null;
+    }
+
     public boolean pushDebtPosition(String fileKey, List<DebtPositionEntity> debtPositionEntities) {
+        return this.pushDebtPosition(fileKey, debtPositionEntities, Map.of());
+    }
+
+    /**
+     * @param previous the debt positions of the previous uploads of the file, by row id: a row replacing a created one is updated
+     */
+    public boolean pushDebtPosition(String fileKey, List<DebtPositionEntity> debtPositionEntities, Map<String, DebtPositionEntity> previous) {
 
         this.logger.log(Level.INFO, () -> "[CuCsvService] push debt position in queue for file " + fileKey);
 
@@ -195,7 +732,7 @@ public class CuCsvService {
         debtPositionMessage.setCsvFilename(fileKey);
         debtPositionMessage.setRetryCount(0);
 
-        List<List<DebtPositionRowMessage>> msgRows = Lists.partition(this.getDebtPositionQueueMsg(debtPositionEntities), batchSizeDebtPosQueue);
+        List<List<DebtPositionRowMessage>> msgRows = Lists.partition(this.getDebtPositionQueueMsg(debtPositionEntities, previous), batchSizeDebtPosQueue);
 
         // push debt positions partition in queue
         IntStream.range(0, msgRows.size()).forEach(partitionAddIndex -> {
@@ -227,6 +764,24 @@ public class CuCsvService {
         queue.addMessage(new CloudQueueMessage(ObjectMapperUtils.writeValueAsString(msg)));
     }
 
+    /**
+     * Re-queues a blob event of CuCsvParsingFunction, e.g. a file deferred for lack of memory.
+     *
+     * @param event        the EventGrid event
+     * @param delaySeconds the delay before the event is visible again
+     */
+    public void deferBlobEvent(String event, int delaySeconds) throws InvalidKeyException, URISyntaxException, StorageException {
+        AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+        azuriteStorageUtil.createQueue(blobEventsQueue);
+
+        CloudQueue queue = CloudStorageAccount.parse(storageConnectionString).
+                createCloudQueueClient()
+                .getQueueReference(blobEventsQueue);
+
+        // time to live 0: the default of the queue
+        queue.addMessage(new CloudQueueMessage(event), 0, delaySeconds, null, null);
+    }
+
     public void addDebtPositionEntityList(List<DebtPositionEntity> debtPositionEntities) throws InvalidKeyException, URISyntaxException, StorageException {
         AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
         azuriteStorageUtil.createTable(debtPositionTable);
@@ -237,11 +792,119 @@ public class CuCsvService {
 
         TableBatchOperation batchOperation = new TableBatchOperation();
 
-        debtPositionEntities.forEach(batchOperation::insert);
+        // a new row is inserted, a changed row read from the table is replaced only if its ETag matches
+        debtPositionEntities.forEach(e -> {
+            if ("*".equals(e.getEtag())) {
+                batchOperation.insert(e);
+            } else {
+                batchOperation.replace(e);
+            }
+        });
+
+        table.execute(batchOperation);
+    }
+
+    /**
+     * Inserts the IUVs of a partition in a single table batch: the batch fails if an IUV already exists.
+     *
+     * @param iuvEntities at most IUV_BATCH_SIZE IUVs of the same paIdFiscalCode
+     */
+    public void reserveIUVs(List<IuvEntity> iuvEntities) throws InvalidKeyException, URISyntaxException, StorageException {
+        AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+        azuriteStorageUtil.createTable(iuvsTable);
+
+        CloudTable table = CloudStorageAccount.parse(storageConnectionString)
+                .createCloudTableClient()
+                .getTableReference(iuvsTable);
+
+        TableBatchOperation batchOperation = new TableBatchOperation();
+
+        iuvEntities.forEach(batchOperation::insert);
 
         table.execute(batchOperation);
     }
 
+    /**
+     * Deletes the reservation of unused IUVs of a partition, a table batch for each block of IUV_BATCH_SIZE
+     */
+    public void releaseIUVs(String paIdFiscalCode, List<String> iuvs) throws CanoneUnicoException {
+        try {
+            AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+            azuriteStorageUtil.createTable(iuvsTable);
+
+            CloudTable table = CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(iuvsTable);
+
+            for (int from = 0; from < iuvs.size(); from += IUV_BATCH_SIZE) {
+                TableBatchOperation batchOperation = new TableBatchOperation();
+                iuvs.subList(from, Math.min(from + IUV_BATCH_SIZE, iuvs.size()))
+                        .forEach(iuv -> batchOperation.delete(new IuvEntity(paIdFiscalCode, iuv)));
+                table.execute(batchOperation);
+            }
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            throw new CanoneUnicoException("[CuCsvService] Azure Table Storage - table [" + iuvsTable + "]: Unable to release " + iuvs.size() + " IUVs", e);
+        }
+    }
+
+    /**
+     * Clears the pool mark of IUVs taken from a pool, a table batch for each block of IUV_BATCH_SIZE:
+     * the reservations are replaced by unmarked ones, not swept as expired
+     */
+    public void claimIUVs(String paIdFiscalCode, List<String> iuvs) throws CanoneUnicoException {
+        try {
+            AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+            azuriteStorageUtil.createTable(iuvsTable);
+
+            CloudTable table = CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(iuvsTable);
+
+            for (int from = 0; from < iuvs.size(); from += IUV_BATCH_SIZE) {
+                TableBatchOperation batchOperation = new TableBatchOperation();
+                // fails if a reservation was swept in the meantime
+                iuvs.subList(from, Math.min(from + IUV_BATCH_SIZE, iuvs.size()))
+                        .forEach(iuv -> batchOperation.replace(new IuvEntity(paIdFiscalCode, iuv)));
+                table.execute(batchOperation);
+            }
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            throw new CanoneUnicoException("[CuCsvService] Azure Table Storage - table [" + iuvsTable + "]: Unable to claim " + iuvs.size() + " pooled IUVs", e);
+        }
+    }
+
+    /**
+     * Deletes the pooled reservations of a partition made before the given time, i.e. left by a crashed host
+     *
+     * @return the number of reservations deleted
+     */
+    public int releaseExpiredIUVs(String paIdFiscalCode, long reservedBefore) throws CanoneUnicoException {
+        try {
+            AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+            azuriteStorageUtil.createTable(iuvsTable);
+
+            CloudTable table = CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(iuvsTable);
+
+            String partitionFilter = TableQuery.generateFilterCondition("PartitionKey", TableQuery.QueryComparisons.EQUAL, paIdFiscalCode);
+            String expiredFilter = TableQuery.generateFilterCondition("PooledAt", TableQuery.QueryComparisons.LESS_THAN, reservedBefore);
+            List<IuvEntity> expired = new ArrayList<>();
+            table.execute(TableQuery.from(IuvEntity.class)
+                    .where(TableQuery.combineFilters(partitionFilter, TableQuery.Operators.AND, expiredFilter)))
+                    .forEach(expired::add);
+
+            for (int from = 0; from < expired.size(); from += IUV_BATCH_SIZE) {
+                TableBatchOperation batchOperation = new TableBatchOperation();
+                // with the ETag read: a reservation claimed in the meantime is not deleted
+                expired.subList(from, Math.min(from + IUV_BATCH_SIZE, expired.size())).forEach(batchOperation::delete);
+                table.execute(batchOperation);
+            }
+            return expired.size();
+        } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+            throw new CanoneUnicoException("[CuCsvService] Azure Table Storage - table [" + iuvsTable + "]: Unable to release the expired IUVs", e);
+        }
+    }
+
     public void checkIUVExistence(IuvEntity iuvEntity) throws InvalidKeyException, URISyntaxException, StorageException {
         AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
         azuriteStorageUtil.createTable(iuvsTable);
@@ -258,85 +921,136 @@ public class CuCsvService {
     }
 
 
-    public String generateRowsErrorCsv(String converted, DebtPositionValidationCsv csvValidationErrors) {
-
-        StringWriter csv = new StringWriter();
-        String headers = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;pa_id_cbill;pa_pec_mail;pa_referent_email;pa_referent_name;amount;debtor_id_fiscal_code;"
-                                 + "debtor_name;debtor_email;payment_notice_number;note;errors_note";
+    /**
+     * Writes the error report of an invalid file: every row of the file, in the original order,
+     * with the validation errors of the row or N/A.
+     * The rows are taken from the validation result, so the file is not read again.
+     *
+     * @param writer              the destination of the report
+     * @param csvValidationErrors the result of the validation of the file
+     */
+    public void writeRowsErrorCsv(Writer writer, DebtPositionValidationCsv csvValidationErrors) throws IOException {
         String footer = "nLinesError/nTotLines:" + csvValidationErrors.getNumberInvalidRows() + "/" + csvValidationErrors.getTotalNumberRows();
-        csv.append(headers);
-        csv.append(System.lineSeparator());
-
-        try (Reader reader = new StringReader(converted)) {
-            // Create Mapping Strategy to arrange the column name
-            HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy =
-                    new HeaderColumnNameMappingStrategy<>();
-            mappingStrategy.setType(PaymentNotice.class);
-
-            CsvToBean<PaymentNotice> csvToBean = new CsvToBeanBuilder<PaymentNotice>(reader)
-                    .withSeparator(';')
-                    .withOrderedResults(true)
-                    .withMappingStrategy(mappingStrategy)
-                    .withType(PaymentNotice.class)
-                    .build();
-
-            List<PaymentNoticeError> paymentsToWrite = ObjectMapperUtils.mapAll(csvToBean.parse(), PaymentNoticeError.class);
-
-            for (DebtPositionErrorRow e : csvValidationErrors.getErrorRows()) {
-                PaymentNoticeError p = paymentsToWrite.get((int) (e.getRowNumber() - 2));
-                p.setErrorsNote("validation error: " + e.getErrorsDetail());
+        writer.append(ERROR_CSV_HEADER);
+        writer.append(System.lineSeparator());
+
+        int[] columns = getTemplateColumnPositions(csvValidationErrors.getHeader());
+        Deque<DebtPositionErrorRow> errorRows = csvValidationErrors.getErrorRows().stream()
+                .sorted(Comparator.comparingLong(DebtPositionErrorRow::getRowNumber))
+                .collect(Collectors.toCollection(ArrayDeque::new));
+        Iterator<PaymentNotice> payments = csvValidationErrors.getPayments() != null
+                ? csvValidationErrors.getPayments().iterator()
+                : Collections.emptyIterator();
+
+        // the valid rows fill the lines without errors: the first data row is the line 2
+        CSVWriter csvWriter = new CSVWriter(writer, ';', ICSVWriter.DEFAULT_QUOTE_CHARACTER, ICSVWriter.DEFAULT_ESCAPE_CHARACTER, ICSVWriter.DEFAULT_LINE_END);
+        List<DebtPositionErrorRow> withoutLine = new ArrayList<>();
+        while (!errorRows.isEmpty() && errorRows.peekFirst().getRowNumber() < 2) {
+            withoutLine.add(errorRows.pollFirst());
+        }
+        for (long line = 2; payments.hasNext() || !errorRows.isEmpty(); line++) {
+            if (!errorRows.isEmpty() && errorRows.peekFirst().getRowNumber() <= line) {
+                csvWriter.writeNext(toErrorCsvRow(errorRows.pollFirst(), columns));
+            } else if (payments.hasNext()) {
+                csvWriter.writeNext(toErrorCsvRow(payments.next()));
             }
+        }
+        // errors not related to a line, e.g. a missing required column
+        for (DebtPositionErrorRow errorRow : withoutLine) {
+            csvWriter.writeNext(toErrorCsvRow(errorRow, columns));
+        }
+        csvWriter.flush();
 
-            // Create Mapping Strategy to arrange the column name
-            ColumnPositionMappingStrategy<PaymentNoticeError> mappingStrategyWrite =
-                    new ColumnPositionMappingStrategy<>();
-            mappingStrategyWrite.setType(PaymentNoticeError.class);
-
-            StringWriter writer = new StringWriter();
-            StatefulBeanToCsvBuilder<PaymentNoticeError> builder = new StatefulBeanToCsvBuilder<>(writer);
-            StatefulBeanToCsv<PaymentNoticeError> beanWriter = builder
-                    .withSeparator(';')
-                    .withMappingStrategy(mappingStrategyWrite)
-                    .withOrderedResults(true)
-                    .build();
-
-            beanWriter.write(paymentsToWrite);
-            csv.append(writer.toString());
-            csv.append(System.lineSeparator());
-            csv.append(footer);
-            csv.flush();
-            csv.close();
-        } catch (IOException | CsvDataTypeMismatchException | CsvRequiredFieldEmptyException | RuntimeException e) {
-            logger.log(Level.SEVERE, () -> "[CuCsvService generateErrorCsv] Error " + e.getMessage() + " "
-                    + e.getCause());
-
-            csvValidationErrors.getErrorRows().forEach(
-                    exception -> {
-                        csv.append(String.format("{line = %s } - {errors = %s}", exception.getRowNumber() - 1, exception.getErrorsDetail()));
-                        csv.append(System.lineSeparator());
-                    });
-            csv.append(footer);
-            csv.flush();
+        // a file rejected for its header has no row read: the counts are not reported
+        if (!withoutLine.isEmpty() && csvValidationErrors.getTotalNumberRows() == 0) {
+            writer.flush();
+            return;
+        }
+        writer.append(System.lineSeparator());
+        writer.append(footer);
+        if (csvValidationErrors.isInterrupted()) {
+            writer.append(System.lineSeparator());
+            writer.append("validation stopped at " + csvValidationErrors.getNumberInvalidRows() + " invalid rows: the following lines are not validated");
+        }
+        writer.flush();
+    }
 
-            try {
-                csv.close();
-                return csv.toString();
-            } catch (IOException ex) {
-                logger.log(Level.SEVERE, () -> "[CuCsvService generateErrorCsv] Error " + e.getMessage() + " "
-                                                       + e.getCause());
+    /**
+     * Writes the rows rejected from a file accepted partially: only the invalid rows, in the original order,
+     * with their validation errors. There is no footer, so the corrected file can be uploaded again:
+     * the errors_note column is not a template column and is ignored.
+     *
+     * @param writer              the destination of the report
+     * @param csvValidationErrors the result of the validation of the file
+     */
+    public void writeRejectedRowsCsv(Writer writer, DebtPositionValidationCsv csvValidationErrors) throws IOException {
+        writer.append(ERROR_CSV_HEADER);
+        writer.append(System.lineSeparator());
+
+        int[] columns = getTemplateColumnPositions(csvValidationErrors.getHeader());
+        CSVWriter csvWriter = new CSVWriter(writer, ';', ICSVWriter.DEFAULT_QUOTE_CHARACTER, ICSVWriter.DEFAULT_ESCAPE_CHARACTER, ICSVWriter.DEFAULT_LINE_END);
+        csvValidationErrors.getErrorRows().stream()
+                .sorted(Comparator.comparingLong(DebtPositionErrorRow::getRowNumber))
+                .forEach(errorRow -> csvWriter.writeNext(toErrorCsvRow(errorRow, columns)));
+        csvWriter.flush();
+        writer.flush();
+    }
+
+    // position in the file of each template column, -1 if missing
+    private static int[] getTemplateColumnPositions(String[] header) {
+        int[] columns = new int[TEMPLATE_COLUMNS.length];
+        for (int i = 0; i < TEMPLATE_COLUMNS.length; i++) {
+            columns[i] = header == null ? i : -1;
+            for (int j = 0; header != null && j < header.length; j++) {
+                if (header[j] != null && TEMPLATE_COLUMNS[i].equalsIgnoreCase(header[j].trim())) {
+                    columns[i] = j;
+                    break;
+                }
             }
         }
+        return columns;
+    }
+
+    private static String[] toErrorCsvRow(DebtPositionErrorRow errorRow, int[] columns) {
+        String[] row = new String[TEMPLATE_COLUMNS.length + 1];
+        String[] rawLine = errorRow.getRawLine();
+        for (int i = 0; i < TEMPLATE_COLUMNS.length; i++) {
+            row[i] = rawLine != null && columns[i] >= 0 && columns[i] < rawLine.length ? rawLine[columns[i]] : null;
+        }
+        row[TEMPLATE_COLUMNS.length] = "validation error: " + errorRow.getErrorsDetail();
+        return row;
+    }
+
+    private static String[] toErrorCsvRow(PaymentNotice p) {
+        return new String[]{p.getId(), p.getPaIdIstat(), p.getPaIdCatasto(), p.getPaIdFiscalCode(), p.getPaIdCBill(),
+                p.getPaPecEmail(), p.getPaReferentEmail(), p.getPaReferentName(), toErrorCsvField(p.getAmount()),
+                p.getDebtorFiscalCode(), p.getDebtorName(), p.getDebtorEmail(), toErrorCsvField(p.getPaymentNoticeNumber()),
+                p.getNote(), "N/A"};
+    }
 
-        return csv.toString();
+    // an empty numeric field is read as 0: written empty as in the file (0 is neither a valid amount nor a notice number)
+    private static String toErrorCsvField(long value) {
+        return value != 0 ? String.valueOf(value) : null;
     }
 
     public String getValidIUV(String paIdFiscalCode, int segregationCode) throws CanoneUnicoException {
+        IuvSequence sequence = this.getIuvSequence(segregationCode);
+        if (sequence != null) {
+            // unique by construction: not reserved in the table
+            return this.generateSequenceIUV(segregationCode, sequence.next());
+        }
+        IuvSnowflake snowflake = this.getIuvSnowflake();
+        if (snowflake != null && !iuvSnowflakeReserve) {
+            return this.generateSequenceIUV(segregationCode, snowflake.next());
+        }
         final int MAX_RETRY_COUNT = 7;
         int retryCount = 1;
         String iuv = null;
         while (true) {
             try {
-                if (null != iuvGenerationType && iuvGenerationType.equalsIgnoreCase("seq")) {
+                if (snowflake != null) {
+                    iuv = this.generateSequenceIUV(segregationCode, snowflake.next());
+                } else if (null != iuvGenerationType && iuvGenerationType.equalsIgnoreCase("seq")) {
                     iuv = this.generateIncrementalIUV(segregationCode, 0);
                 } else {
                     iuv = this.generateIUV(segregationCode);
@@ -359,6 +1073,116 @@ public class CuCsvService {
         return iuv;
     }
 
+    /**
+     * Generates and reserves the IUVs of a partition in blocks of IUV_BATCH_SIZE, a table batch for each block.
+     * A block fails as a whole: only its colliding IUV, found by the index of the failed operation, is generated again.
+     *
+     * @param paIdFiscalCode  the partition of the IUVs
+     * @param segregationCode the segregation code of the IUVs
+     * @param count           the number of IUVs
+     * @return the reserved IUVs
+     */
+    public List<String> getValidIUVs(String paIdFiscalCode, int segregationCode, int count) throws CanoneUnicoException {
+        return this.getValidIUVs(paIdFiscalCode, segregationCode, count, false);
+    }
+
+    /**
+     * @param pooled true if the IUVs are reserved by a pool: the reservations are marked with their time
+     * @see #getValidIUVs(String, int, int)
+     */
+    public List<String> getValidIUVs(String paIdFiscalCode, int segregationCode, int count, boolean pooled) throws CanoneUnicoException {
+        final int MAX_RETRY_COUNT = 7;
+        List<String> iuvs = new ArrayList<>(count);
+        Long pooledAt = pooled ? System.currentTimeMillis() : null;
+        IuvSequence sequence = this.getIuvSequence(segregationCode);
+        if (sequence != null) {
+            // unique by construction: not reserved in the table
+            for (int i = 0; i < count; i++) {
+                iuvs.add(this.generateSequenceIUV(segregationCode, sequence.next()));
+            }
+            return iuvs;
+        }
+        IuvSnowflake snowflake = this.getIuvSnowflake();
+        if (snowflake != null && !iuvSnowflakeReserve) {
+            for (int i = 0; i < count; i++) {
+                iuvs.add(this.generateSequenceIUV(segregationCode, snowflake.next()));
+            }
+            return iuvs;
+        }
+        while (iuvs.size() < count) {
+            List<String> block = new ArrayList<>(Collections.nCopies(Math.min(IUV_BATCH_SIZE, count - iuvs.size()), null));
+            for (int i = 0; i < block.size(); i++) {
+                this.setUniqueIUV(block, i, segregationCode, snowflake);
+            }
+            int retryCount = 1;
+            while (true) {
+                try {
+                    this.reserveIUVs(block.stream().map(iuv -> {
+                        IuvEntity iuvEntity = new IuvEntity(paIdFiscalCode, iuv);
+                        iuvEntity.setPooledAt(pooledAt);
+                        return iuvEntity;
+                    }).collect(Collectors.toList()));
+                    break;
+                } catch (InvalidKeyException | URISyntaxException | StorageException e) {
+                    if (retryCount > MAX_RETRY_COUNT) {
+                        throw new CanoneUnicoException(
+                                "[CuCsvService] Azure Table Storage - table [" + iuvsTable + "]: Unable to get " + block.size() + " unique IUVs in " + MAX_RETRY_COUNT + " retry",
+                                e);
+                    }
+                    int failed = getFailedOperationIndex(e, block.size());
+                    if (failed >= 0) {
+                        logger.log(Level.WARNING, String.format(
+                                "[CuCsvService] Azure Table Storage - Not unique IUV [%s] in table [%s]: a new one will be generated [retry = %s].",
+                                block.get(failed), iuvsTable, retryCount));
+                        this.setUniqueIUV(block, failed, segregationCode, snowflake);
+                    } else {
+                        // the batch is rejected as a whole, nothing is reserved: the block is tried again
+                        logger.log(Level.WARNING, String.format(
+                                "[CuCsvService] Azure Table Storage - IUV block not reserved in table [%s]: %s [retry = %s].",
+                                iuvsTable, e.getMessage(), retryCount));
+                    }
+                    retryCount++;
+                }
+            }
+            iuvs.addAll(block);
+        }
+        return iuvs;
+    }
+
+    // a new IUV at the given position, different from the others of the block (a batch cannot insert a row twice)
+    private void setUniqueIUV(List<String> block, int index, int segregationCode, IuvSnowflake snowflake) throws CanoneUnicoException {
+        String iuv;
+        do {
+            if (snowflake != null) {
+                // unique within the snowflake IUVs, may collide only with the IUVs generated in another mode
+                iuv = this.generateSequenceIUV(segregationCode, snowflake.next());
+            } else if (null != iuvGenerationType && iuvGenerationType.equalsIgnoreCase("seq")) {
+                // without a stored sequence, the sequence (a timestamp) is moved after the last IUV generated, also of the previous blocks
+                int nextVal = (int) Math.max(0, lastIuvSequence + 1 - System.currentTimeMillis());
+                iuv = this.generateIncrementalIUV(segregationCode, nextVal);
+                lastIuvSequence = NumberUtils.toLong(iuv.substring(2, 15), lastIuvSequence + 1);
+            } else {
+                iuv = this.generateIUV(segregationCode);
+            }
+        } while (block.contains(iuv));
+        block.set(index, iuv);
+    }
+
+    // the error of a failed table batch starts with the index of the failed operation, e.g. "3:The specified entity already exists."
+    private static int getFailedOperationIndex(Exception e, int size) {
+        if (!(e instanceof StorageException) || ((StorageException) e).getHttpStatusCode() != HttpURLConnection.HTTP_CONFLICT) {
+            return -1;
+        }
+        StorageException storageException = (StorageException) e;
+        String message = storageException.getExtendedErrorInformation() != null
+                ? storageException.getExtendedErrorInformation().getErrorMessage()
+                : storageException.getMessage();
+        int separator = message != null ? message.indexOf(':') : -1;
+        int index = separator > 0 ? NumberUtils.toInt(message.substring(0, separator).trim(), -1) : -1;
+        // a single operation batch may report its error without index
+        return index >= 0 && index < size ? index : (size == 1 ? 0 : -1);
+    }
+
     public String generateIUV(int segregationCode) {
         return IuvCodeBusiness.generateIUV(segregationCode);
     }
@@ -367,43 +1191,93 @@ public class CuCsvService {
         return IuvCodeBusiness.generateIUV(segregationCode, nextVal);
     }
 
+    public String generateSequenceIUV(int segregationCode, long sequence) {
+        return IuvCodeBusiness.generateIUVFromSequence(segregationCode, sequence);
+    }
+
+    /**
+     * @return the stored sequence of the seq IUVs, null if IUV_GENERATION_TYPE is not seq or the sequence table is not configured
+     */
+    public IuvSequence getIuvSequence(int segregationCode) {
+        boolean seq = null != iuvGenerationType && iuvGenerationType.equalsIgnoreCase("seq");
+        return seq && iuvSequencesTable != null
+                ? IuvSequence.getInstance(storageConnectionString, iuvSequencesTable, segregationCode, iuvSequenceBlockSize)
+                : null;
+    }
+
+    /**
+     * @return the generator of the snowflake IUVs, null if IUV_GENERATION_TYPE is not snowflake or the workers table is not configured
+     */
+    public IuvSnowflake getIuvSnowflake() {
+        boolean snowflake = null != iuvGenerationType && iuvGenerationType.equalsIgnoreCase("snowflake");
+        return snowflake && iuvWorkersTable != null
+                ? IuvSnowflake.getInstance(storageConnectionString, iuvWorkersTable, iuvWorkerLeaseSeconds)
+                : null;
+    }
+
+    /**
+     * @return the pool of the reserved IUVs of the organization, null if IUV_POOL_LOW_WATERMARK is not set
+     * or the IUVs are unique by construction and not reserved
+     */
+    public IuvPool getIuvPool(String paIdFiscalCode) {
+        if (iuvPoolLowWatermark <= 0 || this.getIuvSequence(segregationCode) != null || (this.getIuvSnowflake() != null && !iuvSnowflakeReserve)) {
+            return null;
+        }
+        return IuvPool.getInstance(paIdFiscalCode, segregationCode, iuvPoolLowWatermark, iuvPoolRefillSize, iuvPoolReservationSeconds,
+                () -> new CuCsvService(storageConnectionString, debtPositionTable, iuvsTable, String.valueOf(segregationCode), logger));
+    }
+
     private List<DebtPositionEntity> getDebtPositionEntities(String fileKey, List<PaymentNotice> payments) throws CanoneUnicoException {
         List<DebtPositionEntity> debtPositionEntities = new ArrayList<>();
         for (PaymentNotice p : payments) {
-            DebtPositionEntity e = new DebtPositionEntity(fileKey, p.getId());
-            e.setPaIdIstat(p.getPaIdIstat());
-            e.setPaIdCatasto(p.getPaIdCatasto());
-            e.setPaIdFiscalCode(p.getPaIdFiscalCode());
-            e.setPaIdCbill(p.getPaIdCBill());
-            e.setPaPecEmail(p.getPaPecEmail());
-            e.setPaReferentName(p.getPaReferentName());
-            e.setPaReferentEmail(p.getPaReferentEmail());
-            e.setDebtorIdFiscalCode(p.getDebtorFiscalCode());
-            e.setNote(p.getNote());
-            e.setDebtorName(p.getDebtorName());
-            e.setDebtorEmail(p.getDebtorEmail());
-            e.setAmount(String.valueOf(p.getAmount()));
-            e.setStatus(Status.INSERTED.name());
-            // enrich entity with info from ec_config
-            this.enrichDebtPositionEntity(e);
-            // generate iuv and iupd if status is not SKIPPED
-            if (!e.getStatus().equals(Status.SKIPPED.name())) {
-                String iuv = this.getValidIUV(e.getPaIdFiscalCode(), segregationCode);
-                e.setPaymentNoticeNumber(iuv);
-                e.setIupd(this.generateIUPD(iuv));
-            }
-
-            debtPositionEntities.add(e);
-
+            debtPositionEntities.add(this.getDebtPositionEntity(fileKey, p));
         }
+        this.setIUVs(debtPositionEntities);
         return debtPositionEntities;
     }
 
+    // generate iuv and iupd if status is not SKIPPED and not already set: the IUVs of each paIdFiscalCode are reserved in blocks
+    private void setIUVs(List<DebtPositionEntity> debtPositionEntities) throws CanoneUnicoException {
+        Map<String, List<DebtPositionEntity>> byPartition = debtPositionEntities.stream()
+                .filter(e -> !e.getStatus().equals(Status.SKIPPED.name()) && e.getPaymentNoticeNumber() == null)
+                .collect(Collectors.groupingBy(DebtPositionEntity::getPaIdFiscalCode, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<String, List<DebtPositionEntity>> partition : byPartition.entrySet()) {
+            IuvPool pool = this.getIuvPool(partition.getKey());
+            List<String> iuvs = pool != null
+                    ? pool.take(partition.getValue().size())
+                    : this.getValidIUVs(partition.getKey(), segregationCode, partition.getValue().size());
+            for (int i = 0; i < iuvs.size(); i++) {
+                DebtPositionEntity e = partition.getValue().get(i);
+                e.setPaymentNoticeNumber(iuvs.get(i));
+                e.setIupd(this.generateIUPD(iuvs.get(i)));
+            }
+        }
+    }
+
+    private DebtPositionEntity getDebtPositionEntity(String fileKey, PaymentNotice p) throws CanoneUnicoException {
+        DebtPositionEntity e = new DebtPositionEntity(fileKey, p.getId());
+        e.setPaIdIstat(p.getPaIdIstat());
+        e.setPaIdCatasto(p.getPaIdCatasto());
+        e.setPaIdFiscalCode(p.getPaIdFiscalCode());
+        e.setPaIdCbill(p.getPaIdCBill());
+        e.setPaPecEmail(p.getPaPecEmail());
+        e.setPaReferentName(p.getPaReferentName());
+        e.setPaReferentEmail(p.getPaReferentEmail());
+        e.setDebtorIdFiscalCode(p.getDebtorFiscalCode());
+        e.setNote(p.getNote());
+        e.setDebtorName(p.getDebtorName());
+        e.setDebtorEmail(p.getDebtorEmail());
+        e.setAmount(String.valueOf(p.getAmount()));
+        e.setContentHash(getContentHash(p));
+        e.setStatus(Status.INSERTED.name());
+        // enrich entity with info from ec_config (the IUV is set by setIUVs)
+        this.enrichDebtPositionEntity(e);
+        return e;
+    }
+
 	private void enrichDebtPositionEntity(DebtPositionEntity e) throws CanoneUnicoException {
 		// get data from ec_config
-        EcConfigEntity ecConfig = organizationsList.stream()
-                .filter(o -> o.getPaIdCatasto().equals(e.getPaIdCatasto()) || o.getPaIdIstat().equals(e.getPaIdIstat()) || o.getRowKey().equals(e.getPaIdFiscalCode()))
-                .findFirst()
+        EcConfigEntity ecConfig = Optional.ofNullable(this.getOrganizationIndex().find(e.getPaIdCatasto(), e.getPaIdIstat(), e.getPaIdFiscalCode()))
                 .orElseThrow(() -> new CanoneUnicoException("[CuCsvService] Enrich Payment Info Error: unable to retrieve the ecConfig entity for paIdCatasto = " + e.getPaIdCatasto() + " or paIdIstat = " + e.getPaIdIstat() + " or paFiscalCode = " + e.getPaIdFiscalCode()));
 
 		// convention: skip if iban not present
@@ -425,7 +1299,15 @@ public class CuCsvService {
 
 	}
 
-    private List<DebtPositionRowMessage> getDebtPositionQueueMsg(List<DebtPositionEntity> debtPositionEntities) {
+    // the index is built by initEcConfigList; built on first use if the organizations were provided otherwise
+    private OrganizationIndex getOrganizationIndex() {
+        if (organizationIndex == null) {
+            organizationIndex = new OrganizationIndex(organizationsList);
+        }
+        return organizationIndex;
+    }
+
+    private List<DebtPositionRowMessage> getDebtPositionQueueMsg(List<DebtPositionEntity> debtPositionEntities, Map<String, DebtPositionEntity> previous) {
         List<DebtPositionRowMessage> debtPositionMsgs = new ArrayList<>();
         for (DebtPositionEntity e : debtPositionEntities) {
             if (!e.getStatus().equals(Status.SKIPPED.name())) {
@@ -440,7 +1322,7 @@ public class CuCsvService {
                 row.setDebtorIdFiscalCode(e.getDebtorIdFiscalCode());
                 row.setCompanyName(e.getCompanyName());
                 row.setIban(e.getIban());
-                row.setRetryAction(RetryStep.NONE.name());
+                row.setRetryAction(isUpdate(e, previous) ? RetryStep.UPDATE.name() : RetryStep.NONE.name());
                 debtPositionMsgs.add(row);
             }
         }
@@ -451,4 +1333,27 @@ public class CuCsvService {
         return "CU_" + CUP_YEAR + "_" + iuv;
     }
 
+    // a table batch of a file, saved if its rows are already in the table
+    private static class DebtPositionBatch {
+        private final int index;
+        private final List<DebtPositionEntity> entities;
+        private final boolean saved;
+
+        private DebtPositionBatch(int index, List<DebtPositionEntity> entities, boolean saved) {
+            this.index = index;
+            this.entities = entities;
+            this.saved = saved;
+        }
+    }
+
+    @FunctionalInterface
+    private interface DebtPositionStage {
+        DebtPositionBatch apply(DebtPositionBatch batch) throws CanoneUnicoException;
+    }
+
+    @FunctionalInterface
+    private interface CheckpointUpdate {
+        void run() throws InvalidKeyException, URISyntaxException, StorageException;
+    }
+
 }
@@ -12,6 +12,7 @@ import com.microsoft.azure.storage.table.TableQuery;
 import it.gov.pagopa.canoneunico.entity.DebtPositionEntity;
 import it.gov.pagopa.canoneunico.entity.Status;
 import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+import it.gov.pagopa.canoneunico.util.CsvCompression;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
@@ -171,7 +172,9 @@ public class DebtPositionService {
                 new BlobServiceClientBuilder().connectionString(this.storageConnectionString).buildClient();
         BlobContainerClient blobContainerClient =
                 blobServiceClient.getBlobContainerClient(containerName);
-        BlobClient blobClient = blobContainerClient.getBlobClient(OUTPUT_DIRECTORY_NAME + '/' + csvFileName.replace(".", String.format("%s%s%s", "_", UUID.randomUUID(), ".")));
+        // the output of a compressed input (.csv.gz, .zip) is a plain CSV
+        String outputFileName = CsvCompression.getCsvName(csvFileName);
+        BlobClient blobClient = blobContainerClient.getBlobClient(OUTPUT_DIRECTORY_NAME + '/' + outputFileName.replace(".", String.format("%s%s%s", "_", UUID.randomUUID(), ".")));
 
         File csvOutputFile = new File(csvFileName);
 
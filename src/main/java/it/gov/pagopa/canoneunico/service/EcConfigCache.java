@@ -0,0 +1,227 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.microsoft.azure.storage.StorageException;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.model.OrganizationIndex;
+
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Process-wide cache of the EC config organizations, shared by the function invocations running in the same host.
+ * After the TTL the cache is refreshed loading only the organizations modified since the last load;
+ * a full reload is performed periodically to drop the deleted organizations.
+ * Concurrent invocations wait for the same refresh instead of querying the table each one.
+ */
+public class EcConfigCache {
+
+    private static final Map<String, EcConfigCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+    private volatile Snapshot snapshot;
+
+    EcConfigCache(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return the cache of the given EC config table
+     */
+    public static EcConfigCache getInstance(String storageConnectionString, String ecConfigTable) {
+        return INSTANCES.computeIfAbsent(storageConnectionString + '|' + ecConfigTable, k -> new EcConfigCache(System::currentTimeMillis));
+    }
+
+    public Snapshot get(long ttlMillis, long fullReloadMillis, EcConfigLoader loader) throws URISyntaxException, InvalidKeyException, StorageException {
+        return this.get(ttlMillis, fullReloadMillis, loader, null);
+    }
+
+    /**
+     * @param ttlMillis        max age of the cached organizations
+     * @param fullReloadMillis max age of the last full load: after it the incremental refresh is replaced by a full one
+     * @param loader           loads the organizations modified since the given date, all the organizations if null
+     * @param snapshotStore    if not null, a cold cache starts from the stored snapshot, which is rewritten when the organizations change
+     * @return the cached organizations, refreshed if older than the TTL
+     */
+    public Snapshot get(long ttlMillis, long fullReloadMillis, EcConfigLoader loader, SnapshotStore snapshotStore) throws URISyntaxException, InvalidKeyException, StorageException {
+        Snapshot current = snapshot;
+        if (current != null && clock.getAsLong() - current.getRefreshedAt() < ttlMillis) {
+            return current;
+        }
+        synchronized (this) {
+            // another invocation may have refreshed the cache while waiting
+            current = snapshot;
+            long now = clock.getAsLong();
+            if (current != null && now - current.getRefreshedAt() < ttlMillis) {
+                return current;
+            }
+            if (current == null && snapshotStore != null) {
+                // cold start: one GET of the snapshot, then only the changes made after it are loaded from the table
+                current = snapshotStore.read();
+            }
+            Snapshot refreshed = (current == null || now - current.getFullLoadedAt() >= fullReloadMillis)
+                    ? fullLoad(current, loader, now)
+                    : incrementalLoad(current, loader, now);
+            // an empty configuration is not cached: the next invocation retries
+            if (refreshed.getOrganizations().isEmpty()) {
+                return refreshed;
+            }
+            // the snapshot is rewritten when the organizations change or after a full load
+            if (snapshotStore != null && (current == null || refreshed.organizationsByFiscalCode != current.organizationsByFiscalCode
+                    || refreshed.getFullLoadedAt() != current.getFullLoadedAt())) {
+                refreshed = refreshed.withVersion(snapshotStore.write(refreshed, current != null ? current.getVersion() : null));
+            }
+            snapshot = refreshed;
+            return refreshed;
+        }
+    }
+
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot fullLoad(Snapshot current, EcConfigLoader loader, long now) throws URISyntaxException, InvalidKeyException, StorageException {
+        Map<String, EcConfigEntity> organizations = new LinkedHashMap<>();
+        Date lastModified = merge(organizations, loader.load(null), null);
+        if (current != null && sameContent(current.organizationsByFiscalCode, organizations)) {
+            return current.refreshed(now, now);
+        }
+        return new Snapshot(organizations, lastModified, now, now);
+    }
+
+    private Snapshot incrementalLoad(Snapshot current, EcConfigLoader loader, long now) throws URISyntaxException, InvalidKeyException, StorageException {
+        // the query includes the entities with the last timestamp already loaded: skip the unchanged ones
+        List<EcConfigEntity> modified = loader.load(current.getLastModified()).stream()
+                .filter(e -> !isUnchanged(current.organizationsByFiscalCode.get(e.getRowKey()), e))
+                .collect(Collectors.toList());
+        if (modified.isEmpty()) {
+            return current.refreshed(now, current.getFullLoadedAt());
+        }
+        Map<String, EcConfigEntity> organizations = new LinkedHashMap<>(current.organizationsByFiscalCode);
+        Date lastModified = merge(organizations, modified, current.getLastModified());
+        return new Snapshot(organizations, lastModified, now, current.getFullLoadedAt());
+    }
+
+    // add or replace the organizations by fiscal code and return the most recent timestamp
+    private static Date merge(Map<String, EcConfigEntity> organizations, List<EcConfigEntity> entities, Date lastModified) {
+        for (EcConfigEntity entity : entities) {
+            organizations.put(entity.getRowKey(), entity);
+            if (entity.getTimestamp() != null && (lastModified == null || entity.getTimestamp().after(lastModified))) {
+                lastModified = entity.getTimestamp();
+            }
+        }
+        return lastModified;
+    }
+
+    private static boolean isUnchanged(EcConfigEntity cached, EcConfigEntity loaded) {
+        return cached != null && Objects.equals(cached.getTimestamp(), loaded.getTimestamp());
+    }
+
+    private static boolean sameContent(Map<String, EcConfigEntity> cached, Map<String, EcConfigEntity> loaded) {
+        return cached.size() == loaded.size()
+                && loaded.values().stream().allMatch(e -> isUnchanged(cached.get(e.getRowKey()), e));
+    }
+
+    @FunctionalInterface
+    public interface EcConfigLoader {
+        List<EcConfigEntity> load(Date modifiedSince) throws URISyntaxException, InvalidKeyException, StorageException;
+    }
+
+    /**
+     * Persistent image of the cache, loaded with a single request by a cold instance.
+     */
+    public interface SnapshotStore {
+        /**
+         * @return the stored snapshot, null if missing or not readable
+         */
+        Snapshot read();
+
+        /**
+         * @param snapshot the snapshot to store
+         * @param version  the version of the stored snapshot the given one derives from, null if unknown
+         * @return the version of the stored snapshot, null if not stored
+         */
+        String write(Snapshot snapshot, String version);
+    }
+
+    /**
+     * Immutable view of the cached organizations with their index.
+     */
+    public static class Snapshot {
+        private final Map<String, EcConfigEntity> organizationsByFiscalCode;
+        private final List<EcConfigEntity> organizations;
+        private final OrganizationIndex organizationIndex;
+        private final Date lastModified;
+        private final long refreshedAt;
+        private final long fullLoadedAt;
+        private final String version;
+
+        Snapshot(Map<String, EcConfigEntity> organizationsByFiscalCode, Date lastModified, long refreshedAt, long fullLoadedAt) {
+            this(organizationsByFiscalCode, lastModified, refreshedAt, fullLoadedAt, null);
+        }
+
+        Snapshot(Map<String, EcConfigEntity> organizationsByFiscalCode, Date lastModified, long refreshedAt, long fullLoadedAt, String version) {
+            this.organizationsByFiscalCode = organizationsByFiscalCode;
+            this.organizations = Collections.unmodifiableList(new ArrayList<>(organizationsByFiscalCode.values()));
+            this.organizationIndex = new OrganizationIndex(organizations);
+            this.lastModified = lastModified;
+            this.refreshedAt = refreshedAt;
+            this.fullLoadedAt = fullLoadedAt;
+            this.version = version;
+        }
+
+        private Snapshot(Snapshot other, long refreshedAt, long fullLoadedAt, String version) {
+            this.organizationsByFiscalCode = other.organizationsByFiscalCode;
+            this.organizations = other.organizations;
+            this.organizationIndex = other.organizationIndex;
+            this.lastModified = other.lastModified;
+            this.refreshedAt = refreshedAt;
+            this.fullLoadedAt = fullLoadedAt;
+            this.version = version;
+        }
+
+        Snapshot refreshed(long now, long fullLoadedAt) {
+            return new Snapshot(this, now, fullLoadedAt, version);
+        }
+
+        Snapshot withVersion(String version) {
+            return new Snapshot(this, refreshedAt, fullLoadedAt, version);
+        }
+
+        public List<EcConfigEntity> getOrganizations() {
+            return organizations;
+        }
+
+        public OrganizationIndex getOrganizationIndex() {
+            return organizationIndex;
+        }
+
+        public Date getLastModified() {
+            return lastModified;
+        }
+
+        public long getRefreshedAt() {
+            return refreshedAt;
+        }
+
+        public long getFullLoadedAt() {
+            return fullLoadedAt;
+        }
+
+        /**
+         * @return the version of the stored snapshot matching this one, null if not stored
+         */
+        public String getVersion() {
+            return version;
+        }
+    }
+}
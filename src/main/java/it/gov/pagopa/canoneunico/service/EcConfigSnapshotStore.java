@@ -0,0 +1,199 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.BlobDownloadContentResponse;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores the EC config cache as a single compact blob, so that a cold instance loads every organization with one GET.
+ * The ecConfig table stays the source of truth: the snapshot records the last Timestamp it contains
+ * and the organizations modified later are loaded from the table.
+ * <p>
+ * Format (gzip): magic, format version, full load time, last Timestamp, count, then the fields of each organization.
+ */
+public class EcConfigSnapshotStore implements EcConfigCache.SnapshotStore {
+
+    private static final int MAGIC = 0x43554543; // "CUEC"
+    private static final short FORMAT_VERSION = 1;
+    private static final long NO_DATE = -1;
+
+    private final String storageConnectionString;
+    private final String containerName;
+    private final String blobName;
+    private final Logger logger;
+    // the version of a stored snapshot the cache does not derive from, replaced by the next write:
+    // not readable (e.g. of another format) or written by another instance in the meantime
+    private volatile String storedVersion;
+
+    public EcConfigSnapshotStore(String storageConnectionString, String containerName, String blobName, Logger logger) {
+        this.storageConnectionString = storageConnectionString;
+        this.containerName = containerName;
+        this.blobName = blobName;
+        this.logger = logger;
+    }
+
+    @Override
+    public EcConfigCache.Snapshot read() {
+        BlobDownloadContentResponse response;
+        try {
+            response = getBlobClient().downloadContentWithResponse(null, null, null, Context.NONE);
+        } catch (BlobStorageException e) {
+            if (e.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                logger.log(Level.WARNING, () -> "[EcConfigSnapshotStore] unable to read the snapshot: " + e.getMessage());
+            }
+            return null;
+        }
+        try {
+            EcConfigCache.Snapshot snapshot = decode(response.getValue().toStream(), response.getDeserializedHeaders().getETag());
+            logger.log(Level.INFO, () -> String.format("[EcConfigSnapshotStore] loaded %s organizations from snapshot %s", snapshot.getOrganizations().size(), blobName));
+            return snapshot;
+        } catch (IOException e) {
+            storedVersion = response.getDeserializedHeaders().getETag();
+            logger.log(Level.WARNING, () -> "[EcConfigSnapshotStore] snapshot not readable: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public String write(EcConfigCache.Snapshot snapshot, String version) {
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            encode(snapshot, content);
+
+            // do not overwrite a snapshot written in the meantime by another instance:
+            // without a known version, the snapshot is only created
+            BlobParallelUploadOptions options = new BlobParallelUploadOptions(BinaryData.fromBytes(content.toByteArray()));
+            String replaced = version != null ? version : storedVersion;
+            options.setRequestConditions(replaced != null
+                    ? new BlobRequestConditions().setIfMatch(replaced)
+                    : new BlobRequestConditions().setIfNoneMatch("*"));
+            String etag = getBlobClient().uploadWithResponse(options, null, Context.NONE).getValue().getETag();
+            storedVersion = null;
+            logger.log(Level.INFO, () -> String.format("[EcConfigSnapshotStore] written snapshot %s of %s bytes", blobName, content.size()));
+            return etag;
+        } catch (BlobStorageException e) {
+            logger.log(Level.WARNING, () -> "[EcConfigSnapshotStore] snapshot not written: " + e.getMessage());
+            if (e.getStatusCode() == HttpURLConnection.HTTP_PRECON_FAILED || e.getStatusCode() == HttpURLConnection.HTTP_CONFLICT) {
+                // written by another instance: the version is reloaded, so that the next change is written again
+                storedVersion = this.readVersion();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, () -> "[EcConfigSnapshotStore] unable to encode the snapshot: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // the version of the stored snapshot, null if not available
+    private String readVersion() {
+        try {
+            return getBlobClient().getProperties().getETag();
+        } catch (BlobStorageException e) {
+            logger.log(Level.WARNING, () -> "[EcConfigSnapshotStore] unable to read the snapshot version: " + e.getMessage());
+            return null;
+        }
+    }
+
+    static void encode(EcConfigCache.Snapshot snapshot, OutputStream out) throws IOException {
+        try (DataOutputStream data = new DataOutputStream(new GZIPOutputStream(out))) {
+            data.writeInt(MAGIC);
+            data.writeShort(FORMAT_VERSION);
+            data.writeLong(snapshot.getFullLoadedAt());
+            writeDate(data, snapshot.getLastModified());
+            data.writeInt(snapshot.getOrganizations().size());
+            for (EcConfigEntity ec : snapshot.getOrganizations()) {
+                writeString(data, ec.getRowKey());
+                writeString(data, ec.getPaIdIstat());
+                writeString(data, ec.getPaIdCatasto());
+                writeString(data, ec.getPaIdCbill());
+                writeString(data, ec.getPaPecEmail());
+                writeString(data, ec.getPaReferentEmail());
+                writeString(data, ec.getPaReferentName());
+                writeString(data, ec.getCompanyName());
+                writeString(data, ec.getIban());
+                writeDate(data, ec.getTimestamp());
+            }
+        }
+    }
+
+    static EcConfigCache.Snapshot decode(InputStream in, String version) throws IOException {
+        try (DataInputStream data = new DataInputStream(new GZIPInputStream(in))) {
+            if (data.readInt() != MAGIC) {
+                throw new IOException("not an ec config snapshot");
+            }
+            short formatVersion = data.readShort();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("unsupported snapshot format version " + formatVersion);
+            }
+            long fullLoadedAt = data.readLong();
+            Date lastModified = readDate(data);
+            int count = data.readInt();
+
+            Map<String, EcConfigEntity> organizations = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                EcConfigEntity ec = new EcConfigEntity(readString(data));
+                ec.setPaIdIstat(readString(data));
+                ec.setPaIdCatasto(readString(data));
+                ec.setPaIdCbill(readString(data));
+                ec.setPaPecEmail(readString(data));
+                ec.setPaReferentEmail(readString(data));
+                ec.setPaReferentName(readString(data));
+                ec.setCompanyName(readString(data));
+                ec.setIban(readString(data));
+                ec.setTimestamp(readDate(data));
+                organizations.put(ec.getRowKey(), ec);
+            }
+            // never refreshed: the changes made after the snapshot are loaded before use
+            return new EcConfigCache.Snapshot(organizations, lastModified, 0, fullLoadedAt, version);
+        }
+    }
+
+    private BlobClient getBlobClient() {
+        new AzuriteStorageUtil().createBlob(containerName);
+        return new BlobServiceClientBuilder().connectionString(storageConnectionString).buildClient()
+                .getBlobContainerClient(containerName)
+                .getBlobClient(blobName);
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutputStream data, Date value) throws IOException {
+        data.writeLong(value != null ? value.getTime() : NO_DATE);
+    }
+
+    private static Date readDate(DataInputStream data) throws IOException {
+        long value = data.readLong();
+        return value != NO_DATE ? new Date(value) : null;
+    }
+}
@@ -0,0 +1,109 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.table.CloudTable;
+import com.microsoft.azure.storage.table.DynamicTableEntity;
+import com.microsoft.azure.storage.table.EntityProperty;
+import com.microsoft.azure.storage.table.TableOperation;
+import it.gov.pagopa.canoneunico.entity.FileCheckpointEntity;
+import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the progress of the persistence of a file: the table batches committed and pushed in the queue,
+ * counted from the first batch of the file. An invocation retried after a crash resumes after them.
+ * The two counters are merged separately, so the saving and the pushing stages update them independently.
+ */
+public class FileCheckpointService {
+
+    private static final String SAVED_BATCHES = "SavedBatches";
+    private static final String PUSHED_BATCHES = "PushedBatches";
+    private static final String COMPLETED = "Completed";
+
+    private final String storageConnectionString;
+    private final String checkpointsTable;
+    private final Logger logger;
+
+    public FileCheckpointService(String storageConnectionString, String checkpointsTable, Logger logger) {
+        this.storageConnectionString = storageConnectionString;
+        this.checkpointsTable = checkpointsTable;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the checkpoint of the file, a new one if the file has never been persisted
+     * or it was persisted with a different table batch size
+     */
+    public FileCheckpointEntity read(String fileKey, String checkpointId, int batchSize) throws URISyntaxException, InvalidKeyException, StorageException {
+        FileCheckpointEntity checkpoint = this.getTable()
+                .execute(TableOperation.retrieve(fileKey, checkpointId, FileCheckpointEntity.class))
+                .getResultAsType();
+        if (checkpoint != null && checkpoint.getBatchSize() != null && checkpoint.getBatchSize() == batchSize) {
+            return checkpoint;
+        }
+        if (checkpoint != null) {
+            logger.log(Level.WARNING, () -> String.format("[FileCheckpointService] [%s] checkpoint of batch size %s ignored", fileKey, checkpoint.getBatchSize()));
+        }
+
+        FileCheckpointEntity created = new FileCheckpointEntity(fileKey, checkpointId);
+        created.setBatchSize(batchSize);
+        created.setSavedBatches(0);
+        created.setPushedBatches(0);
+        created.setCompleted(false);
+        this.getTable().execute(TableOperation.insertOrReplace(created));
+        return created;
+    }
+
+    public void saved(FileCheckpointEntity checkpoint, int savedBatches) throws URISyntaxException, InvalidKeyException, StorageException {
+        this.merge(checkpoint, SAVED_BATCHES, new EntityProperty(savedBatches));
+    }
+
+    public void pushed(FileCheckpointEntity checkpoint, int pushedBatches) throws URISyntaxException, InvalidKeyException, StorageException {
+        this.merge(checkpoint, PUSHED_BATCHES, new EntityProperty(pushedBatches));
+    }
+
+    public void completed(FileCheckpointEntity checkpoint) throws URISyntaxException, InvalidKeyException, StorageException {
+        this.merge(checkpoint, COMPLETED, new EntityProperty(true));
+    }
+
+    // e.g. ETag "0x8D9" of the segment 3 -> 0x8D9_00003 (the ETag identifies the upload)
+    public static String getCheckpointId(String etag, Integer segmentIndex) {
+        if (etag == null) {
+            return null;
+        }
+        String id = etag.replace("\"", "");
+        return segmentIndex != null ? String.format("%s_%05d", id, segmentIndex) : id;
+    }
+
+    // e.g. 0x8D9_00003 -> 0x8D9: the upload of a segment checkpoint
+    public static String getUploadId(String checkpointId) {
+        if (checkpointId == null) {
+            return null;
+        }
+        int segment = checkpointId.indexOf('_');
+        return segment >= 0 ? checkpointId.substring(0, segment) : checkpointId;
+    }
+
+    // only the given property is written: the other counter is not overwritten
+    private void merge(FileCheckpointEntity checkpoint, String name, EntityProperty value) throws URISyntaxException, InvalidKeyException, StorageException {
+        HashMap<String, EntityProperty> properties = new HashMap<>();
+        properties.put(name, value);
+        DynamicTableEntity entity = new DynamicTableEntity(checkpoint.getPartitionKey(), checkpoint.getRowKey(), properties);
+        this.getTable().execute(TableOperation.insertOrMerge(entity));
+    }
+
+    private CloudTable getTable() throws URISyntaxException, InvalidKeyException, StorageException {
+        AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+        azuriteStorageUtil.createTable(checkpointsTable);
+
+        return CloudStorageAccount.parse(storageConnectionString)
+                .createCloudTableClient()
+                .getTableReference(checkpointsTable);
+    }
+}
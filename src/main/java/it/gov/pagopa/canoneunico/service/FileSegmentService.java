@@ -0,0 +1,364 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.queue.CloudQueue;
+import com.microsoft.azure.storage.queue.CloudQueueMessage;
+import com.microsoft.azure.storage.table.CloudTable;
+import com.microsoft.azure.storage.table.TableOperation;
+import com.microsoft.azure.storage.table.TableQuery;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import it.gov.pagopa.canoneunico.csv.validaton.UniqueIdSet;
+import it.gov.pagopa.canoneunico.entity.FileSegmentEntity;
+import it.gov.pagopa.canoneunico.entity.SegmentStatus;
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+import it.gov.pagopa.canoneunico.model.BlobInfo;
+import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.FileSegmentMessage;
+import it.gov.pagopa.canoneunico.model.SegmentPhase;
+import it.gov.pagopa.canoneunico.model.error.DebtPositionErrorRow;
+import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+import it.gov.pagopa.canoneunico.util.ObjectMapperUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits a large CSV blob in row-aligned byte ranges processed in parallel by {@link it.gov.pagopa.canoneunico.functions.CuCsvSegmentParsing}
+ * and keeps track of the segments outcome to finalize the file once every segment is done.
+ */
+public class FileSegmentService {
+
+    // bytes read around a nominal boundary to find the end of the row
+    private static final int ROW_LOOKAHEAD = 64 * 1024;
+    // a quoted field may contain new lines: the boundary found in the lookahead window may be in the middle of a row
+    static final long QUOTED_ROW = -2;
+    // same quote and escape characters of the CSV parser
+    private static final int QUOTE = '"';
+    private static final int ESCAPE = '\\';
+    private static final int SEPARATOR = ';';
+    private static final String FINALIZED_ID = "FINALIZED";
+    private static final String ID_COLUMN = "id";
+
+    private boolean debugAzurite = Boolean.parseBoolean(System.getenv("DEBUG_AZURITE"));
+    private String storageConnectionString = System.getenv("CU_SA_CONNECTION_STRING");
+    private String segmentsQueue = System.getenv("FILE_SEGMENTS_QUEUE");
+    private String segmentsTable = System.getenv("FILE_SEGMENTS_TABLE");
+    private long segmentSize = System.getenv("FILE_SEGMENT_SIZE") != null ? NumberUtils.toLong(System.getenv("FILE_SEGMENT_SIZE")) : 50_000_000L;
+
+    private final Logger logger;
+
+    public FileSegmentService(Logger logger) {
+        this.logger = logger;
+    }
+
+    public FileSegmentService(String storageConnectionString, String segmentsQueue, String segmentsTable, long segmentSize, boolean debugAzurite, Logger logger) {
+        this.storageConnectionString = storageConnectionString;
+        this.segmentsQueue = segmentsQueue;
+        this.segmentsTable = segmentsTable;
+        this.segmentSize = segmentSize;
+        this.debugAzurite = debugAzurite;
+        this.logger = logger;
+    }
+
+    /**
+     * @param blobInfo the blob to split
+     * @return the segments of the blob: every segment starts at the beginning of a row and ends after a new line
+     */
+    public List<FileSegmentMessage> split(BlobInfo blobInfo) throws CanoneUnicoException, IOException {
+        String blobPath = blobInfo.getDirectory() + '/' + blobInfo.getName();
+        long contentLength = blobInfo.getContentLength();
+        String header = this.readHeader(blobInfo.getContainer(), blobPath, contentLength, blobInfo.getEtag());
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        for (long nominal = segmentSize; nominal < contentLength; nominal += segmentSize) {
+            long boundary = this.findRowBoundary(blobInfo.getContainer(), blobPath, nominal, contentLength, blobInfo.getEtag());
+            if (boundary == QUOTED_ROW) {
+                // a new line near a quote may be inside a field: the quotes are tracked from the previous boundary, a known row start
+                boundary = this.scanRowBoundary(blobInfo.getContainer(), blobPath, boundaries.get(boundaries.size() - 1), nominal, contentLength, blobInfo.getEtag());
+            }
+            if (boundary > boundaries.get(boundaries.size() - 1) && boundary < contentLength) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(contentLength);
+
+        List<FileSegmentMessage> segments = new ArrayList<>();
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            segments.add(FileSegmentMessage.builder()
+                    .container(blobInfo.getContainer())
+                    .directory(blobInfo.getDirectory())
+                    .name(blobInfo.getName())
+                    .etag(blobInfo.getEtag())
+                    .segmentIndex(i)
+                    .segmentCount(boundaries.size() - 1)
+                    .offset(boundaries.get(i))
+                    .length(boundaries.get(i + 1) - boundaries.get(i))
+                    .header(header)
+                    .phase(SegmentPhase.VALIDATE.name())
+                    .build());
+        }
+        logger.log(Level.INFO, () -> String.format("[FileSegmentService] file %s of %s bytes split in %s segments", blobPath, contentLength, segments.size()));
+        return segments;
+    }
+
+    public void enqueueSegments(List<FileSegmentMessage> segments) throws URISyntaxException, InvalidKeyException, StorageException, JsonProcessingException {
+        AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil(debugAzurite, storageConnectionString);
+        azuriteStorageUtil.createQueue(segmentsQueue);
+
+        CloudQueue queue = CloudStorageAccount.parse(storageConnectionString)
+                .createCloudQueueClient()
+                .getQueueReference(segmentsQueue);
+
+        for (FileSegmentMessage segment : segments) {
+            queue.addMessage(new CloudQueueMessage(ObjectMapperUtils.writeValueAsString(segment)));
+        }
+    }
+
+    /**
+     * @param segment the segment to read
+     * @return a UTF-8 reader over the segment rows, preceded by the CSV header
+     */
+    public Reader openSegmentReader(FileSegmentMessage segment) throws CanoneUnicoException {
+        InputStream content = new AzuriteStorageUtil(debugAzurite, storageConnectionString).openBlobInputStream(
+                segment.getContainer(), segment.getDirectory() + '/' + segment.getName(), segment.getOffset(), segment.getLength(), segment.getEtag());
+        if (segment.getSegmentIndex() > 0) {
+            byte[] header = (segment.getHeader() + "\n").getBytes(StandardCharsets.UTF_8);
+            content = new SequenceInputStream(new ByteArrayInputStream(header), content);
+        }
+        return new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The ids are unique in each segment, as checked by its validation: the ids are checked again across the segments of the file.
+     *
+     * @param segments the segments of the file, in their order
+     * @return the rows whose id is found in a previous segment, numbered by their line in the file
+     */
+    public List<DebtPositionErrorRow> findDuplicatedIds(List<FileSegmentMessage> segments) throws CanoneUnicoException, IOException {
+        UniqueIdSet fileIds = new UniqueIdSet();
+        List<DebtPositionErrorRow> duplicated = new ArrayList<>();
+        long lineOffset = 0;
+        for (FileSegmentMessage segment : segments) {
+            try (Reader content = this.openSegmentReader(segment)) {
+                // every segment starts with a header line: the own one of the first, a copy for the others
+                lineOffset += collectDuplicatedIds(content, fileIds, lineOffset, duplicated) - 1;
+            }
+        }
+        logger.log(Level.INFO, () -> String.format("[FileSegmentService] %s ids duplicated across the segments", duplicated.size()));
+        return duplicated;
+    }
+
+    /**
+     * @param content    the rows of a segment, preceded by the header
+     * @param fileIds    the ids of the previous segments, the ids of the segment are added
+     * @param lineOffset the lines of the file before the segment, header excluded
+     * @param duplicated the rows with an id of a previous segment, the ones of the segment are added
+     * @return the lines read, header included
+     */
+    static long collectDuplicatedIds(Reader content, UniqueIdSet fileIds, long lineOffset, List<DebtPositionErrorRow> duplicated) throws CanoneUnicoException, IOException {
+        CSVReader reader = new CSVReaderBuilder(content).withCSVParser(new CSVParserBuilder().withSeparator(';').build()).build();
+        try {
+            int idColumn = getIdColumn(reader.readNext());
+            UniqueIdSet segmentIds = new UniqueIdSet();
+            String[] row;
+            while (idColumn >= 0 && (row = reader.readNext()) != null) {
+                String id = idColumn < row.length ? row[idColumn].trim() : "";
+                // a duplicate in the same segment is already reported by its validation
+                if (!id.isEmpty() && segmentIds.add(id) && !fileIds.add(id)) {
+                    DebtPositionErrorRow errorRow = new DebtPositionErrorRow();
+                    errorRow.setRowNumber(lineOffset + reader.getLinesRead());
+                    errorRow.getErrorsDetail().add("Duplicated ID '" + id + "' found.");
+                    errorRow.setRawLine(row);
+                    duplicated.add(errorRow);
+                }
+            }
+            return reader.getLinesRead();
+        } catch (CsvValidationException e) {
+            throw new CanoneUnicoException("[FileSegmentService] Unable to read the ids of the segment", e);
+        }
+    }
+
+    // position of the id column in the header, -1 if missing
+    private static int getIdColumn(String[] header) {
+        for (int i = 0; header != null && i < header.length; i++) {
+            if (ID_COLUMN.equalsIgnoreCase(header[i].trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void saveResult(FileSegmentMessage segment, SegmentStatus status, DebtPositionValidationCsv validation) throws URISyntaxException, InvalidKeyException, StorageException {
+        FileSegmentEntity entity = new FileSegmentEntity(getFileKey(segment), segment.getPhase(), String.format("%05d", segment.getSegmentIndex()));
+        entity.setStatus(status.name());
+        entity.setSegmentIndex(segment.getSegmentIndex());
+        entity.setOffset(segment.getOffset());
+        entity.setLength(segment.getLength());
+        if (validation != null) {
+            entity.setTotalNumberRows(validation.getTotalNumberRows());
+            entity.setNumberInvalidRows(validation.getNumberInvalidRows());
+        }
+        this.getTable().execute(TableOperation.insertOrReplace(entity));
+    }
+
+    /**
+     * @return the outcome of every segment of the file already processed in the phase of the given segment
+     */
+    public List<FileSegmentEntity> getResults(FileSegmentMessage segment) throws URISyntaxException, InvalidKeyException, StorageException {
+        String partitionFilter = TableQuery.generateFilterCondition("PartitionKey", TableQuery.QueryComparisons.EQUAL, getFileKey(segment));
+        String phaseFilter = TableQuery.generateFilterCondition("Phase", TableQuery.QueryComparisons.EQUAL, segment.getPhase());
+        String notFinalizedFilter = TableQuery.generateFilterCondition("Status", TableQuery.QueryComparisons.NOT_EQUAL, SegmentStatus.FINALIZED.name());
+        String filter = TableQuery.combineFilters(
+                TableQuery.combineFilters(partitionFilter, TableQuery.Operators.AND, phaseFilter),
+                TableQuery.Operators.AND, notFinalizedFilter);
+
+        List<FileSegmentEntity> results = new ArrayList<>();
+        this.getTable().execute(TableQuery.from(FileSegmentEntity.class).where(filter)).forEach(results::add);
+        return results;
+    }
+
+    /**
+     * Marks the phase of the file as finalized: only the first caller succeeds,
+     * so concurrent workers completing the last segments do not finalize the file twice.
+     *
+     * @return true if the caller has to finalize the phase
+     */
+    public boolean tryFinalize(FileSegmentMessage segment) throws URISyntaxException, InvalidKeyException, StorageException {
+        FileSegmentEntity marker = new FileSegmentEntity(getFileKey(segment), segment.getPhase(), FINALIZED_ID);
+        marker.setStatus(SegmentStatus.FINALIZED.name());
+        try {
+            this.getTable().execute(TableOperation.insert(marker));
+            return true;
+        } catch (StorageException e) {
+            if (e.getHttpStatusCode() == HttpURLConnection.HTTP_CONFLICT) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public static String getFileKey(FileSegmentMessage segment) {
+        return AzuriteStorageUtil.getBlobKey(segment.getContainer(), segment.getName());
+    }
+
+    private CloudTable getTable() throws URISyntaxException, InvalidKeyException, StorageException {
+        AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil(debugAzurite, storageConnectionString);
+        azuriteStorageUtil.createTable(segmentsTable);
+
+        return CloudStorageAccount.parse(storageConnectionString)
+                .createCloudTableClient()
+                .getTableReference(segmentsTable);
+    }
+
+    private String readHeader(String container, String blobPath, long contentLength, String etag) throws CanoneUnicoException, IOException {
+        InputStream content = new AzuriteStorageUtil(debugAzurite, storageConnectionString)
+                .openBlobInputStream(container, blobPath, 0, Math.min(ROW_LOOKAHEAD, contentLength), etag);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new CanoneUnicoException("[FileSegmentService] Unable to read the header of " + blobPath);
+            }
+            return header;
+        }
+    }
+
+    // return the offset of the first row starting at or after nominal, -1 if no new line is found in the lookahead window,
+    // QUOTED_ROW if the window has a quote
+    private long findRowBoundary(String container, String blobPath, long nominal, long contentLength, String etag) throws CanoneUnicoException, IOException {
+        long from = nominal - 1;
+        long count = Math.min(ROW_LOOKAHEAD, contentLength - from);
+        try (InputStream content = new AzuriteStorageUtil(debugAzurite, storageConnectionString).openBlobInputStream(container, blobPath, from, count, etag)) {
+            long boundary = rowBoundary(content.readAllBytes());
+            if (boundary >= 0) {
+                return from + boundary;
+            }
+            if (boundary == QUOTED_ROW) {
+                return QUOTED_ROW;
+            }
+        }
+        logger.log(Level.WARNING, () -> String.format("[FileSegmentService] no row boundary found after offset %s of %s", nominal, blobPath));
+        return -1;
+    }
+
+    // return the offset of the first row starting at or after nominal, reading from the start of a row, -1 if none
+    private long scanRowBoundary(String container, String blobPath, long rowStart, long nominal, long contentLength, String etag) throws CanoneUnicoException, IOException {
+        try (InputStream content = new BufferedInputStream(new AzuriteStorageUtil(debugAzurite, storageConnectionString)
+                .openBlobInputStream(container, blobPath, rowStart, contentLength - rowStart, etag))) {
+            long boundary = nextRowStart(content, nominal - rowStart);
+            if (boundary >= 0) {
+                return rowStart + boundary;
+            }
+        }
+        logger.log(Level.WARNING, () -> String.format("[FileSegmentService] no row boundary found after offset %s of %s", nominal, blobPath));
+        return -1;
+    }
+
+    /**
+     * Reads the rows as the CSV parser does: a new line ends the row only outside a quoted field,
+     * a quote preceded by the escape character does not open or close a field.
+     *
+     * @param rows the content, starting at the beginning of a row
+     * @param from the minimum position of the returned row start
+     * @return the position after the first new line ending a row at or after from, -1 if none
+     */
+    static long nextRowStart(InputStream rows, long from) throws IOException {
+        boolean inQuotes = false;
+        long position = 0;
+        int c = rows.read();
+        while (c >= 0) {
+            position++;
+            int next = rows.read();
+            if (c == ESCAPE && (next == QUOTE || next == ESCAPE || next == SEPARATOR)) {
+                // the escaped character is part of the field
+                position++;
+                next = rows.read();
+            } else if (c == QUOTE) {
+                inQuotes = !inQuotes;
+            } else if (c == '\n' && !inQuotes && position >= from) {
+                return position;
+            }
+            c = next;
+        }
+        return -1;
+    }
+
+    /**
+     * The quote state is unknown in the middle of the file: a new line is a row boundary only if the window has no quote,
+     * neither before it (a field opened before) nor after it (a field closed after).
+     *
+     * @return the position after the first new line of the window, -1 if none, QUOTED_ROW if the window has a quote
+     */
+    static long rowBoundary(byte[] window) {
+        long boundary = -1;
+        for (int i = 0; i < window.length; i++) {
+            if (window[i] == '"') {
+                return QUOTED_ROW;
+            }
+            if (window[i] == '\n' && boundary < 0) {
+                boundary = i + 1;
+            }
+        }
+        return boundary;
+    }
+}
@@ -18,6 +18,7 @@ import java.util.logging.Logger;
 public class GpdClient {
 
     private static final String POST_DEBT_POSITIONS = "/organizations/%s/debtpositions";
+    private static final String PUT_DEBT_POSITIONS = "/organizations/%s/debtpositions/%s";
     private static final String PUBLISH_DEBT_POSITIONS = "/organizations/%s/debtpositions/%s/publish";
     private static final String HEADER_SUBSCRIPTION_KEY = "Ocp-Apim-Subscription-Key";
     private static GpdClient instance = null;
@@ -53,6 +54,28 @@ public class GpdClient {
         }
     }
 
+    public int updateDebtPosition(Logger logger, String idPa, PaymentPositionModel body, String requestId) {
+        try {
+            logger.log(Level.INFO, () -> "[CuCreateDebtPositionFunction GPD - updateDebtPosition][requestId=" + requestId + "] Calling GPD service: " + idPa + "; " + body.getIupd());
+            Client client = ClientBuilder.newClient();
+            Response response = client
+                    .register(JacksonJaxbJsonProvider.class)
+                    .target(gpdHost + String.format(PUT_DEBT_POSITIONS, idPa, body.getIupd()))
+                    .request()
+                    .header("X-Request-Id", requestId)
+                    //.header(HEADER_SUBSCRIPTION_KEY, GPD_SUBSCRIPTION_KEY)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .put(Entity.json(body));
+            client.close();
+            logger.log(Level.INFO, () -> "[CuCreateDebtPositionFunction GPD - updateDebtPosition][requestId=" + requestId + "] HTTP status: " + response.getStatus());
+            return response.getStatus();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, () -> "[CuCreateDebtPositionFunction ERROR - updateDebtPosition][requestId=" + requestId + "] error during the GPD call " + e.getMessage() + " "
+                    + e.getCause());
+            return -1;
+        }
+    }
+
     public int publishDebtPosition(Logger logger, String idPa, String iupd, String requestId) {
         try {
             logger.log(Level.INFO, () -> "[CuCreateDebtPositionFunction GPD - publishDebtPosition][requestId=" + requestId + "] Calling GPD service: " + idPa + "; " + iupd);
@@ -0,0 +1,266 @@
+package it.gov.pagopa.canoneunico.service;
+
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide pool of the IUVs of an organization already reserved in the IUVs table, shared by the function invocations of the host.
+ * The IUVs are taken from memory; when the pool falls below the low watermark a background thread reserves a new block,
+ * so a burst of files pays the reservation only when it drains the pool.
+ * A pooled IUV is marked in the table with the time of its reservation, the mark is cleared when the IUV is taken:
+ * the IUVs left in the pool are returned, i.e. deleted from the table, when the host stops,
+ * the ones left by a crash are deleted by the sweep of the reservations expired.
+ * An IUV is taken only in the first half of its reservation, so it is never swept while the pool holds it.
+ */
+public class IuvPool {
+
+    private static final Map<String, IuvPool> INSTANCES = new ConcurrentHashMap<>();
+
+    // reserves the IUVs of the pools of the instance
+    private static final ExecutorService REFILL = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "iuv-pool-refill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // time left to the refill in progress when the host stops
+    private static final long REFILL_TERMINATION_SECONDS = 10;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(IuvPool::returnAllPools, "iuv-pool-return"));
+    }
+
+    private final Logger logger = Logger.getLogger(IuvPool.class.getName());
+    private final int lowWatermark;
+    private final int refillSize;
+    private final long reservationMillis;
+    private final IuvReserver reserver;
+    private final Executor refiller;
+    private final LongSupplier clock;
+    private final Queue<PooledIuv> iuvs = new ConcurrentLinkedQueue<>();
+    // size of the queue, not counted by the queue in constant time
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    // epoch millis of the last sweep of the expired reservations
+    private final AtomicLong swept = new AtomicLong();
+
+    IuvPool(int lowWatermark, int refillSize, long reservationMillis, IuvReserver reserver, Executor refiller, LongSupplier clock) {
+        this.lowWatermark = lowWatermark;
+        this.refillSize = refillSize;
+        this.reservationMillis = reservationMillis;
+        this.reserver = reserver;
+        this.refiller = refiller;
+        this.clock = clock;
+        this.swept.set(clock.getAsLong());
+    }
+
+    /**
+     * @param reservationSeconds the duration of the reservation of a pooled IUV, swept if not taken
+     * @param service            the services reserving the IUVs of the pool, one for each reservation
+     * @return the pool of the organization and segregation code
+     */
+    public static IuvPool getInstance(String paIdFiscalCode, int segregationCode, int lowWatermark, int refillSize, int reservationSeconds,
+                                      Supplier<CuCsvService> service) {
+        return INSTANCES.computeIfAbsent(paIdFiscalCode + '|' + segregationCode,
+                k -> new IuvPool(lowWatermark, refillSize, reservationSeconds * 1000L, new ServiceIuvReserver(service, paIdFiscalCode, segregationCode),
+                        REFILL, System::currentTimeMillis));
+    }
+
+    /**
+     * @return the given number of reserved IUVs: from the pool, reserved inline only if the pool is drained
+     */
+    public List<String> take(int count) throws CanoneUnicoException {
+        List<String> taken = new ArrayList<>(count);
+        long takenFrom = clock.getAsLong() - reservationMillis / 2;
+        int expired = 0;
+        PooledIuv pooled;
+        while (taken.size() < count && (pooled = iuvs.poll()) != null) {
+            size.decrementAndGet();
+            if (pooled.reservedAt > takenFrom) {
+                taken.add(pooled.iuv);
+            } else {
+                // left to the sweep
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            int dropped = expired;
+            logger.log(Level.WARNING, () -> String.format("[IuvPool] %s IUVs not taken in time: dropped", dropped));
+        }
+        if (!taken.isEmpty()) {
+            // used from now on: not swept
+            reserver.claim(taken);
+        }
+        if (taken.size() < count) {
+            logger.log(Level.INFO, () -> String.format("[IuvPool] pool drained: %s IUVs reserved inline", count - taken.size()));
+            taken.addAll(reserver.reserve(count - taken.size(), false));
+        }
+        this.refill();
+        return taken;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // a single refill at a time: a burst of takes does not queue a refill each
+    private void refill() {
+        if (size.get() >= lowWatermark || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        Runnable refill = () -> {
+            try {
+                // the reservation starts before the rows are written: it never ends later than in the table
+                long reservedAt = clock.getAsLong();
+                List<String> reserved = reserver.reserve(refillSize, true);
+                reserved.forEach(iuv -> iuvs.add(new PooledIuv(iuv, reservedAt)));
+                size.addAndGet(reserved.size());
+                this.sweep();
+            } catch (CanoneUnicoException | RuntimeException e) {
+                logger.log(Level.WARNING, () -> String.format("[IuvPool] refill failed: %s", e.getMessage()));
+            } finally {
+                refilling.set(false);
+            }
+        };
+        try {
+            refiller.execute(refill);
+        } catch (RejectedExecutionException e) {
+            // the host is stopping: the pools are being returned
+            refilling.set(false);
+        }
+    }
+
+    // the reservations expired, i.e. left by a crashed host, are deleted once in half a reservation
+    private void sweep() throws CanoneUnicoException {
+        long now = clock.getAsLong();
+        long last = swept.get();
+        if (now - last < reservationMillis / 2 || !swept.compareAndSet(last, now)) {
+            return;
+        }
+        int released = reserver.releaseExpired(now - reservationMillis);
+        if (released > 0) {
+            logger.log(Level.INFO, () -> String.format("[IuvPool] %s expired IUV reservations deleted", released));
+        }
+    }
+
+    // the refill is stopped first: a refill in progress would add its IUVs after the pools are returned
+    static void returnAllPools() {
+        REFILL.shutdown();
+        try {
+            if (!REFILL.awaitTermination(REFILL_TERMINATION_SECONDS, TimeUnit.SECONDS)) {
+                Logger.getLogger(IuvPool.class.getName()).log(Level.WARNING, "[IuvPool] refill not terminated: its IUVs are left to the sweep");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        INSTANCES.values().forEach(IuvPool::returnAll);
+    }
+
+    void returnAll() {
+        List<String> left = new ArrayList<>();
+        PooledIuv pooled;
+        while ((pooled = iuvs.poll()) != null) {
+            size.decrementAndGet();
+            left.add(pooled.iuv);
+        }
+        if (left.isEmpty()) {
+            return;
+        }
+        try {
+            reserver.release(left);
+        } catch (CanoneUnicoException | RuntimeException e) {
+            logger.log(Level.WARNING, () -> String.format("[IuvPool] %s IUVs not returned: %s", left.size(), e.getMessage()));
+        }
+    }
+
+    private static class PooledIuv {
+        final String iuv;
+        // epoch millis
+        final long reservedAt;
+
+        PooledIuv(String iuv, long reservedAt) {
+            this.iuv = iuv;
+            this.reservedAt = reservedAt;
+        }
+    }
+
+    /**
+     * Reserves the IUVs of a pool.
+     */
+    interface IuvReserver {
+        /**
+         * @param pooled true to mark the reservations as pooled, with their time
+         * @return the reserved IUVs
+         */
+        List<String> reserve(int count, boolean pooled) throws CanoneUnicoException;
+
+        /**
+         * Clears the pooled mark of the IUVs taken from the pool
+         */
+        void claim(List<String> iuvs) throws CanoneUnicoException;
+
+        /**
+         * Deletes the reservation of unused IUVs
+         */
+        void release(List<String> iuvs) throws CanoneUnicoException;
+
+        /**
+         * Deletes the pooled reservations made before the given time
+         *
+         * @return the number of reservations deleted
+         */
+        int releaseExpired(long reservedBefore) throws CanoneUnicoException;
+    }
+
+    static class ServiceIuvReserver implements IuvReserver {
+
+        // the refill and the inline reservations may run at the same time: a service each
+        private final Supplier<CuCsvService> service;
+        private final String paIdFiscalCode;
+        private final int segregationCode;
+
+        ServiceIuvReserver(Supplier<CuCsvService> service, String paIdFiscalCode, int segregationCode) {
+            this.service = service;
+            this.paIdFiscalCode = paIdFiscalCode;
+            this.segregationCode = segregationCode;
+        }
+
+        @Override
+        public List<String> reserve(int count, boolean pooled) throws CanoneUnicoException {
+            return service.get().getValidIUVs(paIdFiscalCode, segregationCode, count, pooled);
+        }
+
+        @Override
+        public void claim(List<String> iuvs) throws CanoneUnicoException {
+            service.get().claimIUVs(paIdFiscalCode, iuvs);
+        }
+
+        @Override
+        public void release(List<String> iuvs) throws CanoneUnicoException {
+            service.get().releaseIUVs(paIdFiscalCode, iuvs);
+        }
+
+        @Override
+        public int releaseExpired(long reservedBefore) throws CanoneUnicoException {
+            return service.get().releaseExpiredIUVs(paIdFiscalCode, reservedBefore);
+        }
+    }
+}
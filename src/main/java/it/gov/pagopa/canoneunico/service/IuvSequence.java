@@ -0,0 +1,146 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.table.CloudTable;
+import com.microsoft.azure.storage.table.TableOperation;
+import it.gov.pagopa.canoneunico.entity.IuvSequenceEntity;
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide sequence of the IUVs of a segregation code, shared by the function invocations running in the same host.
+ * The sequence is stored in a table: each host leases a block of values updating the stored next value
+ * conditioned on its ETag, then hands the values of the block out from memory.
+ * The values are unique across the hosts, the ones of a block not used before the host stops are skipped.
+ */
+public class IuvSequence {
+
+    private static final Map<String, IuvSequence> INSTANCES = new ConcurrentHashMap<>();
+
+    private final int blockSize;
+    private final BlockLeaser leaser;
+    private volatile Block block;
+
+    IuvSequence(int blockSize, BlockLeaser leaser) {
+        this.blockSize = blockSize;
+        this.leaser = leaser;
+    }
+
+    /**
+     * @return the sequence of the segregation code stored in the given table
+     */
+    public static IuvSequence getInstance(String storageConnectionString, String sequencesTable, int segregationCode, int blockSize) {
+        return INSTANCES.computeIfAbsent(storageConnectionString + '|' + sequencesTable + '|' + segregationCode,
+                k -> new IuvSequence(blockSize, new TableBlockLeaser(storageConnectionString, sequencesTable, String.format("%02d", segregationCode))));
+    }
+
+    /**
+     * @return the next value of the sequence, a new block is leased when the current one is used up
+     */
+    public long next() throws CanoneUnicoException {
+        while (true) {
+            Block current = block;
+            if (current != null) {
+                long value = current.next.getAndIncrement();
+                if (value < current.end) {
+                    return value;
+                }
+            }
+            synchronized (this) {
+                // another invocation may have leased a new block while waiting
+                if (block == current) {
+                    long start = leaser.lease(blockSize);
+                    block = new Block(start, start + blockSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Leases a block of values of the sequence.
+     */
+    @FunctionalInterface
+    interface BlockLeaser {
+        /**
+         * @return the first value of the block
+         */
+        long lease(int blockSize) throws CanoneUnicoException;
+    }
+
+    // values [start, end) of the sequence leased by the host
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    static class TableBlockLeaser implements BlockLeaser {
+
+        private static final String PARTITION_KEY = "iuv";
+        private static final int MAX_LEASE_ATTEMPTS = 10;
+
+        private final String storageConnectionString;
+        private final String sequencesTable;
+        private final String segregationCode;
+
+        TableBlockLeaser(String storageConnectionString, String sequencesTable, String segregationCode) {
+            this.storageConnectionString = storageConnectionString;
+            this.sequencesTable = sequencesTable;
+            this.segregationCode = segregationCode;
+        }
+
+        @Override
+        public long lease(int blockSize) throws CanoneUnicoException {
+            try {
+                CloudTable table = this.getTable();
+                for (int attempt = 1; attempt <= MAX_LEASE_ATTEMPTS; attempt++) {
+                    IuvSequenceEntity sequence = table.execute(TableOperation.retrieve(PARTITION_KEY, segregationCode, IuvSequenceEntity.class))
+                            .getResultAsType();
+                    try {
+                        if (sequence == null) {
+                            // the sequence starts after the timestamps used as sequence by the IUVs generated before it
+                            long start = System.currentTimeMillis();
+                            IuvSequenceEntity created = new IuvSequenceEntity(PARTITION_KEY, segregationCode);
+                            created.setNextValue(start + blockSize);
+                            table.execute(TableOperation.insert(created));
+                            return start;
+                        }
+                        long start = sequence.getNextValue();
+                        sequence.setNextValue(start + blockSize);
+                        // the ETag of the read entity: fails if another host has leased a block in the meantime
+                        table.execute(TableOperation.replace(sequence));
+                        return start;
+                    } catch (StorageException e) {
+                        if (e.getHttpStatusCode() != HttpURLConnection.HTTP_CONFLICT && e.getHttpStatusCode() != HttpURLConnection.HTTP_PRECON_FAILED) {
+                            throw e;
+                        }
+                    }
+                }
+                throw new CanoneUnicoException("[IuvSequence] Block of the sequence " + segregationCode + " not leased in " + MAX_LEASE_ATTEMPTS + " attempts");
+            } catch (URISyntaxException | InvalidKeyException | StorageException e) {
+                throw new CanoneUnicoException("[IuvSequence] Unable to lease a block of the sequence " + segregationCode, e);
+            }
+        }
+
+        private CloudTable getTable() throws URISyntaxException, InvalidKeyException, StorageException {
+            AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+            azuriteStorageUtil.createTable(sequencesTable);
+
+            return CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(sequencesTable);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.table.CloudTable;
+import com.microsoft.azure.storage.table.TableOperation;
+import com.microsoft.azure.storage.table.TableQuery;
+import it.gov.pagopa.canoneunico.entity.IuvWorkerEntity;
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide generator of IUV bases unique by construction, shared by the function invocations running in the same host.
+ * IUV base (13 digits) = &lt;seconds since 2024-01-01 (9n)&gt;&lt;worker id (2n)&gt;&lt;counter (2n)&gt;<br/>
+ * The worker id is leased from a table, with the time slots the host may use: a host uses only the slots it has reserved
+ * and the next holder of the worker id starts after them, so the values are unique even if a lease expires while the host is running.
+ * When the 100 values of a second are used up, the next second is borrowed: a burst only moves the time slot ahead of the clock.
+ */
+public class IuvSnowflake {
+
+    // 2024-01-01T00:00:00Z
+    static final long EPOCH_SECONDS = 1_704_067_200L;
+    static final int WORKER_IDS = 100;
+    static final int SLOT_VALUES = 100;
+    // 9 digits of seconds: until 2055
+    static final long SLOT_LIMIT = 1_000_000_000L;
+    // time slots reserved at each write of the lease
+    private static final int RESERVED_SLOTS = 60;
+
+    private static final Map<String, IuvSnowflake> INSTANCES = new ConcurrentHashMap<>();
+
+    private final WorkerLeaser leaser;
+    private final LongSupplier clock;
+    private WorkerLease lease;
+    private long slot = -1;
+    private int counter;
+
+    IuvSnowflake(WorkerLeaser leaser, LongSupplier clock) {
+        this.leaser = leaser;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the generator of the host, with a worker id leased from the given table
+     */
+    public static IuvSnowflake getInstance(String storageConnectionString, String workersTable, int leaseSeconds) {
+        return INSTANCES.computeIfAbsent(storageConnectionString + '|' + workersTable,
+                k -> new IuvSnowflake(new TableWorkerLeaser(storageConnectionString, workersTable, leaseSeconds * 1000L), System::currentTimeMillis));
+    }
+
+    /**
+     * @return the next IUV base, the lease of the worker id is renewed or a new worker id is leased when needed
+     */
+    public synchronized long next() throws CanoneUnicoException {
+        long millis = clock.getAsLong();
+        long now = millis / 1000 - EPOCH_SECONDS;
+        if (slot < now) {
+            slot = now;
+            counter = 0;
+        } else if (counter == SLOT_VALUES) {
+            slot++;
+            counter = 0;
+        }
+        if (lease == null || slot >= lease.reservedUntil || millis >= lease.renewAt) {
+            this.renew();
+        }
+        if (slot < 0 || slot >= SLOT_LIMIT) {
+            throw new CanoneUnicoException("[IuvSnowflake] Time slot " + slot + " out of the IUV base");
+        }
+        return (slot * WORKER_IDS + lease.workerId) * SLOT_VALUES + counter++;
+    }
+
+    private void renew() throws CanoneUnicoException {
+        WorkerLease renewed = lease != null ? leaser.extend(lease, slot, RESERVED_SLOTS) : null;
+        if (renewed == null) {
+            // first lease, or the worker id was leased by another host: its slots may start later
+            renewed = leaser.acquire(slot, RESERVED_SLOTS);
+            if (slot < renewed.firstSlot) {
+                slot = renewed.firstSlot;
+                counter = 0;
+            }
+        }
+        lease = renewed;
+    }
+
+    /**
+     * Leases the worker ids.
+     */
+    interface WorkerLeaser {
+        /**
+         * @return the lease of a free worker id, its slots reserved from the given one or after the ones of its previous holders
+         */
+        WorkerLease acquire(long slot, int reservedSlots) throws CanoneUnicoException;
+
+        /**
+         * @return the renewed lease with the slots reserved after the given one, null if the worker id was leased by another host
+         */
+        WorkerLease extend(WorkerLease lease, long slot, int reservedSlots) throws CanoneUnicoException;
+    }
+
+    // slots [firstSlot, reservedUntil) of the worker id reserved by the host
+    static class WorkerLease {
+        final int workerId;
+        final long firstSlot;
+        final long reservedUntil;
+        // epoch millis
+        final long renewAt;
+        final String etag;
+
+        WorkerLease(int workerId, long firstSlot, long reservedUntil, long renewAt, String etag) {
+            this.workerId = workerId;
+            this.firstSlot = firstSlot;
+            this.reservedUntil = reservedUntil;
+            this.renewAt = renewAt;
+            this.etag = etag;
+        }
+    }
+
+    static class TableWorkerLeaser implements WorkerLeaser {
+
+        private static final String PARTITION_KEY = "worker";
+
+        private final String storageConnectionString;
+        private final String workersTable;
+        private final long leaseMillis;
+
+        TableWorkerLeaser(String storageConnectionString, String workersTable, long leaseMillis) {
+            this.storageConnectionString = storageConnectionString;
+            this.workersTable = workersTable;
+            this.leaseMillis = leaseMillis;
+        }
+
+        @Override
+        public WorkerLease acquire(long slot, int reservedSlots) throws CanoneUnicoException {
+            try {
+                CloudTable table = this.getTable();
+                Map<String, IuvWorkerEntity> workers = new HashMap<>();
+                String filter = TableQuery.generateFilterCondition("PartitionKey", TableQuery.QueryComparisons.EQUAL, PARTITION_KEY);
+                for (IuvWorkerEntity worker : table.execute(TableQuery.from(IuvWorkerEntity.class).where(filter))) {
+                    workers.put(worker.getRowKey(), worker);
+                }
+
+                long now = System.currentTimeMillis();
+                for (int workerId = 0; workerId < WORKER_IDS; workerId++) {
+                    IuvWorkerEntity worker = workers.get(String.format("%02d", workerId));
+                    if (worker != null && worker.getLeaseExpiresAt() != null && worker.getLeaseExpiresAt() > now) {
+                        continue;
+                    }
+                    long firstSlot = worker != null && worker.getReservedUntil() != null ? Math.max(slot, worker.getReservedUntil()) : slot;
+                    IuvWorkerEntity leased = worker != null ? worker : new IuvWorkerEntity(PARTITION_KEY, String.format("%02d", workerId));
+                    leased.setReservedUntil(firstSlot + reservedSlots);
+                    leased.setLeaseExpiresAt(now + leaseMillis);
+                    try {
+                        // the ETag of the read entity: fails if another host has leased the worker id in the meantime
+                        String etag = table.execute(worker != null ? TableOperation.replace(leased) : TableOperation.insert(leased)).getEtag();
+                        return new WorkerLease(workerId, firstSlot, firstSlot + reservedSlots, now + leaseMillis / 2, etag);
+                    } catch (StorageException e) {
+                        if (e.getHttpStatusCode() != HttpURLConnection.HTTP_CONFLICT && e.getHttpStatusCode() != HttpURLConnection.HTTP_PRECON_FAILED) {
+                            throw e;
+                        }
+                    }
+                }
+                throw new CanoneUnicoException("[IuvSnowflake] No free worker id in table " + workersTable);
+            } catch (URISyntaxException | InvalidKeyException | StorageException e) {
+                throw new CanoneUnicoException("[IuvSnowflake] Unable to lease a worker id", e);
+            }
+        }
+
+        @Override
+        public WorkerLease extend(WorkerLease lease, long slot, int reservedSlots) throws CanoneUnicoException {
+            long now = System.currentTimeMillis();
+            long reservedUntil = Math.max(lease.reservedUntil, slot + reservedSlots);
+            IuvWorkerEntity leased = new IuvWorkerEntity(PARTITION_KEY, String.format("%02d", lease.workerId));
+            leased.setReservedUntil(reservedUntil);
+            leased.setLeaseExpiresAt(now + leaseMillis);
+            leased.setEtag(lease.etag);
+            try {
+                String etag = this.getTable().execute(TableOperation.replace(leased)).getEtag();
+                return new WorkerLease(lease.workerId, lease.firstSlot, reservedUntil, now + leaseMillis / 2, etag);
+            } catch (StorageException e) {
+                if (e.getHttpStatusCode() == HttpURLConnection.HTTP_PRECON_FAILED || e.getHttpStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return null;
+                }
+                throw new CanoneUnicoException("[IuvSnowflake] Unable to renew the worker id " + lease.workerId, e);
+            } catch (URISyntaxException | InvalidKeyException e) {
+                throw new CanoneUnicoException("[IuvSnowflake] Unable to renew the worker id " + lease.workerId, e);
+            }
+        }
+
+        private CloudTable getTable() throws URISyntaxException, InvalidKeyException, StorageException {
+            AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil();
+            azuriteStorageUtil.createTable(workersTable);
+
+            return CloudStorageAccount.parse(storageConnectionString)
+                    .createCloudTableClient()
+                    .getTableReference(workersTable);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package it.gov.pagopa.canoneunico.service;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide memory budget of the files processed at the same time by the function invocations of the host.
+ * A file is admitted only if its estimated memory fits in the budget left by the files being processed,
+ * so a burst of large files is deferred instead of exhausting the heap.
+ * A file larger than the whole budget is admitted only when no other file is being processed.
+ */
+public class MemoryGovernor {
+
+    private static final MemoryGovernor INSTANCE = new MemoryGovernor(getBudgetFromEnv());
+
+    private final long budgetBytes;
+    private final Map<Reservation, Long> reservations = new LinkedHashMap<>();
+    private long reservedBytes;
+
+    MemoryGovernor(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return the budget of the host
+     */
+    public static MemoryGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    // MEMORY_BUDGET_BYTES if set, otherwise MEMORY_BUDGET_RATIO (default 0.6) of the max heap
+    private static long getBudgetFromEnv() {
+        if (System.getenv("MEMORY_BUDGET_BYTES") != null) {
+            return NumberUtils.toLong(System.getenv("MEMORY_BUDGET_BYTES"));
+        }
+        double ratio = System.getenv("MEMORY_BUDGET_RATIO") != null ? NumberUtils.toDouble(System.getenv("MEMORY_BUDGET_RATIO")) : 0.6;
+        return (long) (Runtime.getRuntime().maxMemory() * ratio);
+    }
+
+    /**
+     * @param name  the name of the file, for the logs
+     * @param bytes the estimated memory of the file
+     * @return the reservation of the memory, to be closed when the file is processed; null if the budget is not available
+     */
+    public synchronized Reservation tryReserve(String name, long bytes) {
+        if (!reservations.isEmpty() && reservedBytes + bytes > budgetBytes) {
+            return null;
+        }
+        Reservation reservation = new Reservation(name, bytes);
+        reservations.put(reservation, bytes);
+        reservedBytes += bytes;
+        return reservation;
+    }
+
+    private synchronized void release(Reservation reservation) {
+        Long bytes = reservations.remove(reservation);
+        if (bytes != null) {
+            reservedBytes -= bytes;
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return the memory reserved by every file being processed, by file name
+     */
+    public synchronized Map<String, Long> getReservations() {
+        Map<String, Long> byName = new LinkedHashMap<>();
+        reservations.forEach((reservation, bytes) -> byName.merge(reservation.name, bytes, Long::sum));
+        return byName;
+    }
+
+    /**
+     * Memory reserved by a file, released when closed.
+     */
+    public class Reservation implements AutoCloseable {
+
+        private final String name;
+        private final long bytes;
+
+        private Reservation(String name, long bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
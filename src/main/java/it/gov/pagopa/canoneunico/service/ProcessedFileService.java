@@ -0,0 +1,183 @@
+package it.gov.pagopa.canoneunico.service;
+
+import com.azure.core.http.RequestConditions;
+import com.azure.core.util.Context;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.specialized.BlobLeaseClient;
+import com.azure.storage.blob.specialized.BlobLeaseClientBuilder;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.table.CloudTable;
+import com.microsoft.azure.storage.table.TableOperation;
+import it.gov.pagopa.canoneunico.entity.ProcessedFileEntity;
+import it.gov.pagopa.canoneunico.entity.ProcessedFileStatus;
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+import it.gov.pagopa.canoneunico.model.BlobInfo;
+import it.gov.pagopa.canoneunico.util.AzuriteStorageUtil;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes the processing of the blob events idempotent: EventGrid delivers the events at least once.
+ * A file, identified by container, name and ETag, is processed only if it has no processed record
+ * and while its blob is leased, so a duplicated or concurrent delivery ends after a lookup.
+ */
+public class ProcessedFileService {
+
+    // renews the leases of the files being processed on the instance
+    private static final ScheduledExecutorService LEASE_RENEWAL = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "file-lease-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private boolean debugAzurite = Boolean.parseBoolean(System.getenv("DEBUG_AZURITE"));
+    private String storageConnectionString = System.getenv("CU_SA_CONNECTION_STRING");
+    private String processedFilesTable = System.getenv("PROCESSED_FILES_TABLE");
+    // a lease lasts 15-60 seconds: if the instance dies, the file can be processed again after it expires
+    private int leaseSeconds = System.getenv("FILE_LEASE_SECONDS") != null ? NumberUtils.toInt(System.getenv("FILE_LEASE_SECONDS")) : 60;
+
+    private final Logger logger;
+
+    public ProcessedFileService(Logger logger) {
+        this.logger = logger;
+    }
+
+    public ProcessedFileService(String storageConnectionString, String processedFilesTable, int leaseSeconds, boolean debugAzurite, Logger logger) {
+        this.storageConnectionString = storageConnectionString;
+        this.processedFilesTable = processedFilesTable;
+        this.leaseSeconds = leaseSeconds;
+        this.debugAzurite = debugAzurite;
+        this.logger = logger;
+    }
+
+    /**
+     * @return true if the file has already been processed by a previous delivery of its event
+     * @throws CanoneUnicoException if the record is not readable: the event is to be delivered again
+     */
+    public boolean isProcessed(BlobInfo blobInfo) throws CanoneUnicoException {
+        try {
+            ProcessedFileEntity entity = this.getTable()
+                    .execute(TableOperation.retrieve(blobInfo.getContainer(), getFileId(blobInfo), ProcessedFileEntity.class))
+                    .getResultAsType();
+            return entity != null;
+        } catch (URISyntaxException | InvalidKeyException | StorageException e) {
+            // a file processed again would be persisted twice
+            throw new CanoneUnicoException("[ProcessedFileService] Unable to read the record of " + blobInfo.getName(), e);
+        }
+    }
+
+    public void markProcessed(BlobInfo blobInfo, ProcessedFileStatus status) {
+        ProcessedFileEntity entity = new ProcessedFileEntity(blobInfo.getContainer(), getFileId(blobInfo));
+        entity.setStatus(status.name());
+        try {
+            this.getTable().execute(TableOperation.insertOrReplace(entity));
+        } catch (URISyntaxException | InvalidKeyException | StorageException e) {
+            logger.log(Level.WARNING, () -> String.format("[ProcessedFileService] unable to write the record of %s: %s", blobInfo.getName(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Leases the blob of the file, renewing the lease until it is closed.
+     *
+     * @return the lease, null if the blob is leased by another delivery of the event,
+     * has been modified or deleted after the event
+     * @throws CanoneUnicoException if the lease is not acquired for another reason: the event is to be delivered again
+     */
+    public FileLease acquireLease(BlobInfo blobInfo) throws CanoneUnicoException {
+        BlobLeaseClient leaseClient = new BlobLeaseClientBuilder()
+                .blobClient(new BlobServiceClientBuilder().connectionString(storageConnectionString).buildClient()
+                        .getBlobContainerClient(blobInfo.getContainer())
+                        .getBlobClient(blobInfo.getDirectory() + '/' + blobInfo.getName()))
+                .buildClient();
+        try {
+            // the lease is taken on the version of the event only
+            String leaseId = leaseClient.acquireLeaseWithResponse(leaseSeconds, new RequestConditions().setIfMatch(blobInfo.getEtag()), null, Context.NONE)
+                    .getValue();
+            long renewalSeconds = Math.max(1, leaseSeconds / 2);
+            ScheduledFuture<?> renewal = LEASE_RENEWAL.scheduleAtFixedRate(() -> renew(leaseClient, blobInfo), renewalSeconds, renewalSeconds, TimeUnit.SECONDS);
+            return new FileLease(leaseId, leaseClient, renewal, blobInfo, logger);
+        } catch (BlobStorageException e) {
+            int status = e.getStatusCode();
+            if (status == HttpURLConnection.HTTP_CONFLICT || status == HttpURLConnection.HTTP_PRECON_FAILED || status == HttpURLConnection.HTTP_NOT_FOUND) {
+                logger.log(Level.INFO, () -> String.format("[ProcessedFileService] %s not leased (%s): processed by another delivery or changed", blobInfo.getName(), e.getErrorCode()));
+                return null;
+            }
+            // a file processed without the lease may be processed by a concurrent delivery too
+            throw new CanoneUnicoException("[ProcessedFileService] Unable to lease " + blobInfo.getName(), e);
+        }
+    }
+
+    private void renew(BlobLeaseClient leaseClient, BlobInfo blobInfo) {
+        try {
+            leaseClient.renewLease();
+        } catch (BlobStorageException e) {
+            logger.log(Level.WARNING, () -> String.format("[ProcessedFileService] unable to renew the lease of %s: %s", blobInfo.getName(), e.getMessage()));
+        }
+    }
+
+    // e.g. file.csv with ETag "0x8D9" -> file.csv_0x8D9 (the ETag identifies the upload)
+    static String getFileId(BlobInfo blobInfo) {
+        String etag = blobInfo.getEtag() != null ? blobInfo.getEtag().replace("\"", "") : "";
+        return blobInfo.getName() + '_' + etag;
+    }
+
+    private CloudTable getTable() throws URISyntaxException, InvalidKeyException, StorageException {
+        AzuriteStorageUtil azuriteStorageUtil = new AzuriteStorageUtil(debugAzurite, storageConnectionString);
+        azuriteStorageUtil.createTable(processedFilesTable);
+
+        return CloudStorageAccount.parse(storageConnectionString)
+                .createCloudTableClient()
+                .getTableReference(processedFilesTable);
+    }
+
+    /**
+     * Lease on the blob of a file being processed, released when closed.
+     */
+    public static class FileLease implements AutoCloseable {
+
+        private final String leaseId;
+        private final BlobLeaseClient leaseClient;
+        private final ScheduledFuture<?> renewal;
+        private final BlobInfo blobInfo;
+        private final Logger logger;
+
+        FileLease(String leaseId, BlobLeaseClient leaseClient, ScheduledFuture<?> renewal, BlobInfo blobInfo, Logger logger) {
+            this.leaseId = leaseId;
+            this.leaseClient = leaseClient;
+            this.renewal = renewal;
+            this.blobInfo = blobInfo;
+            this.logger = logger;
+        }
+
+        /**
+         * @return the id required to modify or delete the leased blob
+         */
+        public String getLeaseId() {
+            return leaseId;
+        }
+
+        @Override
+        public void close() {
+            renewal.cancel(false);
+            try {
+                leaseClient.releaseLease();
+            } catch (BlobStorageException e) {
+                // the blob has been deleted after an invalid file, or the lease is expired
+                if (e.getStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                    logger.log(Level.WARNING, () -> String.format("[ProcessedFileService] unable to release the lease of %s: %s", blobInfo.getName(), e.getMessage()));
+                }
+            }
+        }
+    }
+}
@@ -2,13 +2,19 @@ package it.gov.pagopa.canoneunico.util;
 
 
 import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
 import com.azure.storage.blob.models.BlobContainerItem;
 import com.azure.storage.blob.models.BlobItem;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobRequestConditions;
 import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.options.BlobDownloadToFileOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.common.ParallelTransferOptions;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.storage.CloudStorageAccount;
 import com.microsoft.azure.storage.OperationContext;
@@ -24,9 +30,16 @@ import it.gov.pagopa.canoneunico.model.CsvOutModel;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidKeyException;
 import java.util.List;
+import java.util.Set;
 
 @AllArgsConstructor
 @NoArgsConstructor
@@ -95,6 +108,79 @@ public class AzuriteStorageUtil {
         }
     }
 
+    // return a stream over the blob content: the blob is fetched chunk by chunk while the stream is consumed
+    public InputStream openBlobInputStream(ExecutionContext context, String containerName, String blob) throws CanoneUnicoException {
+        context.getLogger().info(String.format("[AzuriteStorageUtil] Open stream on blob %s from container %s", blob, containerName));
+
+        try {
+            BlobServiceClient blobServiceClient = new BlobServiceClientBuilder().connectionString(this.storageConnectionString).buildClient();
+            BlobContainerClient container = blobServiceClient.getBlobContainerClient(containerName);
+            if (!container.exists()) return null;
+            BlobClient blobClient = container.getBlobClient(blob);
+            if (!blobClient.exists()) return null;
+
+            context.getLogger().info(String.format("[AzuriteStorageUtil][Opened Blob Stream] Blob name %s, blob URL %s", blobClient.getBlobName(), blobClient.getBlobUrl()));
+
+            return blobClient.openInputStream();
+        } catch (BlobStorageException e) {
+            throw new CanoneUnicoException("[AzureStorageUtil] BlobStorageException " + e.getMessage());
+        }
+    }
+
+    // return a stream over the byte range [offset, offset + count) of the blob, failing if the blob no longer matches the etag
+    public InputStream openBlobInputStream(String containerName, String blob, long offset, long count, String etag) throws CanoneUnicoException {
+        try {
+            BlobServiceClient blobServiceClient = new BlobServiceClientBuilder().connectionString(this.storageConnectionString).buildClient();
+            BlobClient blobClient = blobServiceClient.getBlobContainerClient(containerName).getBlobClient(blob);
+            BlobInputStreamOptions options = new BlobInputStreamOptions().setRange(new BlobRange(offset, count));
+            if (etag != null) {
+                options.setRequestConditions(new BlobRequestConditions().setIfMatch(etag));
+            }
+            return blobClient.openInputStream(options);
+        } catch (BlobStorageException e) {
+            throw new CanoneUnicoException("[AzureStorageUtil] BlobStorageException " + e.getMessage());
+        }
+    }
+
+    // return a stream over a local copy of the blob, downloaded with parallel ranged reads of blockSize bytes
+    // and read through a memory-mapped buffer: the copy is deleted when the stream is closed
+    public InputStream openSpooledBlobInputStream(ExecutionContext context, String containerName, String blob, String etag,
+                                                  long blockSize, int concurrency) throws CanoneUnicoException {
+        context.getLogger().info(String.format("[AzuriteStorageUtil] Spool blob %s from container %s", blob, containerName));
+
+        Path spool = null;
+        try {
+            spool = Files.createTempFile("cu-", ".spool");
+            BlobServiceClient blobServiceClient = new BlobServiceClientBuilder().connectionString(this.storageConnectionString).buildClient();
+            BlobClient blobClient = blobServiceClient.getBlobContainerClient(containerName).getBlobClient(blob);
+            BlobDownloadToFileOptions options = new BlobDownloadToFileOptions(spool.toString())
+                    .setParallelTransferOptions(new ParallelTransferOptions().setBlockSizeLong(blockSize).setMaxConcurrency(concurrency))
+                    // the temp file already exists: it is overwritten
+                    .setOpenOptions(Set.of(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            if (etag != null) {
+                options.setRequestConditions(new BlobRequestConditions().setIfMatch(etag));
+            }
+            blobClient.downloadToFileWithResponse(options, null, Context.NONE);
+
+            return new MappedFileInputStream(spool, true);
+        } catch (BlobStorageException | IOException | UncheckedIOException e) {
+            deleteSpool(spool);
+            throw new CanoneUnicoException("[AzureStorageUtil] Unable to spool the blob " + blob + ": " + e.getMessage());
+        }
+    }
+
+    private static void deleteSpool(Path spool) {
+        if (spool == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spool);
+        } catch (IOException e) {
+            // the temp directory is cleaned up by the host
+            Logger.info(new OperationContext(), "Spool file not deleted:" + spool);
+        }
+    }
+
     // based on this format corp_blobName return CsvOutModel instance
     public static CsvOutModel getOutByBlobKey(String blobKey, List<List<String>> data) {
         String corporate = blobKey.substring(0, blobKey.indexOf(KEY_SEPARATOR));
@@ -0,0 +1,146 @@
+package it.gov.pagopa.canoneunico.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Compression of an uploaded CSV file, detected by the file name:
+ * file.csv (none), file.csv.gz (gzip) or file.zip (a zip with a single CSV entry).
+ * The content is decompressed while it is read, never expanded in memory.
+ */
+public enum CsvCompression {
+
+    NONE(".csv"),
+    GZIP(".csv.gz"),
+    ZIP(".zip");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    CsvCompression(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @param fileName the name of the uploaded file
+     * @return the compression of the file, NONE if not compressed
+     */
+    public static CsvCompression of(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(GZIP.extension)) {
+            return GZIP;
+        }
+        return name.endsWith(ZIP.extension) ? ZIP : NONE;
+    }
+
+    /**
+     * @param fileName the name of the uploaded file
+     * @return the name of the CSV content, e.g. file.csv.gz -> file.csv
+     */
+    public static String getCsvName(String fileName) {
+        CsvCompression compression = of(fileName);
+        return compression == NONE ? fileName : fileName.substring(0, fileName.length() - compression.extension.length()) + NONE.extension;
+    }
+
+    public boolean isCompressed() {
+        return this != NONE;
+    }
+
+    /**
+     * @param content the uploaded content
+     * @return the CSV content
+     */
+    public InputStream decompress(InputStream content) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(content, BUFFER_SIZE);
+            case ZIP:
+                return openSingleEntry(new ZipInputStream(content));
+            default:
+                return content;
+        }
+    }
+
+    /**
+     * @param content  the uploaded content
+     * @param maxBytes the max size of the CSV content
+     * @return the CSV content, failing when more than maxBytes are read from a compressed file
+     */
+    public InputStream decompress(InputStream content, long maxBytes) throws IOException {
+        InputStream csv = this.decompress(content);
+        return this == NONE ? csv : limit(csv, maxBytes);
+    }
+
+    // a small upload may expand to an unbounded content: it is read until the limit
+    private static InputStream limit(InputStream csv, long maxBytes) {
+        return new FilterInputStream(csv) {
+            private long count;
+
+            @Override
+            public int read() throws IOException {
+                return this.count(super.read(), 1);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                return this.count(read, read);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                this.count(0, skipped);
+                return skipped;
+            }
+
+            private int count(int read, long bytes) throws IOException {
+                if (read >= 0) {
+                    count += bytes;
+                    if (count > maxBytes) {
+                        throw new IOException("the decompressed file exceeds " + maxBytes + " bytes");
+                    }
+                }
+                return read;
+            }
+        };
+    }
+
+    // the stream of the only entry of the zip, failing at its end if the zip has other entries
+    private static InputStream openSingleEntry(ZipInputStream zip) throws IOException {
+        ZipEntry entry = zip.getNextEntry();
+        if (entry == null || entry.isDirectory()) {
+            zip.close();
+            throw new IOException("the zip file must contain a single CSV file");
+        }
+        return new FilterInputStream(zip) {
+            private boolean checked;
+
+            @Override
+            public int read() throws IOException {
+                return this.checkEnd(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return this.checkEnd(super.read(b, off, len));
+            }
+
+            private int checkEnd(int read) throws IOException {
+                if (read < 0 && !checked) {
+                    checked = true;
+                    if (zip.getNextEntry() != null) {
+                        throw new IOException("the zip file must contain a single CSV file, found more entries");
+                    }
+                }
+                return read;
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package it.gov.pagopa.canoneunico.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Stream over a local file read through memory-mapped regions: the content is paged in by the OS
+ * as it is read, only the buffer of the reader is on the Java heap.
+ * The file is mapped a region at a time, so a file larger than 2 GB can be read too.
+ */
+public class MappedFileInputStream extends InputStream {
+
+    private static final long REGION_SIZE = 256L * 1024 * 1024;
+
+    private final Path file;
+    private final boolean deleteOnClose;
+    private final long regionSize;
+    private final FileChannel channel;
+    private final long size;
+    // end of the mapped content, i.e. start of the next region
+    private long mapped;
+    private MappedByteBuffer region;
+
+    /**
+     * @param file          the file to read
+     * @param deleteOnClose true to delete the file when the stream is closed, e.g. a spool file
+     */
+    public MappedFileInputStream(Path file, boolean deleteOnClose) throws IOException {
+        this(file, deleteOnClose, REGION_SIZE);
+    }
+
+    MappedFileInputStream(Path file, boolean deleteOnClose, long regionSize) throws IOException {
+        this.file = file;
+        this.deleteOnClose = deleteOnClose;
+        this.regionSize = regionSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return nextRegion() ? region.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextRegion()) {
+            return -1;
+        }
+        int count = Math.min(len, region.remaining());
+        region.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        long remaining = size - mapped + (region != null ? region.remaining() : 0);
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+        if (deleteOnClose) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // maps the next region if the current one is read: false at the end of the file
+    private boolean nextRegion() throws IOException {
+        if (region != null && region.hasRemaining()) {
+            return true;
+        }
+        if (mapped >= size) {
+            return false;
+        }
+        long length = Math.min(regionSize, size - mapped);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, mapped, length);
+        mapped += length;
+        return true;
+    }
+}
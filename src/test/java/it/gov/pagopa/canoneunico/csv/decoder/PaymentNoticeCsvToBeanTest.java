@@ -0,0 +1,204 @@
+package it.gov.pagopa.canoneunico.csv.decoder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.enums.CSVReaderNullFieldIndicator;
+import com.opencsv.exceptions.CsvException;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.csv.validaton.CsvValidation;
+import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
+import it.gov.pagopa.canoneunico.csv.validaton.ValidationEngine;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.OrganizationIndex;
+
+class PaymentNoticeCsvToBeanTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private static final String HEADER = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;pa_id_cbill;pa_pec_mail;pa_referent_email;pa_referent_name;amount;debtor_id_fiscal_code;debtor_name;debtor_email;payment_notice_number;note";
+
+    private final Logger logger = Logger.getLogger("testlogging");
+
+    private final OrganizationIndex organizationIndex = getOrganizationIndex();
+
+    private static OrganizationIndex getOrganizationIndex() {
+        EcConfigEntity ec = new EcConfigEntity("01065340372");
+        ec.setPaIdCatasto("C123");
+        ec.setPaIdIstat("997021");
+        return new OrganizationIndex(List.of(ec));
+    }
+
+    // the opencsv configuration of CuCsvService
+    private CsvToBean<PaymentNotice> getOpenCsvToBean(Reader reader) {
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        return new CsvToBeanBuilder<PaymentNotice>(reader)
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withMappingStrategy(mappingStrategy)
+                .withVerifier(new PaymentNoticeVerifier(organizationIndex))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+    }
+
+    private PaymentNoticeCsvToBean getNativeCsvToBean(Reader reader) {
+        return new PaymentNoticeCsvToBean(reader, new PaymentNoticeVerifier(organizationIndex));
+    }
+
+    private PaymentNoticeCsvToBean getParallelCsvToBean(Reader reader, int chunkSize) {
+        return new PaymentNoticeCsvToBean(reader, ValidationEngine.defaultEngine(organizationIndex), POOL, chunkSize);
+    }
+
+    private void assertSameResult(String data) {
+        DebtPositionValidationCsv expected = CsvValidation.checkCsvIsValid(logger, "file.csv", getOpenCsvToBean(new StringReader(data)));
+        assertSameResult(expected, CsvValidation.checkCsvIsValid(logger, "file.csv", getNativeCsvToBean(new StringReader(data))));
+        assertSameResult(expected, CsvValidation.checkCsvIsValid(logger, "file.csv", getParallelCsvToBean(new StringReader(data), 2)));
+    }
+
+    private static void assertSameResult(DebtPositionValidationCsv expected, DebtPositionValidationCsv actual) {
+        assertEquals(expected.getPayments(), actual.getPayments());
+        assertEquals(expected.getTotalNumberRows(), actual.getTotalNumberRows());
+        assertEquals(expected.getNumberInvalidRows(), actual.getNumberInvalidRows());
+        assertEquals(expected.getErrorRows().size(), actual.getErrorRows().size());
+        for (int i = 0; i < expected.getParsingExceptions().size(); i++) {
+            CsvException e = expected.getParsingExceptions().get(i);
+            CsvException a = actual.getParsingExceptions().get(i);
+            assertEquals(e.getClass(), a.getClass());
+            assertEquals(e.getLineNumber(), a.getLineNumber());
+            assertEquals(e.getMessage(), a.getMessage());
+            assertArrayEquals(e.getLine(), a.getLine());
+        }
+    }
+
+    private String readResource(String name) throws IOException {
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(name)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void sameResultOfOpenCsvOnTestFiles() throws IOException {
+        assertSameResult(readResource("2021-04-21_pagcorp0007_0101108TS.csv"));
+        assertSameResult(readResource("2021-04-21_pagcorp0007_0101108TS2_KO.csv"));
+        assertSameResult(readResource("2021-04-21_pagcorp0007_0101108TS2_noEC_KO.csv"));
+        assertSameResult(readResource("2021-04-21_pagcorp0007_0101108TS_payments_ex.csv"));
+        assertSameResult(readResource("csv1.csv"));
+    }
+
+    @Test
+    void sameResultOfOpenCsvOnEdgeCases() {
+        assertSameResult(HEADER.toUpperCase() + "\r\n"
+                + "1;;C123;;;;;;383700;12345678910;Spa;;;note\r\n"
+                + "2;;C123;;;;;; 12 ;12345678910;\"Spa; \"\"quoted\"\"\";;;\r\n"
+                + "3;;C123;;;;;;+5;12345678910; ;;;\r"
+                + "4;;C123;;;;;;99999999999999999999;12345678910;Spa;;;\n"
+                + "\n"
+                + "5;;C123;;;;;;1;12345678910;Spa;; x ;\n"
+                + "6;;C123;;;;;;1;12345678910;\"multi\nline\";;;\n"
+                + "7;;C123;;;;;;1;12345678910;Spa\n"
+                + "\"\";;C123;;;;;;1;12345678910;Spa;;;\n"
+                + "8;;C123;;;;;;1;12345678910;a\"b\"c;;;x\\\"y\\\\z\\w\n"
+                + "9;;C123;;;;;;0x1;12345678910;Spa;;;\n"
+                + "10;;C123;;;;;;-0;12345678910; \"a b\" ;;;\"n\"x\n"
+                + "11;997021;;;;;;;-1;123;Spa;;;\n"
+                + "1;;;01065340372;;;;;;12345678910;Spa;;;\n"
+                + "13;;C123;;;;;;x;;Spa;;y;\n"
+                + "12;;XXX;;;;;;9223372036854775807;12345678910;\"Spa\";;-9223372036854775808;");
+    }
+
+    @Test
+    void sameResultOfOpenCsvOnMultiErrorRows() {
+        // every failing field of a row is reported, in column order
+        assertSameResult("id;pa_id_catasto;amount;debtor_id_fiscal_code;debtor_name;payment_notice_number\n"
+                + "1;C123;x;12345678910;Spa;y\n"
+                + "2;C123;;;Spa;y\n"
+                + "3;C123;x;;;\n"
+                + "4;C123;1;12345678910;Spa;1\n");
+        assertSameResult("payment_notice_number;debtor_name;amount;id;debtor_id_fiscal_code;pa_id_catasto\n"
+                + "y;;x;1;;C123\n"
+                + "1;Spa;1;2;12345678910;C123\n");
+    }
+
+    @Test
+    void sameResultOfOpenCsvWithColumnsInDifferentOrder() {
+        assertSameResult("debtor_name;amount;id;pa_id_catasto;debtor_id_fiscal_code;unknown\n"
+                + "Spa;10;1;C123;12345678910;u\n"
+                + "Spa;;2;C123;12345678910;u\n");
+    }
+
+    @Test
+    void parseLargeFile() {
+        StringBuilder data = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 20_000; i++) {
+            data.append(i).append(";;C123;;;;;;").append(i + 1).append(";12345678910;Spa ").append(i).append(";;;\n");
+        }
+
+        List<PaymentNotice> payments = getNativeCsvToBean(new StringReader(data.toString())).parse();
+
+        assertEquals(20_000, payments.size());
+        assertEquals("19999", payments.get(19_999).getId());
+        assertEquals(20_000, payments.get(19_999).getAmount());
+        assertEquals("Spa 19999", payments.get(19_999).getDebtorName());
+    }
+
+    @Test
+    void missingRequiredColumn() {
+        PaymentNoticeCsvToBean csvToBean = getNativeCsvToBean(new StringReader("id;pa_id_catasto;amount;debtor_name\n1;C123;1;Spa\n"));
+
+        RuntimeException e = assertThrows(RuntimeException.class, csvToBean::parse);
+        assertTrue(String.valueOf(e.getCause()).contains("CsvRequiredFieldEmptyException"));
+    }
+
+    @Test
+    void parallelValidationInLineOrder() {
+        StringBuilder data = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 5_000; i++) {
+            // duplicated ids across the chunks, invalid amounts and fiscal codes
+            data.append(i % 1_000 == 999 ? i - 500 : i).append(";;C123;;;;;;").append(i % 7 == 0 ? "x" : String.valueOf(i % 5))
+                    .append(';').append(i % 11 == 0 ? "123" : "12345678910").append(";Spa;;;\n");
+        }
+
+        DebtPositionValidationCsv sequential = CsvValidation.checkCsvIsValid(logger, "file.csv", getNativeCsvToBean(new StringReader(data.toString())));
+        DebtPositionValidationCsv parallel = CsvValidation.checkCsvIsValid(logger, "file.csv", getParallelCsvToBean(new StringReader(data.toString()), 128));
+
+        assertTrue(sequential.getNumberInvalidRows() > 0);
+        assertSameResult(sequential, parallel);
+    }
+
+    @Test
+    void parallelValidationStopsAtMaxInvalidRows() {
+        StringBuilder data = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 1_000; i++) {
+            data.append(i).append(";;C123;;;;;;").append(i % 3 == 0 ? "0" : "1").append(";12345678910;Spa;;;\n");
+        }
+
+        DebtPositionValidationCsv sequential = CsvValidation.checkCsvIsValid(logger, "file.csv", getNativeCsvToBean(new StringReader(data.toString())), 10);
+        DebtPositionValidationCsv parallel = CsvValidation.checkCsvIsValid(logger, "file.csv", getParallelCsvToBean(new StringReader(data.toString()), 16), 10);
+
+        assertTrue(parallel.isInterrupted());
+        assertEquals(10, parallel.getErrorRows().size());
+        assertSameResult(sequential, parallel);
+    }
+}
@@ -0,0 +1,158 @@
+package it.gov.pagopa.canoneunico.csv.validaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.enums.CSVReaderNullFieldIndicator;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.OrganizationIndex;
+
+class CsvValidationTest {
+
+    private static final String HEADER = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;amount;debtor_id_fiscal_code;debtor_name";
+
+    private final Logger logger = Logger.getLogger("testlogging");
+
+    private CsvToBean<PaymentNotice> getCsvToBean(String data) {
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        return new CsvToBeanBuilder<PaymentNotice>(new StringReader(data))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withMappingStrategy(mappingStrategy)
+                .withVerifier(new PaymentNoticeVerifier(new OrganizationIndex(List.of(ec))))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+    }
+
+    @Test
+    void checkHeaderOK() throws Exception {
+        assertTrue(CsvValidation.checkHeader("file.csv", CsvValidation.parseHeader(HEADER.toUpperCase())).isEmpty());
+    }
+
+    @Test
+    void checkHeaderKO() throws Exception {
+        Optional<DebtPositionValidationCsv> result = CsvValidation.checkHeader("file.csv", CsvValidation.parseHeader("id;id;amount;debtor_name"));
+
+        assertTrue(result.isPresent());
+        assertEquals(1, result.get().getErrorRows().size());
+        assertEquals(1, result.get().getErrorRows().get(0).getRowNumber());
+        assertEquals(List.of("Duplicated column 'id' in header.",
+                "Missing required column 'debtor_id_fiscal_code' in header.",
+                "One of the columns pa_id_istat, pa_id_catasto, pa_id_fiscal_code is required in header."),
+                result.get().getErrorRows().get(0).getErrorsDetail());
+        assertTrue(CsvValidation.checkHeader("file.csv", null).isPresent());
+    }
+
+    @Test
+    void checkCsvIsValidAllRows() {
+        String data = HEADER + "\n"
+                + "1;;C123;;100;12345678910;a\n"
+                + "2;;C123;;0;123;b\n"
+                + "1;;C123;;x;12345678910;c\n"
+                + "3;;C123;;100;12345678910;d\n";
+
+        DebtPositionValidationCsv result = CsvValidation.checkCsvIsValid(logger, "file.csv", getCsvToBean(data));
+
+        assertFalse(result.isInterrupted());
+        assertEquals(4, result.getTotalNumberRows().intValue());
+        assertEquals(2, result.getNumberInvalidRows().intValue());
+        assertEquals(2, result.getPayments().size());
+        assertEquals(2, result.getErrorRows().size());
+        assertEquals(3, result.getErrorRows().get(0).getRowNumber());
+        // every rule is applied to the row, in order
+        assertEquals("The amount must be greater than zero. # The debtor fiscal code length must be equal to 11.",
+                result.getErrorRows().get(0).getErrorsDetail().get(0));
+        assertEquals("2", result.getErrorRows().get(0).getRawLine()[0]);
+        assertEquals(4, result.getErrorRows().get(1).getRowNumber());
+    }
+
+    @Test
+    void checkCsvIsValidMaxInvalidRows() {
+        StringBuilder data = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 1000; i++) {
+            data.append(i).append(";;XXX;;100;12345678910;a\n");
+        }
+
+        DebtPositionValidationCsv result = CsvValidation.checkCsvIsValid(logger, "file.csv", getCsvToBean(data.toString()), 5);
+
+        assertTrue(result.isInterrupted());
+        assertEquals(5, result.getNumberInvalidRows().intValue());
+        assertEquals(5, result.getErrorRows().size());
+        assertEquals(6, result.getErrorRows().get(4).getRowNumber());
+    }
+
+    @Test
+    void checkCsvIsValidMaxInvalidRowsWithMoreErrors() {
+        StringBuilder data = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 1000; i++) {
+            // wrong amount and missing debtor name: 2 errors for each row
+            data.append(i).append(";;C123;;x;12345678910;\n");
+        }
+
+        DebtPositionValidationCsv result = CsvValidation.checkCsvIsValid(logger, "file.csv", getCsvToBean(data.toString()), 5);
+
+        assertTrue(result.isInterrupted());
+        assertEquals(5, result.getNumberInvalidRows().intValue());
+        assertEquals(5, result.getTotalNumberRows().intValue());
+        assertEquals(5, result.getErrorRows().size());
+        assertEquals(2, result.getErrorRows().get(0).getErrorsDetail().size());
+        assertEquals(6, result.getErrorRows().get(4).getRowNumber());
+    }
+
+    @Test
+    void checkCsvIsValidReadError() {
+        StringBuilder data = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < 1000; i++) {
+            data.append(i).append(";;C123;;100;12345678910;a\n");
+        }
+        // the content fails after a part of the rows, e.g. a decompressed file over its limit
+        Reader content = new FilterReader(new StringReader(data.toString())) {
+            private int read;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                read += len;
+                if (read > 10_000) {
+                    throw new IOException("the decompressed file exceeds 10000 bytes");
+                }
+                return super.read(cbuf, off, len);
+            }
+        };
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        CsvToBean<PaymentNotice> csvToBean = new CsvToBeanBuilder<PaymentNotice>(content)
+                .withSeparator(';')
+                .withMappingStrategy(mappingStrategy)
+                .withType(PaymentNotice.class)
+                .withThrowExceptions(false)
+                .build();
+
+        assertThrows(UncheckedIOException.class, () -> CsvValidation.checkCsvIsValid(logger, "file.csv", csvToBean));
+    }
+}
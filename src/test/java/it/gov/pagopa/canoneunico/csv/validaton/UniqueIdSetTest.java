@@ -0,0 +1,57 @@
+package it.gov.pagopa.canoneunico.csv.validaton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class UniqueIdSetTest {
+
+    @Test
+    void detectDuplicatedIds() {
+        UniqueIdSet ids = new UniqueIdSet();
+
+        assertTrue(ids.add("1"));
+        assertTrue(ids.add("0"));
+        assertTrue(ids.add("01"));
+        assertTrue(ids.add("A1"));
+        assertTrue(ids.add("999999999999999999"));
+        assertTrue(ids.add("9999999999999999999"));
+        assertTrue(ids.add(""));
+        assertFalse(ids.add("1"));
+        assertFalse(ids.add("0"));
+        assertFalse(ids.add("01"));
+        assertFalse(ids.add("A1"));
+        assertFalse(ids.add("999999999999999999"));
+        assertFalse(ids.add("9999999999999999999"));
+        assertFalse(ids.add(""));
+        assertEquals(7, ids.size());
+    }
+
+    @Test
+    void sameResultOfHashSet() {
+        UniqueIdSet ids = new UniqueIdSet();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            String id = i % 10 == 0 ? "ID" + (i % 7_000) : String.valueOf((i * 7919L) % 150_000);
+            assertEquals(expected.add(id), ids.add(id), id);
+        }
+        assertEquals(expected.size(), ids.size());
+    }
+
+    @Test
+    void numericIdsUseLessMemory() {
+        UniqueIdSet ids = new UniqueIdSet();
+        for (int i = 0; i < 100_000; i++) {
+            ids.add(String.valueOf(i));
+        }
+
+        // less than 4 MB: a HashSet of the Strings takes about 8 MB
+        assertTrue(ids.memoryUsageBytes() < 4L * 1024 * 1024);
+        assertTrue(ids.memoryUsageBytes() >= 8L * 100_000);
+    }
+}
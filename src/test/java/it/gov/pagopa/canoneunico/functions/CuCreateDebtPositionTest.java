@@ -22,6 +22,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -84,6 +85,43 @@ class CuCreateDebtPositionTest {
 
     }
 
+    @Test
+    void runUpdate() throws JsonProcessingException {
+        // general var
+        Logger logger = Logger.getLogger("testlogging");
+
+        // precondition: the row changed by a re-upload has a debt position already created
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(gpdClient).when(function).getGpdClientInstance();
+        when(gpdClient.updateDebtPosition(any(), any(), any(), any())).thenReturn(200);
+        when(gpdClient.publishDebtPosition(any(), any(), any(), any())).thenReturn(200);
+        doReturn(tableService).when(function).getDebtPositionTableService(logger);
+
+        String message = new ObjectMapper().writeValueAsString(DebtPositionMessage.builder()
+                .csvFilename("csv")
+                .rows(List.of(DebtPositionRowMessage.builder()
+                        .id("001")
+                        .amount(100L)
+                        .iuv("IUV")
+                        .iupd("IUPD")
+                        .paIdFiscalCode("PAFISCALCODE")
+                        .debtorIdFiscalCode("DEBTORFISCALCODE")
+                        .debtorName("DEBTORNAME")
+                        .debtorEmail("DEBTOREMAIL")
+                        .companyName("COMPANY")
+                        .iban("IBAN")
+                        .retryAction("UPDATE")
+                        .build()))
+                .build());
+        function.run(message, context);
+
+        // Asserts
+        verify(gpdClient, never()).createDebtPosition(any(), any(), any(), any());
+        verify(gpdClient, times(1)).updateDebtPosition(any(), any(), any(), any());
+        verify(gpdClient, times(1)).publishDebtPosition(any(), any(), any(), any());
+        verify(tableService, times(1)).updateEntity(anyString(), any(), anyBoolean(), any());
+    }
+
     @Test
     void runFailed() throws JsonProcessingException {
         // general var
@@ -1,12 +1,24 @@
 package it.gov.pagopa.canoneunico.functions;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -17,9 +29,11 @@ import java.security.InvalidKeyException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
-import com.azure.core.util.BinaryData;
 import it.gov.pagopa.canoneunico.model.BlobInfo;
+import it.gov.pagopa.canoneunico.model.FileSegmentMessage;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
@@ -36,8 +50,12 @@ import com.opencsv.enums.CSVReaderNullFieldIndicator;
 import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
 import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
 import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.entity.ProcessedFileStatus;
 import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
 import it.gov.pagopa.canoneunico.service.CuCsvService;
+import it.gov.pagopa.canoneunico.service.FileSegmentService;
+import it.gov.pagopa.canoneunico.service.MemoryGovernor;
+import it.gov.pagopa.canoneunico.service.ProcessedFileService;
 
 @ExtendWith(MockitoExtension.class)
 class CuCsvParsingTest {
@@ -50,7 +68,23 @@ class CuCsvParsingTest {
 
     @Mock
     CuCsvService cuCsvService;
-    
+
+    @Mock
+    FileSegmentService fileSegmentService;
+
+    @Mock
+    ProcessedFileService processedFileService;
+
+    @Mock
+    ProcessedFileService.FileLease fileLease;
+
+    @BeforeEach
+    void setUp() throws CanoneUnicoException {
+        // the files are not processed yet and their blobs are leased
+        lenient().doReturn(processedFileService).when(function).getProcessedFileServiceInstance(any());
+        lenient().when(processedFileService.acquireLease(any())).thenReturn(fileLease);
+    }
+
 
     private String readFromInputStream(InputStream inputStream) {
         StringBuilder resultStringBuilder = new StringBuilder();
@@ -119,16 +153,17 @@ class CuCsvParsingTest {
         // precondition
         when(context.getLogger()).thenReturn(logger);
         doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
-        doReturn(BinaryData.fromBytes(file)).when(function).getContent(context, blobInfo);
-        doReturn(blobInfo).when(function).getDataFromEvent(context, "events");
-        when(cuCsvService.parseCsvToBean(data)).thenReturn(csvToBean);
+        doReturn(new ByteArrayInputStream(file)).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
 
         function.run("events", context);
 
         verify(context, times(1)).getLogger();
         verify(cuCsvService, times(1)).initEcConfigList();
-        verify(cuCsvService, times(1)).parseCsvToBean(data);
-        verify(cuCsvService, times(1)).saveDebtPosition("corp_2021-04-21_pagcorp0007_0101108TS.csv", payments);
+        verify(cuCsvService, times(1)).parseCsvToBean(any(Reader.class));
+        verify(cuCsvService, times(1)).persistDebtPosition("corp_2021-04-21_pagcorp0007_0101108TS.csv", null, payments);
+        verify(processedFileService, times(1)).markProcessed(blobInfo, ProcessedFileStatus.VALID);
     }
     
     @Test
@@ -184,16 +219,16 @@ class CuCsvParsingTest {
         // precondition
         when(context.getLogger()).thenReturn(logger);
         doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
-        doReturn(BinaryData.fromBytes(file)).when(function).getContent(context, blobInfo);
-        doReturn(blobInfo).when(function).getDataFromEvent(context, "events");
-        when(cuCsvService.parseCsvToBean(data)).thenReturn(csvToBean);
+        doReturn(new ByteArrayInputStream(file)).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
 
         function.run("events", context);
 
         verify(context, times(1)).getLogger();
         verify(cuCsvService, times(1)).initEcConfigList();
-        verify(cuCsvService, times(1)).parseCsvToBean(data);
-        verify(cuCsvService, times(1)).saveDebtPosition("corp_2021-04-21_pagcorp0007_0101108TS.csv", payments);
+        verify(cuCsvService, times(1)).parseCsvToBean(any(Reader.class));
+        verify(cuCsvService, times(1)).persistDebtPosition("corp_2021-04-21_pagcorp0007_0101108TS.csv", null, payments);
     }
 
     @Test
@@ -224,19 +259,63 @@ class CuCsvParsingTest {
         // precondition
         when(context.getLogger()).thenReturn(logger);
         doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
-        doReturn(BinaryData.fromBytes(file)).when(function).getContent(context, blobInfo);
-        doReturn(blobInfo).when(function).getDataFromEvent(context, "events");
-        when(cuCsvService.parseCsvToBean(data)).thenReturn(csvToBean);
+        doReturn(new ByteArrayInputStream(file)).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
 
         function.run("events", context);
 
         verify(context, times(1)).getLogger();
         verify(cuCsvService, times(1)).initEcConfigList();
-        verify(cuCsvService, times(1)).parseCsvToBean(data);
-        verify(cuCsvService, times(1)).uploadErrorCsv(any(), any(), any());
-        verify(cuCsvService, times(1)).deleteCsv(any(), any());
+        verify(cuCsvService, times(1)).parseCsvToBean(any(Reader.class));
+        verify(cuCsvService, times(1)).uploadRowsErrorCsv(any(), any(), any());
+        verify(cuCsvService, times(1)).deleteCsv(any(), any(), any());
     }
     
+    @Test
+    void checkParseFilePartialAcceptTest() throws Exception {
+        String data = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;amount;debtor_id_fiscal_code;debtor_name\n"
+                + "1;;C123;;100;12345678910;Spa\n"
+                + "2;;C123;;0;12345678910;Spa\n";
+
+        Logger logger = Logger.getLogger("testlogging");
+
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        organizationsList.add(ec);
+        CsvToBean<PaymentNotice> csvToBean = new CsvToBeanBuilder<PaymentNotice>(new StringReader(data))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withVerifier(new PaymentNoticeVerifier(organizationsList))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+
+        BlobInfo blobInfo = BlobInfo.builder()
+                                    .container("corp")
+                                    .directory("input")
+                                    .name("2021-04-21_pagcorp0007_0101108TS.csv").build();
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(new ByteArrayInputStream(data.getBytes())).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.isPartialAccept("corp")).thenReturn(true);
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
+
+        function.run("events", context);
+
+        // the valid row is persisted, the invalid one reported and the input kept for the output report
+        verify(cuCsvService, times(1)).persistDebtPosition(eq("corp_2021-04-21_pagcorp0007_0101108TS.csv"), any(), anyList());
+        verify(cuCsvService, times(1)).uploadRejectedRowsCsv(eq("corp"), eq("error/2021-04-21_pagcorp0007_0101108TS.csv"), any());
+        verify(cuCsvService, never()).uploadRowsErrorCsv(any(), any(), any());
+        verify(cuCsvService, never()).deleteCsv(any(), any(), any());
+    }
+
     @Test
     void checkParseFileKOTest_noRecordInECConfig() throws InvalidKeyException, StorageException, URISyntaxException, CanoneUnicoException {
 
@@ -265,17 +344,267 @@ class CuCsvParsingTest {
         // precondition
         when(context.getLogger()).thenReturn(logger);
         doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
-        doReturn(BinaryData.fromBytes(file)).when(function).getContent(context, blobInfo);
-        doReturn(blobInfo).when(function).getDataFromEvent(context, "events");
-        when(cuCsvService.parseCsvToBean(data)).thenReturn(csvToBean);
+        doReturn(new ByteArrayInputStream(file)).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
 
         function.run("events", context);
 
         verify(context, times(1)).getLogger();
         verify(cuCsvService, times(1)).initEcConfigList();
-        verify(cuCsvService, times(1)).parseCsvToBean(data);
-        verify(cuCsvService, times(1)).uploadErrorCsv(any(), any(), any());
-        verify(cuCsvService, times(1)).deleteCsv(any(), any());
+        verify(cuCsvService, times(1)).parseCsvToBean(any(Reader.class));
+        verify(cuCsvService, times(1)).uploadRowsErrorCsv(any(), any(), any());
+        verify(cuCsvService, times(1)).deleteCsv(any(), any(), any());
+
+    }
+
+    @Test
+    void checkParseLargeFileSegmentedTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        BlobInfo blobInfo = BlobInfo.builder()
+                                    .container("corp")
+                                    .directory("input")
+                                    .name("2021-04-21_pagcorp0007_0101108TS.csv")
+                                    .contentLength(250_000_000L).build();
+        List<FileSegmentMessage> segments = List.of(FileSegmentMessage.builder().segmentIndex(0)
+                .header("id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;amount;debtor_id_fiscal_code;debtor_name").build());
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(fileSegmentService.split(blobInfo)).thenReturn(segments);
+
+        function.run("events", context);
+
+        verify(fileSegmentService, times(1)).enqueueSegments(segments);
+        verify(cuCsvService, never()).parseCsvToBean(any(Reader.class));
+        verify(cuCsvService, never()).deleteCsv(any(), any(), any());
+    }
+
+    @Test
+    void checkParseGzipFileTest() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        InputStream inputStream = classLoader.getResourceAsStream("2021-04-21_pagcorp0007_0101108TS.csv");
+        String data = readFromInputStream(inputStream);
+
+        Logger logger = Logger.getLogger("testlogging");
+
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        organizationsList.add(ec);
+        CsvToBean<PaymentNotice> csvToBean = new CsvToBeanBuilder<PaymentNotice>(new StringReader(data))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withVerifier(new PaymentNoticeVerifier(organizationsList))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(file)) {
+            gzip.write(data.getBytes());
+        }
+        // a compressed file is never segmented
+        BlobInfo blobInfo = BlobInfo.builder()
+                                    .container("corp")
+                                    .directory("input")
+                                    .name("2021-04-21_pagcorp0007_0101108TS.csv.gz")
+                                    .contentLength(250_000_000L).build();
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(new ByteArrayInputStream(file.toByteArray())).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
+
+        function.run("events", context);
+
+        verify(cuCsvService, times(1)).parseCsvToBean(any(Reader.class));
+        verify(cuCsvService, times(1)).persistDebtPosition(eq("corp_2021-04-21_pagcorp0007_0101108TS.csv.gz"), any(), anyList());
+        verify(fileSegmentService, never()).split(any());
+    }
+
+    @Test
+    void checkParseGzipFileOverLimitTest() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        InputStream inputStream = classLoader.getResourceAsStream("2021-04-21_pagcorp0007_0101108TS.csv");
+        String data = readFromInputStream(inputStream);
+
+        Logger logger = Logger.getLogger("testlogging");
+
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        organizationsList.add(ec);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(file)) {
+            gzip.write(data.getBytes());
+        }
+        BlobInfo blobInfo = BlobInfo.builder()
+                                    .container("corp")
+                                    .directory("input")
+                                    .name("2021-04-21_pagcorp0007_0101108TS.csv.gz")
+                                    .contentLength(file.size()).build();
+
+        // precondition: the CSV content is larger than the limit
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(new ByteArrayInputStream(file.toByteArray())).when(function).getContentStream(context, blobInfo);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        doReturn((long) data.length() / 2).when(function).getDecompressedMaxBytes();
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenAnswer(i -> new CsvToBeanBuilder<PaymentNotice>(i.<Reader>getArgument(0))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withVerifier(new PaymentNoticeVerifier(organizationsList))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build());
+
+        function.run("events", context);
+
+        // the rows read before the limit are not persisted
+        verify(cuCsvService, never()).persistDebtPosition(any(), any(), anyList());
+        verify(cuCsvService, times(1)).uploadErrorCsv("corp", "error/2021-04-21_pagcorp0007_0101108TS.csv", "Generic Error");
+    }
+
+    @Test
+    void checkParseEventsIsolatedFailureTest() throws InvalidKeyException, StorageException, URISyntaxException, CanoneUnicoException {
+
+        ClassLoader classLoader = getClass().getClassLoader();
+        String data = readFromInputStream(classLoader.getResourceAsStream("2021-04-21_pagcorp0007_0101108TS.csv"));
+
+        Logger logger = Logger.getLogger("testlogging");
+
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        CsvToBean<PaymentNotice> csvToBean = new CsvToBeanBuilder<PaymentNotice>(new StringReader(data))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withMappingStrategy(mappingStrategy)
+                .withVerifier(new PaymentNoticeVerifier(List.of(ec)))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+
+        // two files of the same message: the first one is not readable
+        BlobInfo missing = BlobInfo.builder().container("corp").directory("input").name("missing.csv").build();
+        BlobInfo valid = BlobInfo.builder().container("corp").directory("input").name("2021-04-21_pagcorp0007_0101108TS.csv").build();
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doThrow(new CanoneUnicoException("not found")).when(function).getContentStream(context, missing);
+        doReturn(new ByteArrayInputStream(data.getBytes())).when(function).getContentStream(context, valid);
+        doReturn(List.of(missing, valid)).when(function).getDataFromEvents(context, "events");
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(csvToBean);
+
+        function.run("events", context);
+
+        verify(cuCsvService, times(2)).initEcConfigList();
+        verify(cuCsvService, times(1)).uploadErrorCsv("corp", "error/missing.csv", "Generic Error");
+        verify(cuCsvService, times(1)).deleteCsv("corp", "input/missing.csv", null);
+        verify(cuCsvService, times(1)).persistDebtPosition(eq("corp_2021-04-21_pagcorp0007_0101108TS.csv"), any(), anyList());
+    }
+
+    @Test
+    void checkParseEventDuplicatedTest() throws CanoneUnicoException {
+        Logger logger = Logger.getLogger("testlogging");
+        BlobInfo blobInfo = BlobInfo.builder().container("corp").directory("input").name("2021-04-21_pagcorp0007_0101108TS.csv").etag("0x8D9").build();
+
+        // precondition: the file has been processed by a previous delivery of the event
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(processedFileService.isProcessed(blobInfo)).thenReturn(true);
+
+        function.run("events", context);
+
+        verify(processedFileService, never()).acquireLease(any());
+        verify(function, never()).getCuCsvServiceInstance(any());
+        verify(processedFileService, never()).markProcessed(any(), any());
+    }
+
+    @Test
+    void checkParseEventLeasedTest() throws CanoneUnicoException {
+        Logger logger = Logger.getLogger("testlogging");
+        BlobInfo blobInfo = BlobInfo.builder().container("corp").directory("input").name("2021-04-21_pagcorp0007_0101108TS.csv").etag("0x8D9").build();
+
+        // precondition: the file is being processed by a concurrent delivery of the event
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(processedFileService.acquireLease(blobInfo)).thenReturn(null);
+
+        function.run("events", context);
+
+        verify(function, never()).getCuCsvServiceInstance(any());
+        verify(processedFileService, never()).markProcessed(any(), any());
+    }
+
+    @Test
+    void checkParseEventRecordNotReadableTest() throws CanoneUnicoException {
+        Logger logger = Logger.getLogger("testlogging");
+        BlobInfo blobInfo = BlobInfo.builder().container("corp").directory("input").name("2021-04-21_pagcorp0007_0101108TS.csv").etag("0x8D9").build();
+
+        // precondition: the table of the processed files is not available
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(processedFileService.isProcessed(blobInfo)).thenThrow(new CanoneUnicoException("table not available"));
+
+        // the invocation fails: the message is retried by the queue
+        assertThrows(IllegalStateException.class, () -> function.run("events", context));
+
+        verify(processedFileService, never()).acquireLease(any());
+        verify(function, never()).getCuCsvServiceInstance(any());
+    }
+
+    @Test
+    void checkParseEventLeaseErrorTest() throws CanoneUnicoException {
+        Logger logger = Logger.getLogger("testlogging");
+        BlobInfo blobInfo = BlobInfo.builder().container("corp").directory("input").name("2021-04-21_pagcorp0007_0101108TS.csv").etag("0x8D9").build();
+
+        // precondition: the lease fails with an unexpected status, e.g. a throttled request
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        when(processedFileService.acquireLease(blobInfo)).thenThrow(new CanoneUnicoException("lease not acquired"));
+
+        assertThrows(IllegalStateException.class, () -> function.run("events", context));
+
+        verify(function, never()).getCuCsvServiceInstance(any());
+        verify(processedFileService, never()).markProcessed(any(), any());
+    }
+
+    @Test
+    void checkParseEventDeferredTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        BlobInfo blobInfo = BlobInfo.builder().container("corp").directory("input").name("2021-04-21_pagcorp0007_0101108TS.csv")
+                .etag("0x8D9").contentLength(1000).event("event").build();
+
+        // precondition: the memory budget of the instance is exhausted
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(List.of(blobInfo)).when(function).getDataFromEvents(context, "events");
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        MemoryGovernor memoryGovernor = mock(MemoryGovernor.class);
+        doReturn(memoryGovernor).when(function).getMemoryGovernorInstance();
+        when(memoryGovernor.tryReserve(anyString(), anyLong())).thenReturn(null);
+
+        function.run("events", context);
 
+        // the event is re-queued and the file is not processed
+        verify(cuCsvService).deferBlobEvent(eq("event"), anyInt());
+        verify(processedFileService, never()).acquireLease(any());
+        verify(processedFileService, never()).markProcessed(any(), any());
     }
 }
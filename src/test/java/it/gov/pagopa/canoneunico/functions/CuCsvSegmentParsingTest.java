@@ -0,0 +1,266 @@
+package it.gov.pagopa.canoneunico.functions;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.enums.CSVReaderNullFieldIndicator;
+
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.entity.FileSegmentEntity;
+import it.gov.pagopa.canoneunico.entity.SegmentStatus;
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+import it.gov.pagopa.canoneunico.model.FileSegmentMessage;
+import it.gov.pagopa.canoneunico.model.SegmentPhase;
+import it.gov.pagopa.canoneunico.model.error.DebtPositionErrorRow;
+import it.gov.pagopa.canoneunico.service.CuCsvService;
+import it.gov.pagopa.canoneunico.service.FileSegmentService;
+import it.gov.pagopa.canoneunico.util.ObjectMapperUtils;
+
+@ExtendWith(MockitoExtension.class)
+class CuCsvSegmentParsingTest {
+
+    private static final String HEADER = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;pa_id_cbill;pa_pec_email;pa_referent_email;pa_referent_name;amount;debtor_id_fiscal_code;debtor_name;debtor_email;payment_notice_number;note";
+    private static final String ROW = "1;;C123;;;;;;383700;12345678910;Spa;spa@pec.spa.it;;";
+
+    @Mock
+    ExecutionContext context;
+
+    @Spy
+    CuCsvSegmentParsing function;
+
+    @Mock
+    CuCsvService cuCsvService;
+
+    @Mock
+    FileSegmentService fileSegmentService;
+
+    private CsvToBean<PaymentNotice> getCsvToBean(String data) {
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        return new CsvToBeanBuilder<PaymentNotice>(new StringReader(data))
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withMappingStrategy(mappingStrategy)
+                .withVerifier(new PaymentNoticeVerifier(organizationsList))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+    }
+
+    private FileSegmentMessage getSegment(int index, String phase) {
+        return FileSegmentMessage.builder()
+                .container("corp")
+                .directory("input")
+                .name("2021-04-21_pagcorp0007_0101108TS.csv")
+                .etag("etag")
+                .segmentIndex(index)
+                .segmentCount(2)
+                .offset(index * 100L)
+                .length(100L)
+                .header(HEADER)
+                .phase(phase)
+                .build();
+    }
+
+    private FileSegmentEntity getResult(FileSegmentMessage segment, SegmentStatus status) {
+        FileSegmentEntity entity = new FileSegmentEntity("corp_2021-04-21_pagcorp0007_0101108TS.csv", segment.getPhase(), String.valueOf(segment.getSegmentIndex()));
+        entity.setStatus(status.name());
+        entity.setSegmentIndex(segment.getSegmentIndex());
+        entity.setOffset(segment.getOffset());
+        entity.setLength(segment.getLength());
+        return entity;
+    }
+
+    @Test
+    void validateLastSegmentOKTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(1, SegmentPhase.VALIDATE.name());
+        String data = HEADER + "\n" + ROW + "\n";
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenReturn(new StringReader(data));
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(getCsvToBean(data));
+        when(fileSegmentService.getResults(any())).thenReturn(List.of(
+                getResult(getSegment(0, SegmentPhase.VALIDATE.name()), SegmentStatus.VALID),
+                getResult(segment, SegmentStatus.VALID)));
+        when(fileSegmentService.tryFinalize(any())).thenReturn(true);
+
+        function.run(ObjectMapperUtils.writeValueAsString(segment), context);
+
+        verify(cuCsvService, times(1)).initEcConfigList();
+        verify(fileSegmentService, times(1)).saveResult(any(), any(), any());
+        verify(fileSegmentService, times(1)).enqueueSegments(anyList());
+        verify(cuCsvService, never()).deleteCsv(any(), any());
+    }
+
+    @Test
+    void validateLastSegmentKOTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(1, SegmentPhase.VALIDATE.name());
+        String data = HEADER + "\n" + ROW + "\n";
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenReturn(new StringReader(data));
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(getCsvToBean(data));
+        when(fileSegmentService.getResults(any())).thenReturn(List.of(
+                getResult(getSegment(0, SegmentPhase.VALIDATE.name()), SegmentStatus.INVALID),
+                getResult(segment, SegmentStatus.VALID)));
+        when(fileSegmentService.tryFinalize(any())).thenReturn(true);
+
+        function.run(ObjectMapperUtils.writeValueAsString(segment), context);
+
+        verify(fileSegmentService, never()).enqueueSegments(anyList());
+        verify(cuCsvService, times(1)).deleteCsv("corp", "input/2021-04-21_pagcorp0007_0101108TS.csv");
+    }
+
+    @Test
+    void validateLastSegmentDuplicatedIdsTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(1, SegmentPhase.VALIDATE.name());
+        String data = HEADER + "\n" + ROW + "\n";
+        DebtPositionErrorRow duplicated = new DebtPositionErrorRow();
+        duplicated.setRowNumber(3);
+
+        // precondition: the id of the row is also in the first segment
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenReturn(new StringReader(data));
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(getCsvToBean(data));
+        when(fileSegmentService.getResults(any())).thenReturn(List.of(
+                getResult(getSegment(0, SegmentPhase.VALIDATE.name()), SegmentStatus.VALID),
+                getResult(segment, SegmentStatus.VALID)));
+        when(fileSegmentService.tryFinalize(any())).thenReturn(true);
+        when(fileSegmentService.findDuplicatedIds(anyList())).thenReturn(List.of(duplicated));
+
+        function.run(ObjectMapperUtils.writeValueAsString(segment), context);
+
+        verify(cuCsvService, times(1)).uploadRejectedRowsCsv(eq("corp"), eq("error/2021-04-21_pagcorp0007_0101108TS.csv"), any());
+        verify(fileSegmentService, never()).enqueueSegments(anyList());
+        verify(cuCsvService, times(1)).deleteCsv("corp", "input/2021-04-21_pagcorp0007_0101108TS.csv");
+    }
+
+    @Test
+    void validateSegmentNotLastTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(0, SegmentPhase.VALIDATE.name());
+        String data = HEADER + "\n" + ROW + "\n";
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenReturn(new StringReader(data));
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(getCsvToBean(data));
+        when(fileSegmentService.getResults(any())).thenReturn(List.of(getResult(segment, SegmentStatus.VALID)));
+
+        function.run(ObjectMapperUtils.writeValueAsString(segment), context);
+
+        verify(fileSegmentService, never()).tryFinalize(any());
+        verify(fileSegmentService, never()).enqueueSegments(anyList());
+    }
+
+    @Test
+    void validateLastSegmentOtherInErrorTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(1, SegmentPhase.VALIDATE.name());
+        String data = HEADER + "\n" + ROW + "\n";
+
+        // precondition: the validation of the other segment failed and is being retried
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenReturn(new StringReader(data));
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(getCsvToBean(data));
+        when(fileSegmentService.getResults(any())).thenReturn(List.of(
+                getResult(getSegment(0, SegmentPhase.VALIDATE.name()), SegmentStatus.ERROR),
+                getResult(segment, SegmentStatus.VALID)));
+
+        function.run(ObjectMapperUtils.writeValueAsString(segment), context);
+
+        // the file is finalized by the retry of the other segment
+        verify(fileSegmentService, never()).tryFinalize(any());
+        verify(fileSegmentService, never()).enqueueSegments(anyList());
+        verify(cuCsvService, never()).deleteCsv(any(), any());
+    }
+
+    @Test
+    void validateSegmentErrorTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(1, SegmentPhase.VALIDATE.name());
+        String message = ObjectMapperUtils.writeValueAsString(segment);
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenThrow(new CanoneUnicoException("blob not readable"));
+
+        assertThrows(IllegalStateException.class, () -> function.run(message, context));
+
+        verify(fileSegmentService, times(1)).saveResult(any(), eq(SegmentStatus.ERROR), isNull());
+        verify(fileSegmentService, never()).tryFinalize(any());
+        verify(fileSegmentService, never()).enqueueSegments(anyList());
+    }
+
+    @Test
+    void persistSegmentTest() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+        FileSegmentMessage segment = getSegment(0, SegmentPhase.PERSIST.name());
+        String data = HEADER + "\n" + ROW + "\n";
+
+        // precondition
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doReturn(fileSegmentService).when(function).getFileSegmentServiceInstance(logger);
+        when(fileSegmentService.openSegmentReader(any())).thenReturn(new StringReader(data));
+        when(cuCsvService.parseCsvToBean(any(Reader.class))).thenReturn(getCsvToBean(data));
+        when(fileSegmentService.getResults(any())).thenReturn(List.of(getResult(segment, SegmentStatus.PERSISTED)));
+
+        function.run(ObjectMapperUtils.writeValueAsString(segment), context);
+
+        verify(cuCsvService, times(1)).persistDebtPosition(any(), any(), anyList());
+        verify(fileSegmentService, times(1)).saveResult(any(), any(), any());
+    }
+}
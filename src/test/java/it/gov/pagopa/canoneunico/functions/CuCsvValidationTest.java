@@ -0,0 +1,171 @@
+package it.gov.pagopa.canoneunico.functions;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.enums.CSVReaderNullFieldIndicator;
+import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.csv.validaton.PaymentNoticeVerifier;
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.service.CuCsvService;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CuCsvValidationTest {
+
+    @Mock
+    ExecutionContext context;
+
+    @Spy
+    CuCsvValidation function;
+
+    @Mock
+    CuCsvService cuCsvService;
+
+    private CsvToBean<PaymentNotice> getCsvToBean(Reader reader) {
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        HeaderColumnNameMappingStrategy<PaymentNotice> mappingStrategy = new HeaderColumnNameMappingStrategy<>();
+        mappingStrategy.setType(PaymentNotice.class);
+        return new CsvToBeanBuilder<PaymentNotice>(reader)
+                .withSeparator(';')
+                .withFieldAsNull(CSVReaderNullFieldIndicator.BOTH)
+                .withOrderedResults(true)
+                .withMappingStrategy(mappingStrategy)
+                .withVerifier(new PaymentNoticeVerifier(List.of(ec)))
+                .withType(PaymentNotice.class)
+                .withIgnoreLeadingWhiteSpace(true)
+                .withThrowExceptions(false)
+                .build();
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(name)) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private HttpRequestMessage<Optional<byte[]>> mockRequest(byte[] body, HttpStatus expectedStatus) {
+        return mockRequest(body, expectedStatus, Map.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private HttpRequestMessage<Optional<byte[]>> mockRequest(byte[] body, HttpStatus expectedStatus, Map<String, String> queryParameters) {
+        final HttpResponseMessage.Builder builder = mock(HttpResponseMessage.Builder.class);
+        HttpRequestMessage<Optional<byte[]>> request = mock(HttpRequestMessage.class);
+
+        HttpResponseMessage responseMock = mock(HttpResponseMessage.class);
+        doReturn(expectedStatus).when(responseMock).getStatus();
+        doReturn(builder).when(builder).body(any());
+        doReturn(responseMock).when(builder).build();
+        doReturn(builder).when(request).createResponseBuilder(expectedStatus);
+        doReturn(builder).when(builder).header(anyString(), anyString());
+        doReturn(queryParameters).when(request).getQueryParameters();
+        doReturn(Optional.ofNullable(body)).when(request).getBody();
+        return request;
+    }
+
+    @SneakyThrows
+    @Test
+    void runValidFileOK() {
+        Logger logger = Logger.getLogger("testlogging");
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doAnswer(i -> getCsvToBean(i.getArgument(0))).when(cuCsvService).parseCsvToBean(any(Reader.class));
+
+        HttpRequestMessage<Optional<byte[]>> request = mockRequest(readResource("2021-04-21_pagcorp0007_0101108TS.csv"), HttpStatus.OK);
+
+        HttpResponseMessage response = function.run(request, context);
+
+        assertEquals(HttpStatus.OK, response.getStatus());
+        // dry run: the snapshot of the EC config is not written and nothing is uploaded
+        verify(cuCsvService).initEcConfigList(true);
+        verify(cuCsvService, never()).uploadRowsErrorCsv(any(), any(), any());
+        verify(cuCsvService, never()).persistDebtPosition(any(), any(), any());
+    }
+
+    @SneakyThrows
+    @Test
+    void runInvalidFileKO() {
+        Logger logger = Logger.getLogger("testlogging");
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+        doAnswer(i -> getCsvToBean(i.getArgument(0))).when(cuCsvService).parseCsvToBean(any(Reader.class));
+
+        HttpRequestMessage<Optional<byte[]>> request = mockRequest(readResource("2021-04-21_pagcorp0007_0101108TS2_KO.csv"), HttpStatus.BAD_REQUEST);
+
+        HttpResponseMessage response = function.run(request, context);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatus());
+        verify(cuCsvService).writeRowsErrorCsv(any(), any());
+        verify(cuCsvService, never()).uploadRowsErrorCsv(any(), any(), any());
+        verify(cuCsvService, never()).deleteCsv(any(), any());
+    }
+
+    @Test
+    void runEmptyBodyKO() {
+        Logger logger = Logger.getLogger("testlogging");
+        when(context.getLogger()).thenReturn(logger);
+
+        HttpRequestMessage<Optional<byte[]>> request = mockRequest("".getBytes(StandardCharsets.UTF_8), HttpStatus.BAD_REQUEST);
+
+        HttpResponseMessage response = function.run(request, context);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatus());
+        verify(function, never()).getCuCsvServiceInstance(any());
+    }
+
+    @SneakyThrows
+    @Test
+    void runMalformedZipKO() {
+        Logger logger = Logger.getLogger("testlogging");
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(cuCsvService).when(function).getCuCsvServiceInstance(logger);
+
+        HttpRequestMessage<Optional<byte[]>> request = mockRequest("not a zip".getBytes(StandardCharsets.UTF_8), HttpStatus.BAD_REQUEST,
+                Map.of("name", "file.zip"));
+
+        HttpResponseMessage response = function.run(request, context);
+
+        // the archive without a CSV entry is a bad request, not a server error
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatus());
+        verify(cuCsvService, never()).writeRowsErrorCsv(any(), any());
+    }
+
+    @Test
+    void runTooLargeKO() {
+        Logger logger = Logger.getLogger("testlogging");
+        when(context.getLogger()).thenReturn(logger);
+        doReturn(4L).when(function).getDecompressedMaxBytes();
+
+        HttpRequestMessage<Optional<byte[]>> request = mockRequest("id;amount".getBytes(StandardCharsets.UTF_8), HttpStatus.PAYLOAD_TOO_LARGE);
+
+        HttpResponseMessage response = function.run(request, context);
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, response.getStatus());
+        verify(function, never()).getCuCsvServiceInstance(any());
+    }
+}
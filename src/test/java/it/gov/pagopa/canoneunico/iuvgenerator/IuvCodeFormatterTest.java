@@ -0,0 +1,52 @@
+package it.gov.pagopa.canoneunico.iuvgenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.canoneunico.iuvgenerator.exception.UnexpectedValueException;
+
+class IuvCodeFormatterTest {
+
+    private final IuvCodeFormatter formatter = new IuvCodeFormatter(3);
+
+    // the IUV Code as formatted with String.format and BigDecimal
+    private static String reference(int segregationCode, long iuvBase) {
+        String segregationCodeString = String.format("%02d", segregationCode);
+        String iuvBase13Digits = String.format("%013d", iuvBase);
+        String checkDigit = String.format("%02d", new BigDecimal("3" + segregationCodeString + iuvBase13Digits).remainder(new BigDecimal(93)).intValue());
+        return segregationCodeString + iuvBase13Digits + checkDigit;
+    }
+
+    @Test
+    void formatAsReference() {
+        Random random = new Random(47);
+        for (int i = 0; i < 100_000; i++) {
+            int segregationCode = random.nextInt(100);
+            long iuvBase = Math.floorMod(random.nextLong(), 10_000_000_000_000L);
+            assertEquals(reference(segregationCode, iuvBase), formatter.format(segregationCode, iuvBase));
+        }
+        assertEquals(reference(0, 0), formatter.format(0, 0));
+        assertEquals(reference(99, 9_999_999_999_999L), formatter.format(99, 9_999_999_999_999L));
+        assertEquals(reference(47, 1_634_567_890_123L), IuvCodeBusiness.generateIUVFromSequence(47, 1_634_567_890_123L));
+    }
+
+    @Test
+    void formatInBuffer() {
+        char[] buffer = new char[IuvCodeFormatter.IUV_LENGTH + 2];
+        formatter.format(1, 42, buffer, 1);
+        assertEquals(reference(1, 42), new String(buffer, 1, IuvCodeFormatter.IUV_LENGTH));
+    }
+
+    @Test
+    void formatInvalid() {
+        assertThrows(UnexpectedValueException.class, () -> formatter.format(100, 0));
+        assertThrows(UnexpectedValueException.class, () -> formatter.format(-1, 0));
+        assertThrows(UnexpectedValueException.class, () -> formatter.format(1, 10_000_000_000_000L));
+        assertThrows(UnexpectedValueException.class, () -> formatter.format(1, -1));
+    }
+}
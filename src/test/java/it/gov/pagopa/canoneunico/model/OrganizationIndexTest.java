@@ -0,0 +1,64 @@
+package it.gov.pagopa.canoneunico.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+
+class OrganizationIndexTest {
+
+    private List<EcConfigEntity> getOrganizationsList() {
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        ec.setPaIdIstat("1");
+        ec.setCompanyName("company");
+        organizationsList.add(ec);
+        ec = new EcConfigEntity("paFiscalCode2");
+        ec.setPaIdCatasto("C123");
+        ec.setPaIdIstat("2");
+        ec.setCompanyName("company2");
+        organizationsList.add(ec);
+        ec = new EcConfigEntity("paFiscalCode3");
+        ec.setCompanyName("company3");
+        organizationsList.add(ec);
+        return organizationsList;
+    }
+
+    @Test
+    void lookupTest() {
+        OrganizationIndex index = new OrganizationIndex(getOrganizationsList());
+
+        assertEquals("company2", index.findByFiscalCode("paFiscalCode2").getCompanyName());
+        assertEquals("company2", index.findByIdIstat("2").getCompanyName());
+        // the first organization in list order wins
+        assertEquals("company", index.findByIdCatasto("C123").getCompanyName());
+        assertNull(index.findByFiscalCode("wrong"));
+        assertNull(index.findByIdIstat(null));
+    }
+
+    @Test
+    void countTest() {
+        OrganizationIndex index = new OrganizationIndex(getOrganizationsList());
+
+        assertEquals(2, index.countIdCatasto("C123"));
+        assertEquals(1, index.countIdIstat("1"));
+        assertEquals(0, index.countIdIstat("3"));
+        assertEquals(0, index.countIdCatasto(null));
+    }
+
+    @Test
+    void findTest() {
+        OrganizationIndex index = new OrganizationIndex(getOrganizationsList());
+
+        assertEquals("company", index.find("C123", "2", "paFiscalCode3").getCompanyName());
+        assertEquals("company2", index.find(null, "2", "paFiscalCode3").getCompanyName());
+        assertEquals("company3", index.find(null, null, "paFiscalCode3").getCompanyName());
+        assertNull(index.find("wrong", "wrong", "wrong"));
+    }
+}
@@ -15,23 +15,29 @@ import com.microsoft.azure.storage.table.TableBatchOperation;
 import com.microsoft.azure.storage.table.TableRequestOptions;
 import com.opencsv.bean.CsvToBean;
 import it.gov.pagopa.canoneunico.csv.model.PaymentNotice;
+import it.gov.pagopa.canoneunico.csv.validaton.CsvValidation;
 import it.gov.pagopa.canoneunico.entity.DebtPositionEntity;
 import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+import it.gov.pagopa.canoneunico.entity.FileCheckpointEntity;
+import it.gov.pagopa.canoneunico.entity.IuvEntity;
 import it.gov.pagopa.canoneunico.entity.Status;
 import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
 import it.gov.pagopa.canoneunico.model.DebtPositionMessage;
 import it.gov.pagopa.canoneunico.model.DebtPositionRowMessage;
 import it.gov.pagopa.canoneunico.model.DebtPositionValidationCsv;
+import it.gov.pagopa.canoneunico.model.RetryStep;
 import it.gov.pagopa.canoneunico.model.error.DebtPositionErrorRow;
 import org.junit.ClassRule;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
@@ -40,18 +46,36 @@ import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 @Testcontainers
@@ -519,6 +543,389 @@ class CuCsvServiceTest {
         
     }
     
+    @Test
+    void persistDebtPosition() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doReturn(Map.of()).when(csvService).getPreviousDebtPositions(anyString(), any());
+        doNothing().when(csvService).addDebtPositionEntityList(anyList());
+        doNothing().when(csvService).addDebtPositionMsg(any());
+
+        List<PaymentNotice> payments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PaymentNotice p = new PaymentNotice();
+            p.setId(String.valueOf(i));
+            p.setAmount(1);
+            p.setPaIdCatasto("idCatasto");
+            payments.add(p);
+        }
+
+        assertTrue(csvService.persistDebtPosition("fileName", payments));
+        // 5 rows in batches of 2: every saved batch is pushed
+        verify(csvService, times(3)).addDebtPositionEntityList(anyList());
+        verify(csvService, times(3)).addDebtPositionMsg(any());
+    }
+
+    @Test
+    void persistDebtPositionTableError() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doReturn(Map.of()).when(csvService).getPreviousDebtPositions(anyString(), any());
+        doThrow(new StorageException("", "", null)).when(csvService).addDebtPositionEntityList(anyList());
+
+        List<PaymentNotice> payments = new ArrayList<>();
+        PaymentNotice p = new PaymentNotice();
+        p.setId("1");
+        p.setAmount(1);
+        p.setPaIdCatasto("idCatasto");
+        payments.add(p);
+
+        assertFalse(csvService.persistDebtPosition("fileName", payments));
+        // a batch not saved is not pushed
+        verify(csvService, never()).addDebtPositionMsg(any());
+    }
+
+    @Test
+    void persistDebtPositionResumed() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doReturn(Map.of()).when(csvService).getPreviousDebtPositions(anyString(), any());
+        doNothing().when(csvService).addDebtPositionEntityList(anyList());
+        doNothing().when(csvService).addDebtPositionMsg(any());
+
+        // a previous attempt saved 2 batches and pushed the first one
+        FileCheckpointEntity checkpoint = new FileCheckpointEntity("fileName", "etag");
+        checkpoint.setBatchSize(2);
+        checkpoint.setSavedBatches(2);
+        checkpoint.setPushedBatches(1);
+        checkpoint.setCompleted(false);
+        FileCheckpointService checkpoints = mock(FileCheckpointService.class);
+        when(checkpoints.read("fileName", "etag", 2)).thenReturn(checkpoint);
+        doReturn(checkpoints).when(csvService).getFileCheckpointService();
+
+        List<PaymentNotice> payments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PaymentNotice p = new PaymentNotice();
+            p.setId(String.valueOf(i));
+            p.setAmount(1);
+            p.setPaIdCatasto("idCatasto");
+            payments.add(p);
+        }
+        DebtPositionEntity saved2 = new DebtPositionEntity("fileName", "2");
+        saved2.setStatus(Status.INSERTED.name());
+        saved2.setAmount("1");
+        DebtPositionEntity saved3 = new DebtPositionEntity("fileName", "3");
+        saved3.setStatus(Status.INSERTED.name());
+        saved3.setAmount("1");
+        doReturn(List.of(saved2, saved3)).when(csvService).getDebtPositionEntityList("fileName", List.of("2", "3"));
+
+        assertTrue(csvService.persistDebtPosition("fileName", "etag", payments));
+        // the second batch is read back and pushed, only the last one gets new IUVs and is saved
+        verify(csvService, times(1)).getValidIUVs(anyString(), anyInt(), eq(1));
+        verify(csvService, times(1)).addDebtPositionEntityList(anyList());
+        verify(csvService, times(2)).addDebtPositionMsg(any());
+        verify(checkpoints, times(1)).saved(checkpoint, 3);
+        verify(checkpoints, times(1)).pushed(checkpoint, 2);
+        verify(checkpoints, times(1)).pushed(checkpoint, 3);
+        verify(checkpoints, times(1)).completed(checkpoint);
+    }
+
+    @Test
+    void persistDebtPositionAlreadySaved() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doReturn(Map.of()).when(csvService).getPreviousDebtPositions(anyString(), any());
+        doNothing().when(csvService).addDebtPositionMsg(any());
+
+        // a previous attempt saved the batch and crashed before its checkpoint
+        FileCheckpointEntity checkpoint = new FileCheckpointEntity("fileName", "etag");
+        checkpoint.setBatchSize(2);
+        checkpoint.setSavedBatches(0);
+        checkpoint.setPushedBatches(0);
+        checkpoint.setCompleted(false);
+        FileCheckpointService checkpoints = mock(FileCheckpointService.class);
+        when(checkpoints.read("fileName", "etag", 2)).thenReturn(checkpoint);
+        doReturn(checkpoints).when(csvService).getFileCheckpointService();
+        doThrow(new StorageException("EntityAlreadyExists", "0:The specified entity already exists.", 409, null, null))
+                .when(csvService).addDebtPositionEntityList(anyList());
+
+        List<PaymentNotice> payments = new ArrayList<>();
+        List<DebtPositionEntity> stored = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            PaymentNotice p = new PaymentNotice();
+            p.setId(String.valueOf(i));
+            p.setAmount(1);
+            p.setPaIdCatasto("idCatasto");
+            payments.add(p);
+            DebtPositionEntity e = new DebtPositionEntity("fileName", p.getId());
+            e.setStatus(Status.INSERTED.name());
+            e.setAmount("1");
+            e.setUploadId("etag");
+            e.setContentHash(CuCsvService.getContentHash(p));
+            stored.add(e);
+        }
+        doReturn(stored).when(csvService).getDebtPositionEntityList("fileName", List.of("0", "1"));
+
+        assertTrue(csvService.persistDebtPosition("fileName", "etag", payments));
+        // the rows read back are of this upload: the batch is pushed
+        verify(csvService, times(1)).addDebtPositionMsg(any());
+        verify(checkpoints, times(1)).completed(checkpoint);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void persistDebtPositionDelta() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doNothing().when(csvService).addDebtPositionEntityList(anyList());
+        doNothing().when(csvService).addDebtPositionMsg(any());
+
+        List<PaymentNotice> payments = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            PaymentNotice p = new PaymentNotice();
+            p.setId(String.valueOf(i));
+            p.setAmount(1);
+            p.setPaIdCatasto("idCatasto");
+            payments.add(p);
+        }
+        // the previous upload has the row 0 unchanged and the row 1 with another amount, the row 2 is new
+        DebtPositionEntity unchanged = new DebtPositionEntity("fileName", "0");
+        unchanged.setContentHash(CuCsvService.getContentHash(payments.get(0)));
+        unchanged.setEtag("etag0");
+        PaymentNotice oldRow = new PaymentNotice();
+        oldRow.setId("1");
+        oldRow.setAmount(2);
+        oldRow.setPaIdCatasto("idCatasto");
+        DebtPositionEntity changed = new DebtPositionEntity("fileName", "1");
+        changed.setContentHash(CuCsvService.getContentHash(oldRow));
+        changed.setEtag("etag1");
+        doReturn(Map.of("0", unchanged, "1", changed)).when(csvService).getPreviousDebtPositions("fileName", null);
+
+        assertTrue(csvService.persistDebtPosition("fileName", payments));
+        // only the changed and the new row get an IUV and are saved: the changed one replaces its previous version
+        verify(csvService, times(1)).getValidIUVs(anyString(), anyInt(), eq(2));
+        ArgumentCaptor<List<DebtPositionEntity>> saved = ArgumentCaptor.forClass(List.class);
+        verify(csvService, times(1)).addDebtPositionEntityList(saved.capture());
+        assertEquals(List.of("1", "2"), saved.getValue().stream().map(DebtPositionEntity::getRowKey).collect(Collectors.toList()));
+        assertEquals("etag1", saved.getValue().get(0).getEtag());
+        assertEquals("*", saved.getValue().get(1).getEtag());
+        verify(csvService, times(1)).addDebtPositionMsg(any());
+    }
+
+    @Test
+    void persistDebtPositionDeltaKeepsIuv() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doNothing().when(csvService).addDebtPositionEntityList(anyList());
+        doNothing().when(csvService).addDebtPositionMsg(any());
+
+        PaymentNotice p = new PaymentNotice();
+        p.setId("0");
+        p.setAmount(1);
+        p.setPaIdCatasto("idCatasto");
+        // the row has another amount since the previous upload, whose debt position is created in GPD
+        DebtPositionEntity created = new DebtPositionEntity("fileName", "0");
+        created.setContentHash("old-hash");
+        created.setEtag("etag0");
+        created.setStatus(Status.CREATED.name());
+        created.setPaIdFiscalCode("paFiscalCode");
+        created.setPaymentNoticeNumber("oldIuv");
+        created.setIupd("oldIupd");
+        doReturn(Map.of("0", created)).when(csvService).getPreviousDebtPositions("fileName", null);
+
+        assertTrue(csvService.persistDebtPosition("fileName", List.of(p)));
+        // the changed row replaces its previous version with the same IUV, and updates its debt position
+        verify(csvService, never()).getValidIUVs(anyString(), anyInt(), anyInt());
+        ArgumentCaptor<List<DebtPositionEntity>> saved = ArgumentCaptor.forClass(List.class);
+        verify(csvService, times(1)).addDebtPositionEntityList(saved.capture());
+        assertEquals("oldIuv", saved.getValue().get(0).getPaymentNoticeNumber());
+        assertEquals("oldIupd", saved.getValue().get(0).getIupd());
+        assertEquals("etag0", saved.getValue().get(0).getEtag());
+        ArgumentCaptor<DebtPositionMessage> pushed = ArgumentCaptor.forClass(DebtPositionMessage.class);
+        verify(csvService, times(1)).addDebtPositionMsg(pushed.capture());
+        assertEquals(RetryStep.UPDATE.name(), pushed.getValue().getRows().get(0).getRetryAction());
+    }
+
+    @Test
+    void persistDebtPositionDeltaReplacedByAnotherUpload() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        doAnswer(i -> Collections.nCopies(i.getArgument(2), "iuv")).when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+
+        FileCheckpointEntity checkpoint = new FileCheckpointEntity("fileName", "etag");
+        checkpoint.setBatchSize(2);
+        checkpoint.setSavedBatches(0);
+        checkpoint.setPushedBatches(0);
+        checkpoint.setCompleted(false);
+        FileCheckpointService checkpoints = mock(FileCheckpointService.class);
+        when(checkpoints.read("fileName", "etag", 2)).thenReturn(checkpoint);
+        doReturn(checkpoints).when(csvService).getFileCheckpointService();
+
+        PaymentNotice p = new PaymentNotice();
+        p.setId("0");
+        p.setAmount(1);
+        p.setPaIdCatasto("idCatasto");
+        // the row changed since the previous upload, whose debt position is updated while the replace runs
+        DebtPositionEntity previous = new DebtPositionEntity("fileName", "0");
+        previous.setContentHash("old-hash");
+        previous.setUploadId("old");
+        previous.setEtag("etag0");
+        doReturn(Map.of("0", previous)).when(csvService).getPreviousDebtPositions("fileName", "etag");
+        doThrow(new StorageException("UpdateConditionNotSatisfied", "0:The update condition specified in the request was not satisfied.", 412, null, null))
+                .when(csvService).addDebtPositionEntityList(anyList());
+        DebtPositionEntity stored = new DebtPositionEntity("fileName", "0");
+        stored.setStatus(Status.CREATED.name());
+        stored.setContentHash("old-hash");
+        stored.setUploadId("old");
+        doReturn(List.of(stored)).when(csvService).getDebtPositionEntityList("fileName", List.of("0"));
+
+        assertFalse(csvService.persistDebtPosition("fileName", "etag", List.of(p)));
+        // the row read back is of the previous upload: it is not pushed and the file is not completed
+        verify(csvService, never()).addDebtPositionMsg(any());
+        verify(checkpoints, never()).completed(checkpoint);
+    }
+
+    @Test
+    void persistDebtPositionProducerError() throws Exception {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "ecConfigT", 2, logger));
+
+        //precondition
+        List<EcConfigEntity> organizationsList = new ArrayList<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("idCatasto");
+        ec.setCompanyName("company");
+        ec.setIban("iban");
+        organizationsList.add(ec);
+        Field list = csvService.getClass().getDeclaredField("organizationsList");
+        list.setAccessible(true); // Suppress Java language access checking
+        list.set(csvService, organizationsList);
+        // the IUVs of the second batch are not available
+        doReturn(Collections.nCopies(2, "iuv"))
+                .doThrow(new CanoneUnicoException("IUVs not available"))
+                .when(csvService).getValidIUVs(anyString(), anyInt(), anyInt());
+        doReturn(Map.of()).when(csvService).getPreviousDebtPositions(anyString(), any());
+        doNothing().when(csvService).addDebtPositionEntityList(anyList());
+        doNothing().when(csvService).addDebtPositionMsg(any());
+
+        FileCheckpointEntity checkpoint = new FileCheckpointEntity("fileName", "etag");
+        checkpoint.setBatchSize(2);
+        checkpoint.setSavedBatches(0);
+        checkpoint.setPushedBatches(0);
+        checkpoint.setCompleted(false);
+        FileCheckpointService checkpoints = mock(FileCheckpointService.class);
+        when(checkpoints.read("fileName", "etag", 2)).thenReturn(checkpoint);
+        doReturn(checkpoints).when(csvService).getFileCheckpointService();
+
+        List<PaymentNotice> payments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PaymentNotice p = new PaymentNotice();
+            p.setId(String.valueOf(i));
+            p.setAmount(1);
+            p.setPaIdCatasto("idCatasto");
+            payments.add(p);
+        }
+
+        assertThrows(CanoneUnicoException.class, () -> csvService.persistDebtPosition("fileName", "etag", payments));
+        // the stages are cancelled: at most the first batch, queued before the failure, is persisted
+        verify(csvService, times(2)).getValidIUVs(anyString(), anyInt(), anyInt());
+        verify(csvService, atMost(1)).addDebtPositionEntityList(anyList());
+        verify(csvService, atMost(2)).addDebtPositionMsg(any());
+        verify(checkpoints, never()).saved(checkpoint, 2);
+        verify(checkpoints, never()).completed(checkpoint);
+    }
+
     @Test
     void pushDebtPosition() throws InvalidKeyException, URISyntaxException, StorageException {
         Logger logger = Logger.getLogger("testlogging");
@@ -732,6 +1139,39 @@ class CuCsvServiceTest {
         
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    void getValidIUVsConflict() throws InvalidKeyException, URISyntaxException, StorageException, CanoneUnicoException {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "debtPositionT", "iuv", "47", logger));
+
+        // the second IUV of the first block already exists
+        StorageException conflict = new StorageException("EntityAlreadyExists", "1:The specified entity already exists.", 409, null, null);
+        List<List<String>> blocks = new ArrayList<>();
+        doAnswer(i -> {
+            List<IuvEntity> entities = i.getArgument(0);
+            blocks.add(entities.stream().map(IuvEntity::getRowKey).collect(Collectors.toList()));
+            if (blocks.size() == 1) {
+                throw conflict;
+            }
+            return null;
+        }).when(csvService).reserveIUVs(anyList());
+
+        List<String> iuvs = csvService.getValidIUVs("fiscal-code", 47, 150);
+
+        // 150 IUVs: a block of 100 reserved at the second attempt and a block of 50
+        assertEquals(150, iuvs.size());
+        assertEquals(150, iuvs.stream().distinct().count());
+        assertEquals(3, blocks.size());
+        assertEquals(100, blocks.get(0).size());
+        assertEquals(50, blocks.get(2).size());
+        // only the colliding IUV is generated again
+        assertNotEquals(blocks.get(0).get(1), blocks.get(1).get(1));
+        assertEquals(blocks.get(0).subList(2, 100), blocks.get(1).subList(2, 100));
+        assertEquals(blocks.get(0).get(0), blocks.get(1).get(0));
+    }
+
     @Test
     void generateIncrementalIUV() throws InvalidKeyException, URISyntaxException, StorageException {
         Logger logger = Logger.getLogger("testlogging");
@@ -744,31 +1184,90 @@ class CuCsvServiceTest {
     
     
     @Test
-    void generateErrorCsv() {
+    void generateErrorCsv() throws IOException {
         Logger logger = Logger.getLogger("testlogging");
 
         var csvService = spy(new CuCsvService(storageConnectionString, "debtPositionT", "debtPositionQ", logger));
         
-        StringWriter csv = new StringWriter();
-        
         String headers = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;pa_id_cbill;pa_pec_email;pa_referent_email;pa_referent_name;amount;debtor_id_fiscal_code;debtor_name;debtor_email;payment_notice_number;note";
         String row = "1;;C123;;;;;;383700;123456;Spa;spa@pec.spa.it;;";
         
-        csv.append(headers);
-        csv.append(System.lineSeparator());
-        csv.append(row);
-        
-        
-        
         DebtPositionErrorRow rowErr = new DebtPositionErrorRow();
         rowErr.setRowNumber(2);
+        rowErr.setRawLine(row.split(";", -1));
         rowErr.getErrorsDetail().add("error");
+        PaymentNotice p = new PaymentNotice();
+        p.setId("2");
+        p.setPaIdCatasto("C123");
+        p.setAmount(100);
+        p.setDebtorFiscalCode("12345678910");
+        p.setDebtorName("Spa");
         DebtPositionValidationCsv validCsv = new DebtPositionValidationCsv();
+        validCsv.setHeader(CsvValidation.parseHeader(headers));
+        validCsv.setPayments(List.of(p));
+        validCsv.setTotalNumberRows(2);
+        validCsv.setNumberInvalidRows(1);
         validCsv.getErrorRows().add(rowErr);
         
-        
-        String errorFile = csvService.generateRowsErrorCsv(csv.toString(), validCsv);
-        assertNotNull(errorFile);
+        StringWriter errorFile = new StringWriter();
+        csvService.writeRowsErrorCsv(errorFile, validCsv);
+
+        String[] lines = errorFile.toString().split("\\R");
+        assertTrue(lines[0].endsWith(";note;errors_note"));
+        // pa_pec_email is not a template column (pa_pec_mail): its value is not reported
+        assertEquals("\"1\";\"\";\"C123\";\"\";\"\";;\"\";\"\";\"383700\";\"123456\";\"Spa\";\"spa@pec.spa.it\";\"\";\"\";\"validation error: [error]\"", lines[1]);
+        assertTrue(lines[2].startsWith("\"2\";"));
+        // the empty payment_notice_number is not written as 0
+        assertTrue(lines[2].endsWith(";\"100\";\"12345678910\";\"Spa\";;;;\"N/A\""));
+        assertEquals("nLinesError/nTotLines:1/2", lines[lines.length - 1]);
+    }
+
+    @Test
+    void generateErrorCsvHeaderNotValid() throws IOException {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = new CuCsvService(storageConnectionString, "debtPositionT", "debtPositionQ", logger);
+        DebtPositionValidationCsv headerValidation = CsvValidation.checkHeader("file.csv", CsvValidation.parseHeader("id;amount")).orElseThrow();
+
+        StringWriter errorFile = new StringWriter();
+        csvService.writeRowsErrorCsv(errorFile, headerValidation);
+
+        String[] lines = errorFile.toString().split("\\R");
+        // the header errors only: the rows are not read, so there are no counts
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].contains("Missing required column"));
+    }
+
+    @Test
+    void generateRejectedRowsCsv() throws IOException {
+        Logger logger = Logger.getLogger("testlogging");
+
+        var csvService = spy(new CuCsvService(storageConnectionString, "debtPositionT", "debtPositionQ", logger));
+
+        String headers = "id;pa_id_istat;pa_id_catasto;pa_id_fiscal_code;pa_id_cbill;pa_pec_mail;pa_referent_email;pa_referent_name;amount;debtor_id_fiscal_code;debtor_name;debtor_email;payment_notice_number;note";
+        DebtPositionValidationCsv validCsv = new DebtPositionValidationCsv();
+        validCsv.setHeader(CsvValidation.parseHeader(headers));
+        validCsv.setPayments(List.of(new PaymentNotice()));
+        validCsv.setTotalNumberRows(3);
+        validCsv.setNumberInvalidRows(2);
+        for (int line : new int[]{4, 2}) {
+            DebtPositionErrorRow rowErr = new DebtPositionErrorRow();
+            rowErr.setRowNumber(line);
+            rowErr.setRawLine((line + ";;C123;;;;;;0;12345678910;Spa;;;").split(";", -1));
+            rowErr.getErrorsDetail().add("error");
+            validCsv.getErrorRows().add(rowErr);
+        }
+
+        StringWriter errorFile = new StringWriter();
+        csvService.writeRejectedRowsCsv(errorFile, validCsv);
+
+        // only the rejected rows, in line order, without footer
+        String[] lines = errorFile.toString().split("\\R");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].endsWith(";note;errors_note"));
+        assertTrue(lines[1].startsWith("\"2\";"));
+        assertTrue(lines[2].startsWith("\"4\";"));
+        assertTrue(lines[2].endsWith(";\"validation error: [error]\""));
     }
     
    
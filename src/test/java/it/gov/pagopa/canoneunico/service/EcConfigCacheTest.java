@@ -0,0 +1,152 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+
+class EcConfigCacheTest {
+
+    private static final long TTL = 1000;
+    private static final long FULL_RELOAD = 10000;
+
+    private final AtomicLong now = new AtomicLong(0);
+    private final List<Date> loads = new ArrayList<>();
+
+    private EcConfigEntity getEcConfig(String paIdFiscalCode, String companyName, long timestamp) {
+        EcConfigEntity ec = new EcConfigEntity(paIdFiscalCode);
+        ec.setCompanyName(companyName);
+        ec.setTimestamp(new Date(timestamp));
+        return ec;
+    }
+
+    private EcConfigCache.EcConfigLoader loader(List<EcConfigEntity> all, List<EcConfigEntity> modified) {
+        return modifiedSince -> {
+            loads.add(modifiedSince);
+            return modifiedSince == null ? all : modified;
+        };
+    }
+
+    @Test
+    void cachedWithinTtl() throws Exception {
+        EcConfigCache cache = new EcConfigCache(now::get);
+        EcConfigCache.EcConfigLoader loader = loader(List.of(getEcConfig("fc1", "company1", 100)), List.of());
+
+        EcConfigCache.Snapshot first = cache.get(TTL, FULL_RELOAD, loader);
+        now.set(TTL - 1);
+        EcConfigCache.Snapshot second = cache.get(TTL, FULL_RELOAD, loader);
+
+        assertSame(first, second);
+        assertEquals(1, loads.size());
+        assertNull(loads.get(0));
+    }
+
+    @Test
+    void incrementalRefreshAfterTtl() throws Exception {
+        EcConfigCache cache = new EcConfigCache(now::get);
+        EcConfigCache.EcConfigLoader loader = loader(
+                List.of(getEcConfig("fc1", "company1", 100), getEcConfig("fc2", "company2", 200)),
+                List.of(getEcConfig("fc2", "company2-updated", 300), getEcConfig("fc3", "company3", 300)));
+
+        cache.get(TTL, FULL_RELOAD, loader);
+        now.set(TTL);
+        EcConfigCache.Snapshot snapshot = cache.get(TTL, FULL_RELOAD, loader);
+
+        assertEquals(2, loads.size());
+        assertEquals(new Date(200), loads.get(1));
+        assertEquals(3, snapshot.getOrganizations().size());
+        assertEquals("company2-updated", snapshot.getOrganizationIndex().findByFiscalCode("fc2").getCompanyName());
+        assertEquals(new Date(300), snapshot.getLastModified());
+    }
+
+    @Test
+    void fullReloadDropsDeletedOrganizations() throws Exception {
+        EcConfigCache cache = new EcConfigCache(now::get);
+        cache.get(TTL, FULL_RELOAD, loader(List.of(getEcConfig("fc1", "company1", 100), getEcConfig("fc2", "company2", 100)), List.of()));
+
+        now.set(FULL_RELOAD);
+        EcConfigCache.Snapshot snapshot = cache.get(TTL, FULL_RELOAD, loader(List.of(getEcConfig("fc1", "company1", 100)), List.of()));
+
+        assertNull(loads.get(1));
+        assertEquals(1, snapshot.getOrganizations().size());
+        assertNull(snapshot.getOrganizationIndex().findByFiscalCode("fc2"));
+    }
+
+    @Test
+    void emptyConfigurationNotCached() throws Exception {
+        EcConfigCache cache = new EcConfigCache(now::get);
+
+        cache.get(TTL, FULL_RELOAD, loader(List.of(), List.of()));
+        EcConfigCache.Snapshot snapshot = cache.get(TTL, FULL_RELOAD, loader(List.of(getEcConfig("fc1", "company1", 100)), List.of()));
+
+        assertEquals(2, loads.size());
+        assertEquals(1, snapshot.getOrganizations().size());
+    }
+
+    @Test
+    void coldStartFromSnapshot() throws Exception {
+        EcConfigCache cache = new EcConfigCache(now::get);
+        now.set(5000);
+        Map<String, EcConfigEntity> stored = new LinkedHashMap<>();
+        stored.put("fc1", getEcConfig("fc1", "company1", 100));
+        List<String> written = new ArrayList<>();
+        EcConfigCache.SnapshotStore store = new EcConfigCache.SnapshotStore() {
+            @Override
+            public EcConfigCache.Snapshot read() {
+                return new EcConfigCache.Snapshot(stored, new Date(100), 0, 4000, "v1");
+            }
+
+            @Override
+            public String write(EcConfigCache.Snapshot snapshot, String version) {
+                written.add(version);
+                return "v2";
+            }
+        };
+
+        EcConfigCache.Snapshot snapshot = cache.get(TTL, FULL_RELOAD, loader(List.of(), List.of(getEcConfig("fc2", "company2", 200))), store);
+
+        // only the changes after the snapshot are loaded from the table, then the snapshot is rewritten
+        assertEquals(List.of(new Date(100)), loads);
+        assertEquals(2, snapshot.getOrganizations().size());
+        assertEquals(List.of("v1"), written);
+        assertEquals("v2", snapshot.getVersion());
+    }
+
+    @Test
+    void snapshotNotRewrittenIfUnchanged() throws Exception {
+        EcConfigCache cache = new EcConfigCache(now::get);
+        now.set(5000);
+        Map<String, EcConfigEntity> stored = new LinkedHashMap<>();
+        stored.put("fc1", getEcConfig("fc1", "company1", 100));
+        List<String> written = new ArrayList<>();
+        EcConfigCache.SnapshotStore store = new EcConfigCache.SnapshotStore() {
+            @Override
+            public EcConfigCache.Snapshot read() {
+                return new EcConfigCache.Snapshot(stored, new Date(100), 0, 4000, "v1");
+            }
+
+            @Override
+            public String write(EcConfigCache.Snapshot snapshot, String version) {
+                written.add(version);
+                return "v2";
+            }
+        };
+
+        // the incremental query returns the entity with the last timestamp already in the snapshot
+        EcConfigCache.Snapshot snapshot = cache.get(TTL, FULL_RELOAD, loader(List.of(), List.of(getEcConfig("fc1", "company1", 100))), store);
+
+        assertEquals(1, snapshot.getOrganizations().size());
+        assertEquals(List.of(), written);
+        assertEquals("v1", snapshot.getVersion());
+    }
+}
@@ -0,0 +1,61 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.canoneunico.entity.EcConfigEntity;
+
+class EcConfigSnapshotStoreTest {
+
+    @Test
+    void encodeDecode() throws IOException {
+        Map<String, EcConfigEntity> organizations = new LinkedHashMap<>();
+        EcConfigEntity ec = new EcConfigEntity("paFiscalCode");
+        ec.setPaIdCatasto("C123");
+        ec.setPaIdIstat("001");
+        ec.setCompanyName("Comune di Città");
+        ec.setIban("IT60X0542811101000000123456");
+        ec.setTimestamp(new Date(1000));
+        organizations.put(ec.getRowKey(), ec);
+        ec = new EcConfigEntity("paFiscalCode2");
+        ec.setCompanyName("company2");
+        ec.setTimestamp(null);
+        organizations.put(ec.getRowKey(), ec);
+        EcConfigCache.Snapshot snapshot = new EcConfigCache.Snapshot(organizations, new Date(1000), 5, 42);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EcConfigSnapshotStore.encode(snapshot, out);
+        EcConfigCache.Snapshot decoded = EcConfigSnapshotStore.decode(new ByteArrayInputStream(out.toByteArray()), "etag");
+
+        assertEquals(2, decoded.getOrganizations().size());
+        assertEquals(new Date(1000), decoded.getLastModified());
+        assertEquals(42, decoded.getFullLoadedAt());
+        assertEquals(0, decoded.getRefreshedAt());
+        assertEquals("etag", decoded.getVersion());
+        EcConfigEntity first = decoded.getOrganizationIndex().findByIdCatasto("C123");
+        assertEquals("paFiscalCode", first.getRowKey());
+        assertEquals("org", first.getPartitionKey());
+        assertEquals("001", first.getPaIdIstat());
+        assertEquals("Comune di Città", first.getCompanyName());
+        assertEquals("IT60X0542811101000000123456", first.getIban());
+        assertEquals(new Date(1000), first.getTimestamp());
+        EcConfigEntity second = decoded.getOrganizationIndex().findByFiscalCode("paFiscalCode2");
+        assertNull(second.getIban());
+        assertNull(second.getTimestamp());
+    }
+
+    @Test
+    void decodeNotSnapshot() {
+        assertThrows(IOException.class, () -> EcConfigSnapshotStore.decode(new ByteArrayInputStream("id;amount".getBytes()), null));
+    }
+}
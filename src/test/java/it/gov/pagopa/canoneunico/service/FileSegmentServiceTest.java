@@ -0,0 +1,91 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.canoneunico.csv.validaton.UniqueIdSet;
+import it.gov.pagopa.canoneunico.exception.CanoneUnicoException;
+import it.gov.pagopa.canoneunico.model.error.DebtPositionErrorRow;
+
+class FileSegmentServiceTest {
+
+    @Test
+    void rowBoundaryAfterFirstNewLine() {
+        byte[] window = "C123;;;383700\n2;;C123;;;383700\n".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(14, FileSegmentService.rowBoundary(window));
+    }
+
+    @Test
+    void rowBoundaryNotFound() {
+        byte[] window = "C123;;;383700".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(-1, FileSegmentService.rowBoundary(window));
+    }
+
+    @Test
+    void rowBoundaryInQuotedField() {
+        // the window starts inside a quoted note: the first new line is not the end of the row
+        byte[] opened = "first line\nsecond line\";\n2;;C123;;;383700\n".getBytes(StandardCharsets.UTF_8);
+        // the window ends before the quoted field is closed
+        byte[] closed = ";383700\n2;;C123;;;383700;;;;\"a note".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(FileSegmentService.QUOTED_ROW, FileSegmentService.rowBoundary(opened));
+        assertEquals(FileSegmentService.QUOTED_ROW, FileSegmentService.rowBoundary(closed));
+    }
+
+    @Test
+    void nextRowStartAfterQuotedNewLine() throws IOException {
+        // the first new line is inside the quoted note of the first row
+        InputStream rows = rows("1;;C123;;;383700;;;;\"first line\nsecond line\"\n2;;C123;;;383700\n");
+
+        assertEquals(45, FileSegmentService.nextRowStart(rows, 0));
+    }
+
+    @Test
+    void nextRowStartAfterEscapedQuote() throws IOException {
+        // an escaped quote does not open a field, a doubled quote does not close it
+        InputStream escaped = rows("1;;C123;;;383700;;;;a \\\"note\n2;;C123;;;383700\n");
+        InputStream doubled = rows("1;;C123;;;383700;;;;\"a \"\"note\"\"\n\"\n2;;C123;;;383700\n");
+
+        assertEquals(29, FileSegmentService.nextRowStart(escaped, 0));
+        assertEquals(34, FileSegmentService.nextRowStart(doubled, 0));
+    }
+
+    @Test
+    void nextRowStartAtOrAfterFrom() throws IOException {
+        assertEquals(14, FileSegmentService.nextRowStart(rows("C123;;;383700\n2;;C123;;;383700\n"), 14));
+        assertEquals(31, FileSegmentService.nextRowStart(rows("C123;;;383700\n2;;C123;;;383700\n"), 15));
+        assertEquals(-1, FileSegmentService.nextRowStart(rows("C123;;;383700\n2;;C123;;;383700"), 15));
+    }
+
+    @Test
+    void collectDuplicatedIdsAcrossSegments() throws IOException, CanoneUnicoException {
+        UniqueIdSet fileIds = new UniqueIdSet();
+        List<DebtPositionErrorRow> duplicated = new ArrayList<>();
+
+        long lines = FileSegmentService.collectDuplicatedIds(new StringReader("ID;amount\n1;100\n2;200\n"), fileIds, 0, duplicated);
+        // the duplicate in the same segment is reported by its validation
+        FileSegmentService.collectDuplicatedIds(new StringReader("ID;amount\n3;300\n2;400\n3;500\n"), fileIds, lines - 1, duplicated);
+
+        assertEquals(3, lines);
+        assertEquals(1, duplicated.size());
+        assertEquals(5, duplicated.get(0).getRowNumber());
+        assertEquals("400", duplicated.get(0).getRawLine()[1]);
+        assertTrue(duplicated.get(0).getErrorsDetail().get(0).contains("'2'"));
+    }
+
+    private static InputStream rows(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
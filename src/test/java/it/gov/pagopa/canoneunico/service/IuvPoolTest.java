@@ -0,0 +1,123 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class IuvPoolTest {
+
+    private static final long RESERVATION = 1000;
+
+    // IUVs in memory: the reservations made, the IUVs claimed and released and the sweeps
+    private static class MemoryIuvReserver implements IuvPool.IuvReserver {
+        private final List<Integer> reservations = new ArrayList<>();
+        private final List<String> claimed = new ArrayList<>();
+        private final List<String> released = new ArrayList<>();
+        private final List<Long> sweeps = new ArrayList<>();
+        private int next;
+
+        @Override
+        public List<String> reserve(int count, boolean pooled) {
+            reservations.add(count);
+            List<String> iuvs = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                iuvs.add(String.format("%017d", next++));
+            }
+            return iuvs;
+        }
+
+        @Override
+        public void claim(List<String> iuvs) {
+            claimed.addAll(iuvs);
+        }
+
+        @Override
+        public void release(List<String> iuvs) {
+            released.addAll(iuvs);
+        }
+
+        @Override
+        public int releaseExpired(long reservedBefore) {
+            sweeps.add(reservedBefore);
+            return 0;
+        }
+    }
+
+    @Test
+    void takeFromPool() throws Exception {
+        MemoryIuvReserver reserver = new MemoryIuvReserver();
+        List<Runnable> refills = new ArrayList<>();
+        Executor refiller = refills::add;
+        IuvPool pool = new IuvPool(10, 100, RESERVATION, reserver, refiller, () -> 0);
+
+        // the pool is empty: reserved inline, then refilled in background
+        assertEquals(5, pool.take(5).size());
+        assertEquals(List.of(5), reserver.reservations);
+        assertEquals(1, refills.size());
+        // a single refill at a time
+        pool.take(1);
+        assertEquals(1, refills.size());
+        refills.remove(0).run();
+        assertEquals(100, pool.size());
+
+        // taken from the pool, no reservation: only the pooled IUVs are claimed
+        List<String> iuvs = pool.take(85);
+        assertEquals(String.format("%017d", 6), iuvs.get(0));
+        assertEquals(iuvs, reserver.claimed);
+        assertEquals(15, pool.size());
+        assertEquals(List.of(5, 1, 100), reserver.reservations);
+        assertTrue(refills.isEmpty());
+
+        // below the low watermark
+        pool.take(10);
+        assertEquals(1, refills.size());
+    }
+
+    @Test
+    void takeDrainsPool() throws Exception {
+        MemoryIuvReserver reserver = new MemoryIuvReserver();
+        IuvPool pool = new IuvPool(10, 20, RESERVATION, reserver, Runnable::run, () -> 0);
+
+        pool.take(1);
+        assertEquals(20, pool.size());
+        // 20 from the pool, 5 reserved inline
+        assertEquals(25, pool.take(25).size());
+        assertEquals(List.of(1, 20, 5, 20), reserver.reservations);
+    }
+
+    @Test
+    void returnAll() throws Exception {
+        MemoryIuvReserver reserver = new MemoryIuvReserver();
+        IuvPool pool = new IuvPool(10, 20, RESERVATION, reserver, Runnable::run, () -> 0);
+
+        pool.take(5);
+        pool.returnAll();
+        assertEquals(0, pool.size());
+        assertEquals(20, reserver.released.size());
+    }
+
+    @Test
+    void takeExpired() throws Exception {
+        MemoryIuvReserver reserver = new MemoryIuvReserver();
+        AtomicLong clock = new AtomicLong();
+        IuvPool pool = new IuvPool(10, 20, RESERVATION, reserver, Runnable::run, clock::get);
+
+        pool.take(1);
+        assertEquals(20, pool.size());
+        // the IUVs in the second half of their reservation are dropped, left to the sweep
+        clock.set(RESERVATION / 2);
+        List<String> iuvs = pool.take(5);
+        assertEquals(List.of(1, 20, 5, 20), reserver.reservations);
+        assertTrue(reserver.claimed.isEmpty());
+        assertEquals(String.format("%017d", 21), iuvs.get(0));
+        // the refill sweeps the reservations expired
+        assertEquals(List.of(-RESERVATION / 2), reserver.sweeps);
+        assertEquals(20, pool.size());
+    }
+}
@@ -0,0 +1,61 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class IuvSequenceTest {
+
+    @Test
+    void nextLeasesNewBlock() throws Exception {
+        AtomicInteger leases = new AtomicInteger();
+        // blocks of the stored sequence: 1000, 2000, ...
+        IuvSequence sequence = new IuvSequence(3, blockSize -> 1000L * leases.incrementAndGet());
+
+        assertEquals(1000, sequence.next());
+        assertEquals(1001, sequence.next());
+        assertEquals(1002, sequence.next());
+        assertEquals(1, leases.get());
+        assertEquals(2000, sequence.next());
+        assertEquals(2, leases.get());
+    }
+
+    @Test
+    void nextConcurrentUnique() throws Exception {
+        AtomicLong stored = new AtomicLong();
+        IuvSequence sequence = new IuvSequence(10, stored::getAndAdd);
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        values.add(sequence.next());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(4000, values.size());
+        // no block is lost while the host is running
+        assertEquals(4000, stored.get());
+    }
+}
@@ -0,0 +1,107 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.canoneunico.iuvgenerator.IuvCodeFormatter;
+
+class IuvSnowflakeTest {
+
+    // 2024-01-01T00:00:10Z
+    private static final long START_MILLIS = (IuvSnowflake.EPOCH_SECONDS + 10) * 1000;
+
+    // worker ids in memory: the stored slots reserved by each worker id and its holder
+    private static class MemoryWorkerLeaser implements IuvSnowflake.WorkerLeaser {
+        private final Map<Integer, Long> reservedUntil = new HashMap<>();
+        private final Map<Integer, String> holders = new HashMap<>();
+        private int leases;
+
+        @Override
+        public synchronized IuvSnowflake.WorkerLease acquire(long slot, int reservedSlots) {
+            int workerId = holders.size();
+            long firstSlot = Math.max(slot, reservedUntil.getOrDefault(workerId, 0L));
+            return this.lease(workerId, firstSlot, firstSlot + reservedSlots);
+        }
+
+        @Override
+        public synchronized IuvSnowflake.WorkerLease extend(IuvSnowflake.WorkerLease lease, long slot, int reservedSlots) {
+            if (!lease.etag.equals(holders.get(lease.workerId))) {
+                return null;
+            }
+            return this.lease(lease.workerId, lease.firstSlot, Math.max(lease.reservedUntil, slot + reservedSlots));
+        }
+
+        // another host takes the worker id over, starting after its reserved slots
+        synchronized void takeOver(int workerId) {
+            holders.put(workerId, "other");
+            reservedUntil.merge(workerId, 60L, Long::sum);
+        }
+
+        private IuvSnowflake.WorkerLease lease(int workerId, long firstSlot, long until) {
+            String etag = "lease-" + leases++;
+            holders.put(workerId, etag);
+            reservedUntil.put(workerId, until);
+            return new IuvSnowflake.WorkerLease(workerId, firstSlot, until, Long.MAX_VALUE, etag);
+        }
+    }
+
+    @Test
+    void nextLayout() throws Exception {
+        IuvSnowflake snowflake = new IuvSnowflake(new MemoryWorkerLeaser(), () -> START_MILLIS);
+
+        // <seconds (9n)><worker id (2n)><counter (2n)>
+        assertEquals(10_00_00L, snowflake.next());
+        assertEquals(10_00_01L, snowflake.next());
+        assertTrue(IuvCodeFormatter.isValidIuvBase((IuvSnowflake.SLOT_LIMIT - 1) * 10_000 + 99_99));
+    }
+
+    @Test
+    void nextBorrowsNextSecond() throws Exception {
+        AtomicLong clock = new AtomicLong(START_MILLIS);
+        MemoryWorkerLeaser leaser = new MemoryWorkerLeaser();
+        IuvSnowflake snowflake = new IuvSnowflake(leaser, clock::get);
+        Set<Long> values = new HashSet<>();
+
+        // a burst of 100 seconds of values in the same second, more than the reserved slots
+        long last = 0;
+        for (int i = 0; i < 100 * IuvSnowflake.SLOT_VALUES; i++) {
+            last = snowflake.next();
+            assertTrue(values.add(last));
+        }
+        assertEquals((10 + 99) * 10_000L + 99, last);
+        assertTrue(leaser.reservedUntil.get(0) > 10 + 100);
+
+        // the clock is behind the borrowed slots: the values go on after them
+        clock.addAndGet(5_000);
+        assertTrue(values.add(snowflake.next()));
+        assertEquals(1, leaser.holders.size());
+    }
+
+    @Test
+    void nextAfterTakeOver() throws Exception {
+        MemoryWorkerLeaser leaser = new MemoryWorkerLeaser();
+        IuvSnowflake first = new IuvSnowflake(leaser, () -> START_MILLIS);
+        Set<Long> values = new HashSet<>();
+        for (int i = 0; i < 60 * IuvSnowflake.SLOT_VALUES; i++) {
+            assertTrue(values.add(first.next()));
+        }
+
+        // the lease of the worker id is lost: a new worker id is leased at the next renewal
+        leaser.takeOver(0);
+        IuvSnowflake second = new IuvSnowflake(leaser, () -> START_MILLIS);
+        for (int i = 0; i < 10 * IuvSnowflake.SLOT_VALUES; i++) {
+            assertTrue(values.add(first.next()));
+            assertTrue(values.add(second.next()));
+        }
+        assertEquals("other", leaser.holders.get(0));
+        assertEquals(3, leaser.holders.size());
+    }
+}
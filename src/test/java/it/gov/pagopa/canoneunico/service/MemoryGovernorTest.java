@@ -0,0 +1,46 @@
+package it.gov.pagopa.canoneunico.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class MemoryGovernorTest {
+
+    @Test
+    void admitWithinBudget() {
+        MemoryGovernor governor = new MemoryGovernor(100);
+
+        MemoryGovernor.Reservation first = governor.tryReserve("first.csv", 60);
+        MemoryGovernor.Reservation second = governor.tryReserve("second.csv", 40);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(100, governor.getReservedBytes());
+        assertEquals(Map.of("first.csv", 60L, "second.csv", 40L), governor.getReservations());
+        // the budget is exhausted until a file is released
+        assertNull(governor.tryReserve("third.csv", 1));
+
+        first.close();
+        assertEquals(40, governor.getReservedBytes());
+        assertNotNull(governor.tryReserve("third.csv", 60));
+    }
+
+    @Test
+    void admitLargerThanBudgetAlone() {
+        MemoryGovernor governor = new MemoryGovernor(100);
+
+        MemoryGovernor.Reservation large = governor.tryReserve("large.csv", 500);
+        assertNotNull(large);
+        assertNull(governor.tryReserve("small.csv", 1));
+
+        large.close();
+        // closed twice: released once
+        large.close();
+        assertEquals(0, governor.getReservedBytes());
+        assertEquals(Map.of(), governor.getReservations());
+    }
+}
@@ -0,0 +1,88 @@
+package it.gov.pagopa.canoneunico.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class CsvCompressionTest {
+
+    private static final byte[] CSV = "id;amount\n1;10\n2;20\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void detectCompressionByName() {
+        assertEquals(CsvCompression.NONE, CsvCompression.of("file.csv"));
+        assertEquals(CsvCompression.GZIP, CsvCompression.of("file.CSV.GZ"));
+        assertEquals(CsvCompression.ZIP, CsvCompression.of("file.zip"));
+        assertEquals("file.csv", CsvCompression.getCsvName("file.csv"));
+        assertEquals("file.csv", CsvCompression.getCsvName("file.csv.gz"));
+        assertEquals("file.csv", CsvCompression.getCsvName("file.zip"));
+    }
+
+    @Test
+    void decompressGzip() throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(CSV);
+        }
+
+        try (InputStream in = CsvCompression.GZIP.decompress(new ByteArrayInputStream(gzip.toByteArray()))) {
+            assertArrayEquals(CSV, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void decompressGzipOverLimit() throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(CSV);
+        }
+
+        try (InputStream in = CsvCompression.GZIP.decompress(new ByteArrayInputStream(gzip.toByteArray()), CSV.length)) {
+            assertArrayEquals(CSV, in.readAllBytes());
+        }
+        InputStream in = CsvCompression.GZIP.decompress(new ByteArrayInputStream(gzip.toByteArray()), CSV.length - 1);
+        assertThrows(IOException.class, in::readAllBytes);
+    }
+
+    @Test
+    void decompressZip() throws IOException {
+        try (InputStream in = CsvCompression.ZIP.decompress(new ByteArrayInputStream(zip("file.csv")))) {
+            assertArrayEquals(CSV, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void zipWithMoreEntries() throws IOException {
+        InputStream in = CsvCompression.ZIP.decompress(new ByteArrayInputStream(zip("file.csv", "other.csv")));
+
+        assertThrows(IOException.class, in::readAllBytes);
+    }
+
+    @Test
+    void emptyZip() {
+        assertThrows(IOException.class, () -> CsvCompression.ZIP.decompress(new ByteArrayInputStream(zip())));
+    }
+
+    private static byte[] zip(String... entries) throws IOException {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(CSV);
+                out.closeEntry();
+            }
+        }
+        return zip.toByteArray();
+    }
+}
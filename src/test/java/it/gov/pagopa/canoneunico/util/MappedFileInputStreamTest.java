@@ -0,0 +1,58 @@
+package it.gov.pagopa.canoneunico.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+class MappedFileInputStreamTest {
+
+    private static final byte[] CSV = "id;amount\n1;10\n2;20\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void readAcrossRegions() throws IOException {
+        Path file = Files.write(Files.createTempFile("cu-", ".spool"), CSV);
+
+        // regions of 4 bytes: the content is read from 5 mapped regions
+        try (InputStream in = new MappedFileInputStream(file, false, 4)) {
+            assertEquals(CSV.length, in.available());
+            assertEquals('i', in.read());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write('i');
+            in.transferTo(out);
+            assertArrayEquals(CSV, out.toByteArray());
+            assertEquals(-1, in.read());
+        }
+        assertTrue(Files.exists(file));
+        Files.delete(file);
+    }
+
+    @Test
+    void deleteOnClose() throws IOException {
+        Path file = Files.write(Files.createTempFile("cu-", ".spool"), CSV);
+
+        try (InputStream in = new MappedFileInputStream(file, true)) {
+            assertArrayEquals(CSV, in.readAllBytes());
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void emptyFile() throws IOException {
+        Path file = Files.write(Files.createTempFile("cu-", ".spool"), new byte[0]);
+
+        try (InputStream in = new MappedFileInputStream(file, true)) {
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(new byte[8], 0, 8));
+        }
+    }
+}